@@ -53,6 +53,14 @@ public class BuildRepository implements Serializable {
 
 	private String uri;
 
+	private String includes;
+
+	private String excludes;
+
+	private transient PathPatterns includePatterns;
+
+	private transient PathPatterns excludePatterns;
+
 	/**
 	 * Create build repository
 	 *
@@ -60,11 +68,31 @@ public class BuildRepository implements Serializable {
 	 * @param branch
 	 * @param directory
 	 */
-	@DataBoundConstructor
 	public BuildRepository(String uri, String branch, String directory) {
+		this(uri, branch, directory, null, null);
+	}
+
+	/**
+	 * Create build repository that only reports polling changes to paths
+	 * matching the given patterns
+	 *
+	 * @param uri
+	 * @param branch
+	 * @param directory
+	 * @param includes
+	 *            {@link PathPatterns} of paths that are polled, all paths if
+	 *            empty
+	 * @param excludes
+	 *            {@link PathPatterns} of paths that are never polled
+	 */
+	@DataBoundConstructor
+	public BuildRepository(String uri, String branch, String directory,
+			String includes, String excludes) {
 		this.uri = uri;
 		this.branch = branch;
 		this.directory = directory;
+		this.includes = includes;
+		this.excludes = excludes;
 	}
 
 	/**
@@ -91,11 +119,65 @@ public class BuildRepository implements Serializable {
 		return uri;
 	}
 
+	/**
+	 * @return included path patterns
+	 */
+	@Exported
+	public String getIncludes() {
+		return includes;
+	}
+
+	/**
+	 * @return excluded path patterns
+	 */
+	@Exported
+	public String getExcludes() {
+		return excludes;
+	}
+
+	private PathPatterns getIncludePatterns() {
+		if (includePatterns == null)
+			includePatterns = new PathPatterns(includes);
+		return includePatterns;
+	}
+
+	private PathPatterns getExcludePatterns() {
+		if (excludePatterns == null)
+			excludePatterns = new PathPatterns(excludes);
+		return excludePatterns;
+	}
+
+	/**
+	 * Does this repository filter polled changes by path?
+	 *
+	 * @return true if filtering, false otherwise
+	 */
+	public boolean hasPathFilter() {
+		return !getIncludePatterns().isEmpty()
+				|| !getExcludePatterns().isEmpty();
+	}
+
+	/**
+	 * Is a change to the given path relevant when polling this repository?
+	 *
+	 * @param path
+	 *            repository-relative path using <code>/</code> separators
+	 * @return true if included, false otherwise
+	 */
+	public boolean isPathIncluded(String path) {
+		PathPatterns included = getIncludePatterns();
+		if (!included.isEmpty() && !included.matches(path))
+			return false;
+		return !getExcludePatterns().matches(path);
+	}
+
 	public boolean equals(Object other) {
 		if (other == this)
 			return true;
 		if (!(other instanceof BuildRepository))
 			return false;
+		// Path patterns only filter polling and are not part of the identity
+		// used to look up build state
 		BuildRepository otherRepo = (BuildRepository) other;
 		return Check.equals(uri, otherRepo.uri)
 				&& Check.equals(branch, otherRepo.branch)
@@ -23,6 +23,7 @@ package org.jenkinsci.git;
 
 import hudson.scm.SCMRevisionState;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -38,7 +39,10 @@ import org.gitective.core.Check;
  * @author Kevin Sawicki (kevin@github.com)
  */
 public class BuildRepositoryState extends SCMRevisionState implements
-		Iterable<Entry<BuildRepository, ObjectId>> {
+		Iterable<Entry<BuildRepository, ObjectId>>, Serializable {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -8064520213924478335L;
 
 	private Map<BuildRepository, ObjectId> states = new HashMap<BuildRepository, ObjectId>();
 
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+/**
+ * Progress monitor that reports no progress and is cancelled either
+ * explicitly or when the thread doing the monitored work is interrupted
+ * <p>
+ * Aborting a build interrupts the thread running the build's remote calls so
+ * JGit stops transferring and indexing packs at its next cancellation check.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CancellableProgressMonitor implements ProgressMonitor {
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Cancel the monitored work
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public void start(int totalTasks) {
+		// Ignored
+	}
+
+	public void beginTask(String title, int totalWork) {
+		// Ignored
+	}
+
+	public void update(int completed) {
+		// Ignored
+	}
+
+	public void endTask() {
+		// Ignored
+	}
+
+	public boolean isCancelled() {
+		return cancelled || Thread.currentThread().isInterrupted();
+	}
+}
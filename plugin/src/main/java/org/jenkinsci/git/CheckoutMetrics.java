@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jenkinsci.git.CheckoutTimings.Phase;
+import org.jenkinsci.git.CheckoutTimings.RepositoryTimings;
+import org.jenkinsci.git.PollMetrics.Histogram;
+
+/**
+ * Checkout metrics that record the duration of each checkout phase per job
+ * and per computer the checkout ran on
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CheckoutMetrics {
+
+	/**
+	 * Upper bounds in milliseconds of phase duration histogram buckets, a
+	 * final bucket counts all larger values
+	 */
+	public static final long[] DURATION_BUCKETS = new long[] { 100, 500, 1000,
+			5000, 10000, 30000, 60000, 300000, 600000 };
+
+	/**
+	 * Name used for checkouts on the controller
+	 */
+	public static final String CONTROLLER = "master";
+
+	/**
+	 * Duration histograms of each phase
+	 */
+	public static class PhaseMetrics {
+
+		private final Histogram[] phases;
+
+		private final Histogram total = new Histogram(DURATION_BUCKETS);
+
+		/**
+		 * Create phase metrics
+		 */
+		public PhaseMetrics() {
+			phases = new Histogram[Phase.values().length];
+			for (int i = 0; i < phases.length; i++)
+				phases[i] = new Histogram(DURATION_BUCKETS);
+		}
+
+		/**
+		 * Get histogram of phase
+		 *
+		 * @param phase
+		 * @return non-null histogram
+		 */
+		public Histogram get(Phase phase) {
+			return phases[phase.ordinal()];
+		}
+
+		/**
+		 * @return histogram of total checkout durations per repository
+		 */
+		public Histogram getTotal() {
+			return total;
+		}
+
+		void record(RepositoryTimings timings) {
+			// Phases that did not run would skew histograms toward 0
+			for (Phase phase : Phase.values())
+				if (timings.isRecorded(phase))
+					get(phase).record(timings.get(phase));
+			total.record(timings.getTotal());
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			for (Phase phase : Phase.values())
+				values.put(phase.name(), get(phase).toMap());
+			values.put("TOTAL", total.toMap());
+			return values;
+		}
+	}
+
+	private static final CheckoutMetrics SHARED = new CheckoutMetrics();
+
+	/**
+	 * Get metrics shared by all checkouts of this controller
+	 *
+	 * @return non-null metrics
+	 */
+	public static CheckoutMetrics getShared() {
+		return SHARED;
+	}
+
+	private final ConcurrentMap<String, PhaseMetrics> jobs = new ConcurrentHashMap<String, PhaseMetrics>();
+
+	private final ConcurrentMap<String, PhaseMetrics> computers = new ConcurrentHashMap<String, PhaseMetrics>();
+
+	private PhaseMetrics get(ConcurrentMap<String, PhaseMetrics> metrics,
+			String name) {
+		PhaseMetrics phases = metrics.get(name);
+		if (phases == null) {
+			phases = new PhaseMetrics();
+			PhaseMetrics existing = metrics.putIfAbsent(name, phases);
+			if (existing != null)
+				phases = existing;
+		}
+		return phases;
+	}
+
+	/**
+	 * Get metrics of job
+	 *
+	 * @param job
+	 * @return non-null metrics
+	 */
+	public PhaseMetrics getJobMetrics(String job) {
+		return get(jobs, job);
+	}
+
+	private static String getComputerKey(String computer) {
+		if (computer == null || computer.length() == 0)
+			return CONTROLLER;
+		return computer;
+	}
+
+	/**
+	 * Get metrics of computer
+	 *
+	 * @param computer
+	 *            name, null or empty for the controller
+	 * @return non-null metrics
+	 */
+	public PhaseMetrics getComputerMetrics(String computer) {
+		return get(computers, getComputerKey(computer));
+	}
+
+	/**
+	 * Remove metrics of job
+	 *
+	 * @param job
+	 * @return this metrics
+	 */
+	public CheckoutMetrics removeJob(String job) {
+		jobs.remove(job);
+		return this;
+	}
+
+	/**
+	 * Move metrics of job to its new name
+	 *
+	 * @param oldJob
+	 * @param newJob
+	 * @return this metrics
+	 */
+	public CheckoutMetrics renameJob(String oldJob, String newJob) {
+		PhaseMetrics metrics = jobs.remove(oldJob);
+		if (metrics != null)
+			jobs.put(newJob, metrics);
+		return this;
+	}
+
+	/**
+	 * Remove metrics of all computers not in the given names
+	 *
+	 * @param names
+	 *            names of existing computers, null or empty for the
+	 *            controller
+	 * @return this metrics
+	 */
+	public CheckoutMetrics retainComputers(Collection<String> names) {
+		Collection<String> keys = new HashSet<String>();
+		for (String name : names)
+			keys.add(getComputerKey(name));
+		computers.keySet().retainAll(keys);
+		return this;
+	}
+
+	/**
+	 * Record timings of a checkout
+	 *
+	 * @param job
+	 * @param computer
+	 *            name, null or empty for the controller
+	 * @param timings
+	 * @return this metrics
+	 */
+	public CheckoutMetrics record(String job, String computer,
+			CheckoutTimings timings) {
+		PhaseMetrics jobMetrics = getJobMetrics(job);
+		PhaseMetrics computerMetrics = getComputerMetrics(computer);
+		for (RepositoryTimings repo : timings.getRepositories()) {
+			jobMetrics.record(repo);
+			computerMetrics.record(repo);
+		}
+		return this;
+	}
+
+	/**
+	 * Get metrics as map of values
+	 *
+	 * @return map
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		Map<String, Object> jobValues = new TreeMap<String, Object>();
+		for (Entry<String, PhaseMetrics> job : jobs.entrySet())
+			jobValues.put(job.getKey(), job.getValue().toMap());
+		values.put("jobs", jobValues);
+		Map<String, Object> computerValues = new TreeMap<String, Object>();
+		for (Entry<String, PhaseMetrics> computer : computers.entrySet())
+			computerValues.put(computer.getKey(), computer.getValue().toMap());
+		values.put("computers", computerValues);
+		return values;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.Serializable;
+
+/**
+ * Result of a {@link RepositoryCheckoutOperation} holding the checked out
+ * commits and how long checking them out took
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CheckoutResult implements Serializable {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 5830384916582218946L;
+
+	private final BuildRepositoryState state;
+
+	private final CheckoutTimings timings;
+
+	/**
+	 * Create checkout result
+	 *
+	 * @param state
+	 * @param timings
+	 */
+	public CheckoutResult(BuildRepositoryState state, CheckoutTimings timings) {
+		this.state = state;
+		this.timings = timings;
+	}
+
+	/**
+	 * @return state of checked out commits
+	 */
+	public BuildRepositoryState getState() {
+		return state;
+	}
+
+	/**
+	 * @return timings of the checkout
+	 */
+	public CheckoutTimings getTimings() {
+		return timings;
+	}
+}
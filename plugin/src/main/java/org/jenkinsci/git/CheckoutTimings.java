@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.model.Action;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Build action that records how long each phase of checking out each
+ * {@link BuildRepository} took
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CheckoutTimings implements Action, Serializable {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 3329620773357587436L;
+
+	/**
+	 * Phases of checking out a repository
+	 */
+	public static enum Phase {
+
+		/**
+		 * Opening or creating the repository
+		 */
+		OPEN,
+
+		/**
+		 * Restoring the working tree before fetching
+		 */
+		CLEAN,
+
+		/**
+		 * Fetching from the remote or mirror
+		 */
+		FETCH,
+
+		/**
+		 * Walking the commits between the previous and fetched commits
+		 */
+		CHANGELOG,
+
+		/**
+		 * Writing the working tree and index
+		 */
+		CHECKOUT,
+
+		/**
+		 * Updating HEAD to the fetched commit
+		 */
+		REF_UPDATE;
+	}
+
+	/**
+	 * Timings of a single repository
+	 */
+	public static class RepositoryTimings implements Serializable {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = -5412290402180478316L;
+
+		private final String repository;
+
+		private final long[] phases = new long[Phase.values().length];
+
+		private final boolean[] recorded = new boolean[Phase.values().length];
+
+		private transient long mark = System.currentTimeMillis();
+
+		/**
+		 * Create timings starting now
+		 *
+		 * @param repository
+		 */
+		public RepositoryTimings(String repository) {
+			this.repository = repository;
+		}
+
+		/**
+		 * Add the time elapsed since the previous phase ended to the given
+		 * phase
+		 *
+		 * @param phase
+		 * @return this timings
+		 */
+		public RepositoryTimings record(Phase phase) {
+			long now = System.currentTimeMillis();
+			phases[phase.ordinal()] += now - mark;
+			recorded[phase.ordinal()] = true;
+			mark = now;
+			return this;
+		}
+
+		/**
+		 * @return repository
+		 */
+		public String getRepository() {
+			return repository;
+		}
+
+		/**
+		 * Get duration of phase
+		 *
+		 * @param phase
+		 * @return milliseconds
+		 */
+		public long get(Phase phase) {
+			return phases[phase.ordinal()];
+		}
+
+		/**
+		 * Get duration of phase
+		 *
+		 * @param phase
+		 *            name of {@link Phase}
+		 * @return milliseconds
+		 */
+		public long get(String phase) {
+			return get(Phase.valueOf(phase));
+		}
+
+		/**
+		 * Did the phase run, phases such as {@link Phase#CLEAN} are skipped
+		 * when disabled
+		 *
+		 * @param phase
+		 * @return true if recorded, false otherwise
+		 */
+		public boolean isRecorded(Phase phase) {
+			// Timings recorded before phases were tracked
+			if (recorded == null)
+				return get(phase) > 0;
+			return recorded[phase.ordinal()];
+		}
+
+		/**
+		 * @return total duration of all phases in milliseconds
+		 */
+		public long getTotal() {
+			long total = 0;
+			for (long phase : phases)
+				total += phase;
+			return total;
+		}
+
+		public String toString() {
+			StringBuilder builder = new StringBuilder(repository);
+			builder.append(':');
+			for (Phase phase : Phase.values())
+				if (isRecorded(phase))
+					builder.append(' ').append(phase.name().toLowerCase())
+							.append(' ').append(get(phase)).append(" ms");
+			return builder.toString();
+		}
+	}
+
+	private final List<RepositoryTimings> repos = new ArrayList<RepositoryTimings>();
+
+	/**
+	 * Add timings of repository
+	 *
+	 * @param timings
+	 * @return this action
+	 */
+	public synchronized CheckoutTimings add(RepositoryTimings timings) {
+		if (timings != null)
+			repos.add(timings);
+		return this;
+	}
+
+	/**
+	 * Get timings of each repository in checkout order
+	 *
+	 * @return non-null but possibly empty list
+	 */
+	public synchronized List<RepositoryTimings> getRepositories() {
+		return Collections.unmodifiableList(new ArrayList<RepositoryTimings>(
+				repos));
+	}
+
+	/**
+	 * Get names of all phases
+	 *
+	 * @return phases
+	 */
+	public Phase[] getPhases() {
+		return Phase.values();
+	}
+
+	/**
+	 * @return true if empty, false otherwise
+	 */
+	public synchronized boolean isEmpty() {
+		return repos.isEmpty();
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Git Checkout Timings";
+	}
+
+	public String getUrlName() {
+		return null;
+	}
+}
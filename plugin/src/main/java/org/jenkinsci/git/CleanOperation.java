@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+
+/**
+ * Operation that restores the working tree of a repository to the contents of
+ * its index
+ * <p>
+ * The index and working tree are walked together so that untracked and
+ * ignored files are deleted and only tracked files that are missing or
+ * modified are written again. Directories containing a nested repository are
+ * left untouched.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CleanOperation implements Callable<Integer, IOException> {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -2283720407398498112L;
+
+	private final Repository repo;
+
+	private int deleted;
+
+	private int reset;
+
+	private long duration;
+
+	/**
+	 * Create clean operation
+	 *
+	 * @param repo
+	 *            must be non-null
+	 */
+	public CleanOperation(Repository repo) {
+		if (repo == null)
+			throw new IllegalArgumentException("Repo cannot be null");
+		this.repo = repo;
+	}
+
+	/**
+	 * Get number of untracked files deleted by the last clean
+	 *
+	 * @return count
+	 */
+	public int getDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * Get number of tracked files written by the last clean
+	 *
+	 * @return count
+	 */
+	public int getReset() {
+		return reset;
+	}
+
+	/**
+	 * Get duration of the last clean
+	 *
+	 * @return milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Is the directory the working tree of a nested repository?
+	 *
+	 * @param dir
+	 * @return true if nested repository, false otherwise
+	 */
+	protected boolean isNestedRepository(File dir) {
+		return new File(dir, Constants.DOT_GIT).exists();
+	}
+
+	/**
+	 * Delete file or directory and its contents
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	protected void delete(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		if (!file.delete() && file.exists())
+			throw new IOException("Unable to delete " + file);
+	}
+
+	/**
+	 * Write blob of entry to the working tree and update the entry's length
+	 * and modification time from the written file
+	 *
+	 * @param reader
+	 * @param file
+	 * @param entry
+	 * @throws IOException
+	 */
+	protected void reset(ObjectReader reader, File file, DirCacheEntry entry)
+			throws IOException {
+		if (file.isDirectory())
+			delete(file);
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Unable to create directory " + parent);
+		ObjectLoader loader = reader.open(entry.getObjectId(),
+				Constants.OBJ_BLOB);
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			loader.copyTo(output);
+		} finally {
+			output.close();
+		}
+		if (repo.getFS().supportsExecute())
+			repo.getFS().setExecute(file,
+					FileMode.EXECUTABLE_FILE.equals(entry.getRawMode()));
+		entry.setLastModified(file.lastModified());
+		entry.setLength((int) file.length());
+	}
+
+	public Integer call() throws IOException {
+		long start = System.currentTimeMillis();
+		File workTree = repo.getWorkTree();
+		List<File> untrackedDirs = new ArrayList<File>();
+		deleted = 0;
+		reset = 0;
+		DirCache dirCache = repo.lockDirCache();
+		boolean committed = false;
+		try {
+			TreeWalk walk = new TreeWalk(repo);
+			try {
+				walk.addTree(new DirCacheIterator(dirCache));
+				walk.addTree(new FileTreeIterator(repo));
+				while (walk.next()) {
+					if (Thread.currentThread().isInterrupted())
+						throw new InterruptedIOException("Clean interrupted");
+					DirCacheIterator index = walk.getTree(0,
+							DirCacheIterator.class);
+					WorkingTreeIterator file = walk.getTree(1,
+							WorkingTreeIterator.class);
+					File path = new File(workTree, walk.getPathString());
+					if (index == null) {
+						if (FileMode.GITLINK.equals(walk.getRawMode(1))
+								|| isNestedRepository(path))
+							continue;
+						// Untracked directories are entered instead of deleted
+						// so nested repositories within them are kept
+						if (walk.isSubtree()) {
+							untrackedDirs.add(path);
+							walk.enterSubtree();
+						} else {
+							delete(path);
+							deleted++;
+						}
+						continue;
+					}
+					if (walk.isSubtree()) {
+						walk.enterSubtree();
+						continue;
+					}
+					DirCacheEntry entry = index.getDirCacheEntry();
+					if (FileMode.GITLINK.equals(entry.getRawMode()))
+						continue;
+					if (file == null || file.isModified(entry, true)) {
+						reset(walk.getObjectReader(), path, entry);
+						reset++;
+					}
+				}
+			} finally {
+				walk.release();
+			}
+			// Directories were added parent first so children are removed
+			// before the directories containing them
+			for (int i = untrackedDirs.size() - 1; i >= 0; i--) {
+				File dir = untrackedDirs.get(i);
+				if (dir.isDirectory())
+					dir.delete();
+			}
+			if (reset > 0) {
+				dirCache.write();
+				if (!dirCache.commit())
+					throw new IOException("Unable to write index");
+				committed = true;
+			}
+		} finally {
+			if (!committed)
+				dirCache.unlock();
+		}
+		duration = System.currentTimeMillis() - start;
+		return deleted + reset;
+	}
+}
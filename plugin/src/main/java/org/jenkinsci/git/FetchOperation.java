@@ -23,7 +23,11 @@ package org.jenkinsci.git;
 
 import hudson.remoting.Callable;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
@@ -38,6 +42,11 @@ import org.gitective.core.GitException;
 
 /**
  * Operation that fetches from a {@link BuildRepository} configuration
+ * <p>
+ * Concurrent fetches of the same branch of the same remote in this JVM are
+ * coalesced so that only the first contacts the remote. The others then copy
+ * the fetched branch from the repository of the first fetch, or fetch from the
+ * remote themselves if that copy fails.
  *
  * @author Kevin Sawicki (kevin@github.com)
  */
@@ -46,12 +55,111 @@ public class FetchOperation implements Callable<RevCommit, IOException> {
 	/** serialVersionUID */
 	private static final long serialVersionUID = 3956046067095683554L;
 
+	/**
+	 * Prefix of the temporary files JGit writes incoming packs to
+	 */
+	public static final String INCOMING_PREFIX = "incoming_";
+
+	private static final String LOCK_SUFFIX = ".lock";
+
+	private static final SingleFlight<File> FLIGHTS = new SingleFlight<File>();
+
+	/**
+	 * Get fetches coalesced by remote URI and ref spec in this JVM
+	 *
+	 * @return non-null single flight
+	 */
+	public static SingleFlight<File> getFlights() {
+		return FLIGHTS;
+	}
+
+	/**
+	 * Get the partially received packs and the lock files of the given refs
+	 * that currently exist in the repository
+	 *
+	 * @param repo
+	 * @param refs
+	 *            names of refs a fetch updates
+	 * @return non-null but possibly empty set of files
+	 */
+	public static Set<File> getTemporaryFiles(Repository repo, String... refs) {
+		Set<File> temporary = new HashSet<File>();
+		File objects = new File(repo.getDirectory(), Constants.OBJECTS);
+		File[] dirs = new File[] { objects, new File(objects, "pack") };
+		for (File dir : dirs) {
+			File[] files = dir.listFiles();
+			if (files != null)
+				for (File file : files)
+					if (file.getName().startsWith(INCOMING_PREFIX))
+						temporary.add(file);
+		}
+		for (String ref : refs) {
+			File lock = new File(repo.getDirectory(), ref + LOCK_SUFFIX);
+			if (lock.exists())
+				temporary.add(lock);
+		}
+		return temporary;
+	}
+
+	/**
+	 * Delete partially received packs and the lock files of the given refs
+	 * left behind by an interrupted fetch
+	 * <p>
+	 * Only files that did not exist before the fetch started and were
+	 * modified since are deleted, so the files of concurrent fetches and locks
+	 * the fetch failed to acquire are kept.
+	 *
+	 * @param repo
+	 * @param existing
+	 *            temporary files that existed before the fetch, as returned
+	 *            by {@link #getTemporaryFiles(Repository, String...)}
+	 * @param start
+	 *            time in milliseconds the fetch started at
+	 * @param refs
+	 *            names of refs the fetch was updating
+	 * @return number of files deleted
+	 */
+	public static int cleanup(Repository repo, Set<File> existing, long start,
+			String... refs) {
+		// File systems may only store modification times in whole seconds
+		long since = start - start % 1000;
+		int deleted = 0;
+		for (File file : getTemporaryFiles(repo, refs))
+			if (!existing.contains(file) && file.lastModified() >= since
+					&& file.delete())
+				deleted++;
+		return deleted;
+	}
+
+	/**
+	 * Get exception to throw for a failed fetch
+	 *
+	 * @param repo
+	 * @param progress
+	 * @param cause
+	 * @return interrupted exception if the fetch was cancelled, I/O exception
+	 *         wrapping the cause otherwise
+	 */
+	public static IOException getFailure(BuildRepository repo,
+			CancellableProgressMonitor progress, Exception cause) {
+		if (!progress.isCancelled())
+			return new IOException(cause);
+		InterruptedIOException cancelled = new InterruptedIOException(
+				"Fetch of " + repo + " cancelled");
+		cancelled.initCause(cause);
+		return cancelled;
+	}
+
 	private final BuildRepository repo;
 
 	private final Repository gitRepo;
 
 	private final StreamProgressMonitor monitor;
 
+	private int timeout;
+
+	private transient RemoteCircuitBreaker breaker;
+
 	/**
 	 * Create fetch operation
 	 *
@@ -80,21 +188,144 @@ public class FetchOperation implements Callable<RevCommit, IOException> {
 		this.monitor = monitor;
 	}
 
-	public RevCommit call() throws IOException {
+	/**
+	 * Set timeout of remote connections
+	 *
+	 * @param timeout
+	 *            seconds, values less than 1 wait indefinitely
+	 * @return this operation
+	 */
+	public FetchOperation setTimeout(int timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Set circuit breaker that fails fast for unavailable remote hosts
+	 *
+	 * @param breaker
+	 *            may be null
+	 * @return this operation
+	 */
+	public FetchOperation setBreaker(RemoteCircuitBreaker breaker) {
+		this.breaker = breaker;
+		return this;
+	}
+
+	/**
+	 * Get remote-tracking ref that the fetched branch is stored in
+	 * <p>
+	 * Keeping the fetched commit under a ref lets later fetches advertise it
+	 * and its history as already present, so only new objects are sent.
+	 *
+	 * @return ref name under {@link Constants#R_REMOTES}
+	 */
+	protected String getTrackingRef() {
+		String branch = repo.getBranch();
+		if (branch.startsWith(Constants.R_HEADS))
+			branch = branch.substring(Constants.R_HEADS.length());
+		else if (branch.startsWith(Constants.R_REFS))
+			branch = branch.substring(Constants.R_REFS.length());
+		return Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + '/'
+				+ branch;
+	}
+
+	/**
+	 * Get ref spec that fetches the branch into the remote-tracking ref
+	 *
+	 * @return ref spec
+	 */
+	protected RefSpec getRefSpec() {
+		return new RefSpec("+" + repo.getBranch() + ":" + getTrackingRef());
+	}
+
+	/**
+	 * Fetch ref spec from the given URI
+	 *
+	 * @param uri
+	 * @param spec
+	 * @throws IOException
+	 */
+	protected void fetch(String uri, RefSpec spec) throws IOException {
+		String[] refs = new String[] { Constants.FETCH_HEAD, getTrackingRef() };
+		long start = System.currentTimeMillis();
+		Set<File> existing = getTemporaryFiles(gitRepo, refs);
 		FetchCommand fetch = Git.wrap(gitRepo).fetch();
-		fetch.setRemote(repo.getUri());
-		fetch.setRefSpecs(new RefSpec(repo.getBranch()));
-		if (monitor != null)
-			fetch.setProgressMonitor(monitor);
+		fetch.setRemote(uri);
+		fetch.setRefSpecs(spec);
+		if (timeout > 0)
+			fetch.setTimeout(timeout);
+		CancellableProgressMonitor progress = monitor;
+		if (progress == null)
+			progress = new CancellableProgressMonitor();
+		fetch.setProgressMonitor(progress);
+		boolean fetched = false;
 		try {
 			fetch.call();
-			return CommitUtils.getRef(gitRepo, Constants.FETCH_HEAD);
-		} catch (GitException e) {
-			throw new IOException(e);
+			fetched = true;
 		} catch (JGitInternalException e) {
-			throw new IOException(e);
+			throw getFailure(repo, progress, e);
 		} catch (InvalidRemoteException e) {
+			throw getFailure(repo, progress, e);
+		} finally {
+			if (!fetched)
+				cleanup(gitRepo, existing, start, refs);
+		}
+	}
+
+	/**
+	 * Fetch from the remote, sharing a concurrent fetch of the same branch
+	 *
+	 * @return fetched commit
+	 * @throws IOException
+	 */
+	protected RevCommit fetch() throws IOException {
+		final File directory = gitRepo.getDirectory();
+		final RefSpec spec = getRefSpec();
+		String key = "fetch " + repo.getUri() + ' ' + spec;
+		if (breaker != null)
+			breaker.check(repo.getUri());
+		File fetched = FLIGHTS.execute(key, new Callable<File, IOException>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public File call() throws IOException {
+				try {
+					fetch(repo.getUri(), spec);
+				} catch (IOException e) {
+					if (breaker != null)
+						breaker.recordFailure(repo.getUri(), e);
+					throw e;
+				} catch (RuntimeException e) {
+					if (breaker != null)
+						breaker.recordFailure(repo.getUri(),
+								new IOException(e));
+					throw e;
+				}
+				if (breaker != null)
+					breaker.recordSuccess(repo.getUri());
+				return directory;
+			}
+		});
+		if (!directory.equals(fetched)) {
+			String tracking = getTrackingRef();
+			try {
+				fetch(fetched.toURI().toString(), new RefSpec("+" + tracking
+						+ ":" + tracking));
+			} catch (IOException e) {
+				if (e instanceof InterruptedIOException)
+					throw e;
+				fetch(repo.getUri(), spec);
+			}
+		}
+		try {
+			return CommitUtils.getRef(gitRepo, Constants.FETCH_HEAD);
+		} catch (GitException e) {
 			throw new IOException(e);
 		}
 	}
+
+	public RevCommit call() throws IOException {
+		return fetch();
+	}
 }
@@ -35,7 +35,10 @@ import org.eclipse.jgit.util.FS;
 
 /**
  * Operation that resolves a file-based {@link Repository} for a
- * {@link BuildRepository}
+ * {@link BuildRepository}.
+ * <p>
+ * Repositories are opened through the shared {@link RepositoryHandleCache}
+ * and must be closed by the caller.
  *
  * @author Kevin Sawicki (kevin@github.com)
  */
@@ -74,7 +77,7 @@ public class FileRepositoryOperation implements FileCallable<Repository> {
 			builder.setWorkTree(gitDir);
 		builder.setMustExist(true);
 		try {
-			return builder.build();
+			return RepositoryHandleCache.getShared().open(builder);
 		} catch (RepositoryNotFoundException rnfe) {
 			return null;
 		}
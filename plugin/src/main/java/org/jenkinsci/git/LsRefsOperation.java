@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.Base64;
+import org.eclipse.jgit.util.HttpSupport;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Operation that lists the refs of a smart HTTP remote matching a set of
+ * prefixes using the Git wire protocol version 2 ls-refs command.
+ * <p>
+ * The remote only sends the refs that match the requested prefixes instead of
+ * its full advertisement. Whether a remote supports protocol version 2 is
+ * remembered for {@link #CAPABILITY_TTL} so that listings of supported
+ * remotes take a single request and listings of unsupported remotes cause
+ * {@link #call()} to return null so callers can fall back to a full listing.
+ * A remote remembered as supported is only checked again when it rejects the
+ * ls-refs command, other failures are thrown as is and forget the support so
+ * that the next listing checks it.
+ * <p>
+ * Connections use the proxy selected for the URI by the JVM like JGit's HTTP
+ * transport does and credentials in the user information of the URI.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class LsRefsOperation implements
+		Callable<Map<String, ObjectId>, IOException> {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -8172870939917045434L;
+
+	/**
+	 * Protocol header value requesting version 2
+	 */
+	public static final String PROTOCOL_V2 = "version=2";
+
+	private static final String SERVICE = "git-upload-pack";
+
+	private static final String AGENT = "gitng-plugin";
+
+	/**
+	 * Milliseconds the protocol version support of a remote is remembered
+	 */
+	public static final long CAPABILITY_TTL = 60 * 60 * 1000;
+
+	private static class Capability {
+
+		final boolean supported;
+
+		final long expires;
+
+		Capability(boolean supported) {
+			this.supported = supported;
+			expires = System.currentTimeMillis() + CAPABILITY_TTL;
+		}
+	}
+
+	/**
+	 * Exception thrown when the remote rejects the ls-refs command or answers
+	 * it in a form other than protocol version 2
+	 */
+	private static class RejectedException extends IOException {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = -2695618839411730117L;
+
+		RejectedException(String message) {
+			super(message);
+		}
+	}
+
+	private static final ConcurrentMap<String, Capability> CAPABILITIES = new ConcurrentHashMap<String, Capability>();
+
+	/**
+	 * Get remembered protocol version support of the remote
+	 *
+	 * @param uri
+	 * @return capability or null if unknown or expired
+	 */
+	private static Capability getCapability(String uri) {
+		Capability capability = CAPABILITIES.get(uri);
+		if (capability != null
+				&& capability.expires <= System.currentTimeMillis()) {
+			CAPABILITIES.remove(uri, capability);
+			return null;
+		}
+		return capability;
+	}
+
+	/**
+	 * Decode percent-encoded user information
+	 *
+	 * @param value
+	 * @return decoded value
+	 */
+	public static String decode(String value) {
+		if (value.indexOf('%') == -1)
+			return value;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				value.length());
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '%' && i + 2 < length) {
+				try {
+					bytes.write(Integer.parseInt(value.substring(i + 1, i + 3),
+							16));
+					i += 2;
+					continue;
+				} catch (NumberFormatException e) {
+					// Write invalid escapes as is
+				}
+			}
+			byte[] encoded = Constants.encode(String.valueOf(c));
+			bytes.write(encoded, 0, encoded.length);
+		}
+		return RawParseUtils.decode(bytes.toByteArray());
+	}
+
+	/**
+	 * Is the given URI a candidate for a protocol version 2 listing?
+	 *
+	 * @param uri
+	 * @return true if the URI uses HTTP and has not been found to only support
+	 *         protocol version 0, false otherwise
+	 */
+	public static boolean isSupported(String uri) {
+		if (uri == null)
+			return false;
+		String lower = uri.toLowerCase();
+		if (!lower.startsWith("http://") && !lower.startsWith("https://"))
+			return false;
+		Capability capability = getCapability(trim(uri));
+		return capability == null || capability.supported;
+	}
+
+	private static String trim(String uri) {
+		if (uri.endsWith("/"))
+			return uri.substring(0, uri.length() - 1);
+		return uri;
+	}
+
+	private final String uri;
+
+	private final Collection<String> prefixes;
+
+	private int timeout;
+
+	private long bytesReceived;
+
+	/**
+	 * Create ls-refs operation
+	 *
+	 * @param uri
+	 *            must be non-null
+	 * @param prefixes
+	 *            must be non-null and non-empty
+	 */
+	public LsRefsOperation(String uri, Collection<String> prefixes) {
+		if (uri == null)
+			throw new IllegalArgumentException("URI cannot be null");
+		if (prefixes == null || prefixes.isEmpty())
+			throw new IllegalArgumentException(
+					"Prefixes cannot be null or empty");
+		this.uri = trim(uri);
+		this.prefixes = prefixes;
+	}
+
+	/**
+	 * Set connect and read timeout
+	 *
+	 * @param timeout
+	 *            in milliseconds, values less than 1 never time out
+	 * @return this operation
+	 */
+	public LsRefsOperation setTimeout(int timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Get number of bytes received from the remote by the last call
+	 *
+	 * @return byte count
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Open connection to remote service URL
+	 *
+	 * @param url
+	 * @return connection
+	 * @throws IOException
+	 */
+	protected HttpURLConnection open(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url
+				.openConnection(HttpSupport.proxyFor(ProxySelector.getDefault(),
+						url));
+		connection.setUseCaches(false);
+		connection.setInstanceFollowRedirects(true);
+		if (timeout > 0) {
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+		}
+		connection.setRequestProperty("Git-Protocol", PROTOCOL_V2);
+		connection.setRequestProperty("User-Agent", "git/2.0 (" + AGENT + ")");
+		String userInfo = url.getUserInfo();
+		if (userInfo != null) {
+			int colon = userInfo.indexOf(':');
+			String credentials;
+			if (colon != -1)
+				credentials = decode(userInfo.substring(0, colon)) + ':'
+						+ decode(userInfo.substring(colon + 1));
+			else
+				credentials = decode(userInfo) + ':';
+			connection.setRequestProperty("Authorization", "Basic "
+					+ Base64.encodeBytes(Constants.encode(credentials)));
+		}
+		return connection;
+	}
+
+	/**
+	 * Read a packet line
+	 *
+	 * @param in
+	 * @return line content without trailing newline, empty string for flush
+	 *         and delimiter packets
+	 * @throws IOException
+	 */
+	protected String readPacket(InputStream in) throws IOException {
+		byte[] header = readFully(in, 4);
+		int length;
+		try {
+			length = Integer.parseInt(new String(header, "US-ASCII"), 16);
+		} catch (NumberFormatException e) {
+			throw new RejectedException("Invalid packet line header: "
+					+ new String(header, "US-ASCII"));
+		}
+		if (length < 4)
+			return "";
+		String line = new String(readFully(in, length - 4), "UTF-8");
+		if (line.endsWith("\n"))
+			line = line.substring(0, line.length() - 1);
+		return line;
+	}
+
+	private byte[] readFully(InputStream in, int length) throws IOException {
+		byte[] buffer = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int read = in.read(buffer, offset, length - offset);
+			if (read == -1)
+				throw new EOFException("Unexpected end of packet stream");
+			offset += read;
+		}
+		bytesReceived += length;
+		return buffer;
+	}
+
+	private void writePacket(OutputStream out, String line) throws IOException {
+		byte[] data = Constants.encode(line);
+		String length = Integer.toHexString(data.length + 4);
+		while (length.length() < 4)
+			length = '0' + length;
+		out.write(Constants.encodeASCII(length));
+		out.write(data);
+	}
+
+	/**
+	 * Check that the remote advertises protocol version 2 with the ls-refs
+	 * command
+	 *
+	 * @return true if supported, false otherwise
+	 * @throws IOException
+	 */
+	protected boolean checkCapabilities() throws IOException {
+		HttpURLConnection connection = open(new URL(uri + "/info/refs?service="
+				+ SERVICE));
+		try {
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+				throw new IOException(uri + ": " + connection.getResponseCode()
+						+ ' ' + connection.getResponseMessage());
+			InputStream in = connection.getInputStream();
+			try {
+				String line = readPacket(in);
+				if (line.startsWith("# service="))
+					line = readPacket(in);
+				if (line.length() == 0)
+					line = readPacket(in);
+				if (!"version 2".equals(line))
+					return false;
+				while ((line = readPacket(in)).length() > 0)
+					if (line.equals("ls-refs") || line.startsWith("ls-refs="))
+						return true;
+				return false;
+			} finally {
+				in.close();
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Send ls-refs command and read matching refs
+	 *
+	 * @return non-null map of ref names to ids
+	 * @throws IOException
+	 */
+	protected Map<String, ObjectId> lsRefs() throws IOException {
+		HttpURLConnection connection = open(new URL(uri + '/' + SERVICE));
+		try {
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/x-"
+					+ SERVICE + "-request");
+			connection.setRequestProperty("Accept", "application/x-" + SERVICE
+					+ "-result");
+			ByteArrayOutputStream request = new ByteArrayOutputStream();
+			writePacket(request, "command=ls-refs\n");
+			writePacket(request, "agent=" + AGENT + '\n');
+			request.write(Constants.encodeASCII("0001"));
+			for (String prefix : prefixes)
+				writePacket(request, "ref-prefix " + prefix + '\n');
+			request.write(Constants.encodeASCII("0000"));
+			connection.setFixedLengthStreamingMode(request.size());
+			OutputStream out = connection.getOutputStream();
+			try {
+				request.writeTo(out);
+			} finally {
+				out.close();
+			}
+			int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_BAD_REQUEST
+					|| status == HttpURLConnection.HTTP_UNSUPPORTED_TYPE
+					|| status == HttpURLConnection.HTTP_NOT_IMPLEMENTED)
+				throw new RejectedException(uri + ": " + status + ' '
+						+ connection.getResponseMessage());
+			if (status != HttpURLConnection.HTTP_OK)
+				throw new IOException(uri + ": " + status + ' '
+						+ connection.getResponseMessage());
+
+			Map<String, ObjectId> refs = new HashMap<String, ObjectId>();
+			InputStream in = connection.getInputStream();
+			try {
+				String line;
+				try {
+					line = readPacket(in);
+				} catch (EOFException e) {
+					// Servers without ls-refs may end the response at once
+					throw new RejectedException(uri + ": Empty response");
+				}
+				for (; line.length() > 0; line = readPacket(in)) {
+					if (line.startsWith("ERR "))
+						throw new RejectedException(uri + ": "
+								+ line.substring(4));
+					int space = line.indexOf(' ');
+					if (space != Constants.OBJECT_ID_STRING_LENGTH)
+						continue;
+					int end = line.indexOf(' ', space + 1);
+					String name = end != -1 ? line.substring(space + 1, end)
+							: line.substring(space + 1);
+					refs.put(name,
+							ObjectId.fromString(line.substring(0, space)));
+				}
+			} finally {
+				in.close();
+			}
+			return refs;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * List refs matching the prefixes
+	 *
+	 * @return non-modifiable map of ref names to ids or null if the remote does
+	 *         not support protocol version 2
+	 */
+	public Map<String, ObjectId> call() throws IOException {
+		bytesReceived = 0;
+		Capability capability = getCapability(uri);
+		if (capability != null && capability.supported)
+			try {
+				return Collections.unmodifiableMap(lsRefs());
+			} catch (RejectedException e) {
+				// Check again in case the remote no longer supports version 2
+				CAPABILITIES.remove(uri, capability);
+			} catch (IOException e) {
+				CAPABILITIES.remove(uri, capability);
+				throw e;
+			}
+		else if (capability != null)
+			return null;
+		boolean supported = checkCapabilities();
+		CAPABILITIES.put(uri, new Capability(supported));
+		if (!supported)
+			return null;
+		return Collections.unmodifiableMap(lsRefs());
+	}
+}
@@ -25,9 +25,13 @@ import hudson.remoting.Callable;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.LsRemoteCommand;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -42,10 +46,31 @@ public class LsRemoteOperation implements Callable<ObjectId, IOException> {
 	/** serialVersionUID */
 	private static final long serialVersionUID = -3623182589852806015L;
 
+	private static final SingleFlight<Map<String, ObjectId>> FLIGHTS = new SingleFlight<Map<String, ObjectId>>();
+
+	/**
+	 * Get ls-remote calls coalesced by remote URI in this JVM
+	 *
+	 * @return non-null single flight
+	 */
+	public static SingleFlight<Map<String, ObjectId>> getFlights() {
+		return FLIGHTS;
+	}
+
 	private final BuildRepository repo;
 
 	private final Repository gitRepo;
 
+	private final transient RemoteRefCache cache;
+
+	private transient PollMetrics metrics;
+
+	private transient long bytesReceived;
+
+	private transient RemoteCircuitBreaker breaker;
+
+	private int timeout;
+
 	/**
 	 * Create ls-remote operation
 	 *
@@ -55,18 +80,110 @@ public class LsRemoteOperation implements Callable<ObjectId, IOException> {
 	 *            must be non-null
 	 */
 	public LsRemoteOperation(BuildRepository repo, Repository gitRepo) {
+		this(repo, gitRepo, null);
+	}
+
+	/**
+	 * Create ls-remote operation that uses the given advertisement cache
+	 *
+	 * @param repo
+	 *            must be non-null
+	 * @param gitRepo
+	 *            must be non-null
+	 * @param cache
+	 *            may be null
+	 */
+	public LsRemoteOperation(BuildRepository repo, Repository gitRepo,
+			RemoteRefCache cache) {
 		if (repo == null)
 			throw new IllegalArgumentException("Repo cannot be null");
 		if (gitRepo == null)
 			throw new IllegalArgumentException("Git repo cannot be null");
 		this.repo = repo;
 		this.gitRepo = gitRepo;
+		this.cache = cache;
 	}
 
-	public ObjectId call() throws IOException {
+	/**
+	 * Set metrics to record remote listings into
+	 *
+	 * @param metrics
+	 *            may be null
+	 * @return this operation
+	 */
+	public LsRemoteOperation setMetrics(PollMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Set timeout of remote listings
+	 *
+	 * @param timeout
+	 *            seconds, values less than 1 wait indefinitely
+	 * @return this operation
+	 */
+	public LsRemoteOperation setTimeout(int timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Set circuit breaker that fails fast for unavailable remote hosts
+	 *
+	 * @param breaker
+	 *            may be null
+	 * @return this operation
+	 */
+	public LsRemoteOperation setBreaker(RemoteCircuitBreaker breaker) {
+		this.breaker = breaker;
+		return this;
+	}
+
+	/**
+	 * Get prefix of the refs listed when listing only part of the remote
+	 * <p>
+	 * All branches are listed together so that a single listing is shared by
+	 * every branch of the remote being polled.
+	 *
+	 * @return {@link Constants#R_HEADS} for branches, the configured ref
+	 *         otherwise
+	 */
+	protected String getListedPrefix() {
+		String branch = repo.getBranch();
+		return branch.startsWith(Constants.R_HEADS) ? Constants.R_HEADS
+				: branch;
+	}
+
+	/**
+	 * List only the refs matching the listed prefix using protocol version 2,
+	 * falling back to the full advertisement if the remote does not support
+	 * it
+	 *
+	 * @return non-null map of ref names to object ids
+	 * @throws IOException
+	 */
+	protected Map<String, ObjectId> lsRefs() throws IOException {
+		LsRefsOperation ls = new LsRefsOperation(repo.getUri(),
+				Collections.singletonList(getListedPrefix()));
+		if (timeout > 0)
+			ls.setTimeout(timeout * 1000);
+		Map<String, ObjectId> refs = ls.call();
+		bytesReceived += ls.getBytesReceived();
+		return refs != null ? refs : lsRemote();
+	}
+
+	/**
+	 * List all refs advertised by the remote
+	 *
+	 * @return non-null map of ref names to object ids
+	 * @throws IOException
+	 */
+	protected Map<String, ObjectId> lsRemote() throws IOException {
 		LsRemoteCommand ls = Git.wrap(gitRepo).lsRemote();
 		ls.setRemote(repo.getUri());
-		String branch = repo.getBranch();
+		if (timeout > 0)
+			ls.setTimeout(timeout);
 		Collection<Ref> refs;
 		try {
 			refs = ls.call();
@@ -75,10 +192,77 @@ public class LsRemoteOperation implements Callable<ObjectId, IOException> {
 		} catch (Exception e) {
 			throw new IOException(e);
 		}
+		Map<String, ObjectId> ids = new HashMap<String, ObjectId>(refs.size());
 		for (Ref ref : refs)
-			if (branch.equals(ref.getName()))
-				return ref.getObjectId();
-		return null;
+			if (ref.getObjectId() != null)
+				ids.put(ref.getName(), ref.getObjectId());
+		return Collections.unmodifiableMap(ids);
+	}
+
+	/**
+	 * List the remote
+	 *
+	 * @param filtered
+	 *            true to list only the configured branch
+	 * @return non-null map of ref names to object ids
+	 * @throws IOException
+	 */
+	protected Map<String, ObjectId> list(boolean filtered) throws IOException {
+		return filtered ? lsRefs() : lsRemote();
+	}
+
+	public ObjectId call() throws IOException {
+		final boolean filtered = LsRefsOperation.isSupported(repo.getUri());
+		// Filtered listings only contain the refs with the listed prefix
+		final String key;
+		if (filtered)
+			key = repo.getUri() + ' ' + getListedPrefix();
+		else
+			key = repo.getUri();
+		Map<String, ObjectId> refs = null;
+		if (cache != null) {
+			refs = cache.get(key);
+			if (metrics != null && cache.isEnabled())
+				metrics.recordRefCache(refs != null);
+		}
+		if (refs == null && breaker != null)
+			breaker.check(repo.getUri());
+		if (refs == null)
+			refs = FLIGHTS.execute("ls-remote " + key,
+					new Callable<Map<String, ObjectId>, IOException>() {
+
+						private static final long serialVersionUID = 1L;
+
+						public Map<String, ObjectId> call() throws IOException {
+							Map<String, ObjectId> advertised;
+							long start = System.currentTimeMillis();
+							try {
+								advertised = list(filtered);
+							} catch (IOException e) {
+								if (metrics != null)
+									metrics.recordError(repo.getUri(),
+											System.currentTimeMillis() - start);
+								if (breaker != null)
+									breaker.recordFailure(repo.getUri(), e);
+								throw e;
+							} catch (RuntimeException e) {
+								if (breaker != null)
+									breaker.recordFailure(repo.getUri(),
+											new IOException(e));
+								throw e;
+							}
+							if (breaker != null)
+								breaker.recordSuccess(repo.getUri());
+							if (metrics != null)
+								metrics.recordListing(repo.getUri(),
+										System.currentTimeMillis() - start,
+										advertised.size(), bytesReceived);
+							if (cache != null)
+								cache.put(key, advertised);
+							return advertised;
+						}
+					});
+		return refs.get(repo.getBranch());
 	}
 
 }
@@ -0,0 +1,824 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.PackIndex;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Operation that consolidates the packs, prunes unreachable loose objects and
+ * trims the reflogs of the workspace repositories of a job
+ * <p>
+ * All objects reachable from refs are written to a single new pack before the
+ * packs that existed when the operation started are deleted. Loose objects
+ * are only deleted once older than the prune expiration so objects written
+ * concurrently by a fetch are never removed. Repositories borrowing objects
+ * from mirrors through alternates only pack the objects not reachable from
+ * the refs of the mirrors.
+ * <p>
+ * Mirrors borrowed from are repacked at most once per maintenance cycle and
+ * only once they hold {@link #MIRROR_PACK_THRESHOLD_DEFAULT} packs, see
+ * {@link #maintainMirror(File)}.
+ * <p>
+ * Repositories are skipped while their {@link #getLock(File)} lock is held by
+ * a poll fetching into a scratch repository, callers must also keep builds
+ * from using the workspace while reflogs are trimmed and packs deleted.
+ * <p>
+ * Scratch repositories that polling fetched into under a workspace repository
+ * are deleted once unused for longer than the prune expiration, they only
+ * hold objects that the next checkout fetches anyway.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class MaintenanceOperation implements
+		FileCallable<List<MaintenanceOperation.Result>> {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -3085786046380563530L;
+
+	/**
+	 * Default age in milliseconds a loose object must reach before pruned
+	 */
+	public static final long PRUNE_EXPIRE_DEFAULT = 2 * 60 * 60 * 1000;
+
+	/**
+	 * Default number of entries kept in each reflog
+	 */
+	public static final int REFLOG_LIMIT_DEFAULT = 100;
+
+	/**
+	 * Default number of packs a mirror must hold before being repacked
+	 */
+	public static final int MIRROR_PACK_THRESHOLD_DEFAULT = 10;
+
+	private static final String PACK_EXT = ".pack";
+
+	private static final String INDEX_EXT = ".idx";
+
+	private static final String KEEP_EXT = ".keep";
+
+	private static final ConcurrentMap<File, ReentrantLock> LOCKS = new ConcurrentHashMap<File, ReentrantLock>();
+
+	private static final ConcurrentMap<File, Long> MIRROR_CYCLES = new ConcurrentHashMap<File, Long>();
+
+	/**
+	 * Get lock held in this JVM while a repository is fetched into by polling
+	 * or maintained
+	 *
+	 * @param gitDir
+	 * @return non-null lock
+	 */
+	public static ReentrantLock getLock(File gitDir) {
+		File key = gitDir.getAbsoluteFile();
+		ReentrantLock lock = LOCKS.get(key);
+		if (lock == null) {
+			lock = new ReentrantLock();
+			ReentrantLock existing = LOCKS.putIfAbsent(key, lock);
+			if (existing != null)
+				lock = existing;
+		}
+		return lock;
+	}
+
+	/**
+	 * Result of maintaining a single repository
+	 */
+	public static class Result implements Serializable {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = 4460957468271565212L;
+
+		private final String directory;
+
+		private int packsBefore;
+
+		private int packsAfter;
+
+		private int looseBefore;
+
+		private int looseAfter;
+
+		private int reflogsTrimmed;
+
+		private boolean repacked;
+
+		/**
+		 * Create result
+		 *
+		 * @param directory
+		 */
+		public Result(String directory) {
+			this.directory = directory;
+		}
+
+		/**
+		 * @return git directory
+		 */
+		public String getDirectory() {
+			return directory;
+		}
+
+		/**
+		 * @return number of packs before maintenance
+		 */
+		public int getPacksBefore() {
+			return packsBefore;
+		}
+
+		/**
+		 * @return number of packs after maintenance
+		 */
+		public int getPacksAfter() {
+			return packsAfter;
+		}
+
+		/**
+		 * @return number of loose objects before maintenance
+		 */
+		public int getLooseBefore() {
+			return looseBefore;
+		}
+
+		/**
+		 * @return number of loose objects after maintenance
+		 */
+		public int getLooseAfter() {
+			return looseAfter;
+		}
+
+		/**
+		 * @return number of reflog entries removed
+		 */
+		public int getReflogsTrimmed() {
+			return reflogsTrimmed;
+		}
+
+		/**
+		 * @return true if a new pack was written, false otherwise
+		 */
+		public boolean isRepacked() {
+			return repacked;
+		}
+
+		public String toString() {
+			return directory + ": " + packsBefore + " packs -> " + packsAfter
+					+ ", " + looseBefore + " loose objects -> " + looseAfter
+					+ ", " + reflogsTrimmed + " reflog entries trimmed";
+		}
+	}
+
+	private final Collection<BuildRepository> repos;
+
+	private long pruneExpire = PRUNE_EXPIRE_DEFAULT;
+
+	private int reflogLimit = REFLOG_LIMIT_DEFAULT;
+
+	private int mirrorPackThreshold = MIRROR_PACK_THRESHOLD_DEFAULT;
+
+	private long cycle;
+
+	/**
+	 * Create maintenance operation
+	 *
+	 * @param repos
+	 */
+	public MaintenanceOperation(Collection<BuildRepository> repos) {
+		if (repos == null)
+			throw new IllegalArgumentException("Repositories cannot be null");
+		this.repos = repos;
+	}
+
+	/**
+	 * Set age loose objects must reach before being pruned
+	 *
+	 * @param expire
+	 *            age in milliseconds
+	 * @return this operation
+	 */
+	public MaintenanceOperation setPruneExpire(long expire) {
+		pruneExpire = Math.max(0, expire);
+		return this;
+	}
+
+	/**
+	 * Set number of entries kept in each reflog
+	 *
+	 * @param limit
+	 *            values less than 1 leave reflogs untouched
+	 * @return this operation
+	 */
+	public MaintenanceOperation setReflogLimit(int limit) {
+		reflogLimit = limit;
+		return this;
+	}
+
+	/**
+	 * Set number of packs a mirror must hold before being repacked
+	 *
+	 * @param threshold
+	 * @return this operation
+	 */
+	public MaintenanceOperation setMirrorPackThreshold(int threshold) {
+		mirrorPackThreshold = Math.max(2, threshold);
+		return this;
+	}
+
+	/**
+	 * Set maintenance cycle this operation is part of, each mirror is only
+	 * maintained once per cycle by all operations of this JVM
+	 *
+	 * @param cycle
+	 *            non-zero cycle identifier, 0 maintains mirrors on every run
+	 * @return this operation
+	 */
+	public MaintenanceOperation setCycle(long cycle) {
+		this.cycle = cycle;
+		return this;
+	}
+
+	/**
+	 * Get pack files of the repository
+	 *
+	 * @param repo
+	 * @return non-null but possibly empty list
+	 */
+	protected List<File> getPacks(Repository repo) {
+		File[] packs = getPackDirectory(repo).listFiles(new FileFilter() {
+
+			public boolean accept(File file) {
+				String name = file.getName();
+				return name.startsWith("pack-") && name.endsWith(PACK_EXT)
+						&& file.isFile();
+			}
+		});
+		if (packs == null)
+			return Collections.emptyList();
+		List<File> list = new ArrayList<File>(packs.length);
+		Collections.addAll(list, packs);
+		return list;
+	}
+
+	/**
+	 * Get loose object files of the repository
+	 *
+	 * @param repo
+	 * @return non-null but possibly empty list
+	 */
+	protected List<File> getLooseObjects(Repository repo) {
+		List<File> loose = new ArrayList<File>();
+		File[] fanouts = getObjectsDirectory(repo).listFiles();
+		if (fanouts == null)
+			return loose;
+		for (File fanout : fanouts) {
+			if (fanout.getName().length() != 2 || !fanout.isDirectory())
+				continue;
+			File[] objects = fanout.listFiles();
+			if (objects == null)
+				continue;
+			for (File object : objects)
+				if (ObjectId.isId(fanout.getName() + object.getName()))
+					loose.add(object);
+		}
+		return loose;
+	}
+
+	private File getObjectsDirectory(Repository repo) {
+		return new File(repo.getDirectory(), Constants.OBJECTS);
+	}
+
+	private File getPackDirectory(Repository repo) {
+		return new File(getObjectsDirectory(repo), "pack");
+	}
+
+	/**
+	 * Get git directories of the repositories the repository borrows objects
+	 * from
+	 *
+	 * @param repo
+	 * @return non-null but possibly empty list of existing directories
+	 * @throws IOException
+	 */
+	protected List<File> getAlternates(Repository repo) throws IOException {
+		File alternates = new File(new File(getObjectsDirectory(repo), "info"),
+				"alternates");
+		if (!alternates.isFile())
+			return Collections.emptyList();
+		List<File> dirs = new ArrayList<File>(1);
+		BufferedReader reader = new BufferedReader(new FileReader(alternates));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				File objects = new File(line);
+				if (!objects.isAbsolute())
+					objects = new File(getObjectsDirectory(repo), line);
+				if (objects.isDirectory())
+					dirs.add(objects.getParentFile());
+			}
+		} finally {
+			reader.close();
+		}
+		return dirs;
+	}
+
+	/**
+	 * Get ids of all objects directly referenced by refs
+	 *
+	 * @param repo
+	 * @return non-null but possibly empty set
+	 */
+	protected Set<ObjectId> getTips(Repository repo) {
+		Set<ObjectId> tips = new HashSet<ObjectId>();
+		for (Ref ref : repo.getAllRefs().values()) {
+			if (ref.getObjectId() != null)
+				tips.add(ref.getObjectId());
+			ref = repo.peel(ref);
+			if (ref.getPeeledObjectId() != null)
+				tips.add(ref.getPeeledObjectId());
+		}
+		return tips;
+	}
+
+	/**
+	 * Write all objects reachable from the tips into a single new pack
+	 *
+	 * @param repo
+	 * @param tips
+	 * @return pack file
+	 * @throws IOException
+	 */
+	protected File writePack(Repository repo, Set<ObjectId> tips)
+			throws IOException {
+		return writePack(repo, tips, Collections.<ObjectId> emptySet());
+	}
+
+	/**
+	 * Write all objects reachable from the tips but not from the bases into a
+	 * single new pack
+	 *
+	 * @param repo
+	 * @param tips
+	 * @param bases
+	 * @return pack file
+	 * @throws IOException
+	 */
+	protected File writePack(Repository repo, Set<ObjectId> tips,
+			Set<ObjectId> bases) throws IOException {
+		PackWriter packer = new PackWriter(repo);
+		try {
+			packer.preparePack(NullProgressMonitor.INSTANCE, tips, bases);
+			return writePack(repo, packer);
+		} finally {
+			packer.release();
+		}
+	}
+
+	/**
+	 * Write the objects prepared by the packer into a new pack
+	 *
+	 * @param repo
+	 * @param packer
+	 * @return pack file
+	 * @throws IOException
+	 */
+	private File writePack(Repository repo, PackWriter packer)
+			throws IOException {
+		File packDir = getPackDirectory(repo);
+		if (!packDir.isDirectory() && !packDir.mkdirs())
+			throw new IOException("Unable to create directory " + packDir);
+		File tmpPack = File.createTempFile("repack_", PACK_EXT, packDir);
+		File tmpIndex = new File(packDir, tmpPack.getName().substring(0,
+				tmpPack.getName().length() - PACK_EXT.length())
+				+ INDEX_EXT);
+		try {
+			FileOutputStream output = new FileOutputStream(tmpPack);
+			try {
+				packer.writePack(NullProgressMonitor.INSTANCE,
+						NullProgressMonitor.INSTANCE, output);
+			} finally {
+				output.close();
+			}
+			output = new FileOutputStream(tmpIndex);
+			try {
+				packer.writeIndex(output);
+			} finally {
+				output.close();
+			}
+			String name = "pack-" + packer.computeName().name();
+			File pack = new File(packDir, name + PACK_EXT);
+			File index = new File(packDir, name + INDEX_EXT);
+			// An identical pack already exists when nothing changed since the
+			// last repack
+			if (pack.isFile() && index.isFile())
+				return pack;
+			// Index is renamed last so readers never see a partial pack
+			if (!tmpPack.renameTo(pack))
+				throw new IOException("Unable to rename " + tmpPack + " to "
+						+ pack);
+			if (!tmpIndex.renameTo(index))
+				throw new IOException("Unable to rename " + tmpIndex + " to "
+						+ index);
+			return pack;
+		} finally {
+			tmpPack.delete();
+			tmpIndex.delete();
+		}
+	}
+
+	/**
+	 * Delete pack and its index unless the pack is marked to be kept
+	 *
+	 * @param pack
+	 * @return true if deleted, false otherwise
+	 */
+	protected boolean deletePack(File pack) {
+		String base = pack.getName().substring(0,
+				pack.getName().length() - PACK_EXT.length());
+		File dir = pack.getParentFile();
+		if (new File(dir, base + KEEP_EXT).exists())
+			return false;
+		boolean deleted = pack.delete();
+		new File(dir, base + INDEX_EXT).delete();
+		return deleted;
+	}
+
+	/**
+	 * Delete loose objects older than the prune expiration and remove fan-out
+	 * directories left empty
+	 *
+	 * @param loose
+	 * @return number of loose objects remaining
+	 */
+	protected int prune(List<File> loose) {
+		long expire = System.currentTimeMillis() - pruneExpire;
+		int remaining = 0;
+		Set<File> fanouts = new HashSet<File>();
+		for (File object : loose)
+			if (object.lastModified() < expire && object.delete())
+				fanouts.add(object.getParentFile());
+			else
+				remaining++;
+		for (File fanout : fanouts)
+			fanout.delete();
+		return remaining;
+	}
+
+	/**
+	 * Trim reflog to the most recent entries
+	 *
+	 * @param log
+	 * @return number of entries removed
+	 * @throws IOException
+	 */
+	protected int trimReflog(File log) throws IOException {
+		LinkedList<String> entries = new LinkedList<String>();
+		int removed = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(log));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				entries.add(line);
+				if (entries.size() > reflogLimit) {
+					entries.removeFirst();
+					removed++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (removed == 0)
+			return 0;
+		File tmp = new File(log.getParentFile(), log.getName() + ".lock");
+		FileWriter writer = new FileWriter(tmp);
+		try {
+			for (String entry : entries) {
+				writer.write(entry);
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+		if (!tmp.renameTo(log) && !(log.delete() && tmp.renameTo(log))) {
+			tmp.delete();
+			throw new IOException("Unable to write reflog " + log);
+		}
+		return removed;
+	}
+
+	/**
+	 * Trim all reflogs under the directory
+	 *
+	 * @param dir
+	 * @return number of entries removed
+	 * @throws IOException
+	 */
+	protected int trimReflogs(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return 0;
+		int removed = 0;
+		for (File file : files)
+			if (file.isDirectory())
+				removed += trimReflogs(file);
+			else if (!file.getName().endsWith(".lock"))
+				removed += trimReflog(file);
+		return removed;
+	}
+
+	/**
+	 * Get ids of all objects directly referenced by refs of the repositories
+	 *
+	 * @param dirs
+	 *            git directories
+	 * @return non-null but possibly empty set
+	 * @throws IOException
+	 */
+	protected Set<ObjectId> getTips(List<File> dirs) throws IOException {
+		if (dirs.isEmpty())
+			return Collections.emptySet();
+		Set<ObjectId> tips = new HashSet<ObjectId>();
+		for (File dir : dirs) {
+			Repository repo = new ScratchRepositoryOperation().invoke(dir,
+					null);
+			try {
+				tips.addAll(getTips(repo));
+			} finally {
+				repo.close();
+			}
+		}
+		return tips;
+	}
+
+	/**
+	 * Maintain repository
+	 *
+	 * @param repo
+	 * @return result
+	 * @throws IOException
+	 */
+	public Result maintain(Repository repo) throws IOException {
+		Result result = new Result(repo.getDirectory().getAbsolutePath());
+		List<File> packs = getPacks(repo);
+		List<File> loose = getLooseObjects(repo);
+		result.packsBefore = packs.size();
+		result.looseBefore = loose.size();
+		if (reflogLimit > 0)
+			result.reflogsTrimmed = trimReflogs(new File(repo.getDirectory(),
+					Constants.LOGS));
+
+		Set<ObjectId> tips = getTips(repo);
+		if (!tips.isEmpty() && (packs.size() > 1 || !loose.isEmpty())) {
+			// Objects reachable from the refs of mirrors are borrowed instead
+			// of copied into the new pack
+			File pack = writePack(repo, tips, getTips(getAlternates(repo)));
+			result.repacked = true;
+			// Handles to the deleted packs must not be reused
+			RepositoryHandleCache.getShared().evict(repo);
+			for (File old : packs)
+				if (!old.equals(pack))
+					deletePack(old);
+			result.looseAfter = prune(loose);
+		} else
+			result.looseAfter = loose.size();
+		result.packsAfter = getPacks(repo).size();
+		return result;
+	}
+
+	/**
+	 * Is every object of the pack also in the given index?
+	 *
+	 * @param pack
+	 * @param index
+	 * @return true if contained, false otherwise
+	 * @throws IOException
+	 */
+	protected boolean isContained(File pack, PackIndex index)
+			throws IOException {
+		String base = pack.getName().substring(0,
+				pack.getName().length() - PACK_EXT.length());
+		PackIndex old = PackIndex.open(new File(pack.getParentFile(), base
+				+ INDEX_EXT));
+		for (PackIndex.MutableEntry entry : old)
+			if (!index.hasObject(entry.toObjectId()))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Maintain mirror once per maintenance cycle when it has reached the pack
+	 * threshold
+	 * <p>
+	 * All objects reachable from the mirror's refs are written to a new pack
+	 * without holding the mirror's lock. The lock is only taken to trim
+	 * reflogs and delete the old packs whose objects are all in the new pack,
+	 * packs still holding objects no longer reachable are kept since
+	 * workspaces may borrow them. Loose objects are never pruned.
+	 *
+	 * @param mirror
+	 *            git directory of the mirror
+	 * @return result or null if the mirror was not due
+	 * @throws IOException
+	 */
+	public Result maintainMirror(final File mirror) throws IOException {
+		if (cycle != 0) {
+			Long last = MIRROR_CYCLES.put(mirror.getAbsoluteFile(),
+					Long.valueOf(cycle));
+			if (last != null && last.longValue() == cycle)
+				return null;
+		}
+		final Repository repo = new ScratchRepositoryOperation().invoke(
+				mirror, null);
+		try {
+			final Result result = new Result(mirror.getAbsolutePath());
+			final List<File> packs = getPacks(repo);
+			result.packsBefore = packs.size();
+			result.looseBefore = getLooseObjects(repo).size();
+			result.looseAfter = result.looseBefore;
+			Set<ObjectId> tips = getTips(repo);
+			final File pack;
+			final PackIndex index;
+			if (packs.size() >= mirrorPackThreshold && !tips.isEmpty()) {
+				pack = writePack(repo, tips);
+				index = PackIndex.open(new File(pack.getParentFile(), pack
+						.getName().substring(0,
+								pack.getName().length() - PACK_EXT.length())
+						+ INDEX_EXT));
+				result.repacked = true;
+			} else {
+				pack = null;
+				index = null;
+			}
+			if (!result.repacked && reflogLimit < 1) {
+				result.packsAfter = result.packsBefore;
+				return result;
+			}
+			return new MirrorCache(mirror.getParentFile()).lock(mirror,
+					new Callable<Result, IOException>() {
+
+						private static final long serialVersionUID = 1L;
+
+						public Result call() throws IOException {
+							if (reflogLimit > 0)
+								result.reflogsTrimmed = trimReflogs(new File(
+										mirror, Constants.LOGS));
+							if (pack != null) {
+								// Handles to the deleted packs must not be
+								// reused
+								RepositoryHandleCache.getShared().evict(repo);
+								for (File old : packs)
+									if (!old.equals(pack) && old.isFile()
+											&& isContained(old, index))
+										deletePack(old);
+							}
+							result.packsAfter = getPacks(repo).size();
+							return result;
+						}
+					});
+		} finally {
+			repo.close();
+		}
+	}
+
+	/**
+	 * Delete the scratch repositories that polling fetched into under the
+	 * repository that were not fetched into within the prune expiration
+	 *
+	 * @param repo
+	 * @return number of scratch repositories deleted
+	 * @throws IOException
+	 */
+	protected int deleteScratch(Repository repo) throws IOException {
+		File[] scratches = new File(repo.getDirectory(),
+				PollOperation.SCRATCH_DIRECTORY).listFiles();
+		if (scratches == null)
+			return 0;
+		long expire = System.currentTimeMillis() - pruneExpire;
+		int deleted = 0;
+		for (File scratch : scratches) {
+			File fetched = new File(scratch, Constants.FETCH_HEAD);
+			long modified = fetched.isFile() ? fetched.lastModified()
+					: scratch.lastModified();
+			if (modified >= expire)
+				continue;
+			FileUtils.delete(scratch, FileUtils.RECURSIVE);
+			deleted++;
+		}
+		return deleted;
+	}
+
+	/**
+	 * Maintain every repository directly under the directory, such as the
+	 * scratch repositories used when polling without a workspace
+	 *
+	 * @param dir
+	 * @return non-null but possibly empty list of results
+	 * @throws IOException
+	 */
+	public List<Result> maintainAll(File dir) throws IOException {
+		File[] children = dir.listFiles();
+		if (children == null)
+			return Collections.emptyList();
+		List<Result> results = new ArrayList<Result>(children.length);
+		for (File child : children) {
+			if (!new File(child, Constants.OBJECTS).isDirectory())
+				continue;
+			ReentrantLock lock = getLock(child);
+			if (!lock.tryLock())
+				continue;
+			try {
+				Repository gitRepo = new ScratchRepositoryOperation().invoke(
+						child, null);
+				try {
+					results.add(maintain(gitRepo));
+				} finally {
+					gitRepo.close();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return results;
+	}
+
+	public List<Result> invoke(File file, VirtualChannel channel)
+			throws IOException {
+		List<Result> results = new ArrayList<Result>(repos.size());
+		Set<File> mirrors = new HashSet<File>();
+		for (BuildRepository repo : repos) {
+			Repository gitRepo = new FileRepositoryOperation(repo).invoke(file,
+					channel);
+			if (gitRepo == null)
+				continue;
+			ReentrantLock lock = getLock(gitRepo.getDirectory());
+			try {
+				if (!lock.tryLock())
+					continue;
+				try {
+					for (File mirror : getAlternates(gitRepo))
+						if (mirrors.add(mirror)) {
+							Result result = maintainMirror(mirror);
+							if (result != null)
+								results.add(result);
+						}
+					results.add(maintain(gitRepo));
+					deleteScratch(gitRepo);
+				} finally {
+					lock.unlock();
+				}
+			} finally {
+				gitRepo.close();
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Item listener that keeps the {@link CheckoutMetrics} and {@link PollMetrics}
+ * of this controller limited to existing jobs, computers and polled hosts
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+@Extension
+public class MetricsItemListener extends ItemListener {
+
+	/**
+	 * Get full name a renamed item had before being renamed
+	 *
+	 * @param fullName
+	 * @param oldName
+	 * @param newName
+	 * @return full name
+	 */
+	public static String getOldFullName(String fullName, String oldName,
+			String newName) {
+		if (!fullName.endsWith(newName))
+			return oldName;
+		return fullName.substring(0, fullName.length() - newName.length())
+				+ oldName;
+	}
+
+	/**
+	 * Remove metrics of computers and hosts no longer used by any job
+	 *
+	 * @param deleted
+	 *            item being deleted
+	 */
+	@SuppressWarnings("rawtypes")
+	protected void prune(Item deleted) {
+		Hudson hudson = Hudson.getInstance();
+		Set<String> computers = new HashSet<String>();
+		for (Computer computer : hudson.getComputers())
+			computers.add(computer.getName());
+		CheckoutMetrics.getShared().retainComputers(computers);
+
+		Set<String> hosts = new HashSet<String>();
+		for (AbstractProject project : hudson
+				.getAllItems(AbstractProject.class))
+			if (project != deleted
+					&& project.getScm() instanceof RepositoryManager)
+				for (BuildRepository repo : ((RepositoryManager) project
+						.getScm()).getRepositories())
+					hosts.add(PollMetrics.getHost(repo.getUri()));
+		PollMetrics.getShared().retainHosts(hosts);
+	}
+
+	public void onDeleted(Item item) {
+		CheckoutMetrics.getShared().removeJob(item.getFullName());
+		prune(item);
+	}
+
+	public void onRenamed(Item item, String oldName, String newName) {
+		String fullName = item.getFullName();
+		CheckoutMetrics.getShared().renameJob(
+				getOldFullName(fullName, oldName, newName), fullName);
+	}
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.InvalidRemoteException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.util.FS;
+import org.gitective.core.CommitUtils;
+import org.gitective.core.GitException;
+
+/**
+ * Cache of bare mirror repositories keyed by remote URI that workspaces on
+ * the same machine borrow objects from using alternates
+ * <p>
+ * Mirrors are guarded by a lock within this JVM and a file lock next to the
+ * mirror directory so that executors of other processes sharing the same
+ * cache directory never update a mirror concurrently.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class MirrorCache {
+
+	/**
+	 * Default cache directory relative to the user's home directory
+	 */
+	public static final String ROOT_DEFAULT = ".gitng" + File.separator
+			+ "mirrors";
+
+	/**
+	 * Suffix of lock files guarding mirror directories
+	 */
+	public static final String LOCK_SUFFIX = ".lock";
+
+	private static final ConcurrentMap<File, ReentrantLock> LOCKS = new ConcurrentHashMap<File, ReentrantLock>();
+
+	private static final SingleFlight<File> FLIGHTS = new SingleFlight<File>();
+
+	/**
+	 * Get coalesced updates of mirrors in this JVM
+	 *
+	 * @return flights
+	 */
+	public static SingleFlight<File> getFlights() {
+		return FLIGHTS;
+	}
+
+	/**
+	 * Create cache in the given directory
+	 *
+	 * @param directory
+	 *            may be null or empty to use {@link #ROOT_DEFAULT} in the home
+	 *            directory of the current user
+	 * @return cache
+	 */
+	public static MirrorCache create(String directory) {
+		if (directory != null && directory.trim().length() > 0)
+			return new MirrorCache(new File(directory.trim()));
+		return new MirrorCache(new File(System.getProperty("user.home"),
+				ROOT_DEFAULT));
+	}
+
+	private final File root;
+
+	/**
+	 * Create mirror cache
+	 *
+	 * @param root
+	 *            must be non-null
+	 */
+	public MirrorCache(File root) {
+		if (root == null)
+			throw new IllegalArgumentException("Root cannot be null");
+		this.root = root.getAbsoluteFile();
+	}
+
+	/**
+	 * @return root directory of cached mirrors
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Get directory name of the repository kept for the given remote URI
+	 * <p>
+	 * Names combine the repository name with a hash of the full URI so that
+	 * different remotes never share a directory.
+	 *
+	 * @param uri
+	 * @return non-null name
+	 */
+	public static String getName(String uri) {
+		String name = uri;
+		while (name.endsWith("/"))
+			name = name.substring(0, name.length() - 1);
+		name = name.substring(name.lastIndexOf('/') + 1);
+		if (name.endsWith(Constants.DOT_GIT_EXT))
+			name = name.substring(0, name.length()
+					- Constants.DOT_GIT_EXT.length());
+		name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+		MessageDigest digest = Constants.newMessageDigest();
+		String hash = ObjectId.fromRaw(digest.digest(Constants.encode(uri)))
+				.name().substring(0, 12);
+		return name + '-' + hash + Constants.DOT_GIT_EXT;
+	}
+
+	/**
+	 * Get mirror directory for the given remote URI
+	 *
+	 * @param uri
+	 * @return non-null directory which may not exist yet
+	 */
+	public File getMirror(String uri) {
+		return new File(root, getName(uri));
+	}
+
+	/**
+	 * Run callable while holding the in-process and file locks of the mirror
+	 *
+	 * @param mirror
+	 * @param callable
+	 * @return callable result
+	 * @throws IOException
+	 */
+	protected <V> V lock(File mirror, Callable<V, IOException> callable)
+			throws IOException {
+		// File locks are held per process so threads of this JVM must be
+		// serialized separately
+		ReentrantLock lock = new ReentrantLock();
+		ReentrantLock existing = LOCKS.putIfAbsent(mirror, lock);
+		if (existing != null)
+			lock = existing;
+		lock.lock();
+		try {
+			if (!root.isDirectory() && !root.mkdirs() && !root.isDirectory())
+				throw new IOException("Unable to create directory " + root);
+			RandomAccessFile file = new RandomAccessFile(new File(root,
+					mirror.getName() + LOCK_SUFFIX), "rw");
+			try {
+				FileLock fileLock = file.getChannel().lock();
+				try {
+					return callable.call();
+				} finally {
+					fileLock.release();
+				}
+			} finally {
+				file.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Open the mirror repository, creating it if it does not exist
+	 *
+	 * @param mirror
+	 * @return repository that the caller must close
+	 * @throws IOException
+	 */
+	protected Repository open(File mirror) throws IOException {
+		FileRepositoryBuilder builder = new FileRepositoryBuilder();
+		builder.setFS(FS.DETECTED);
+		builder.setGitDir(mirror);
+		builder.setBare();
+		Repository repo = builder.build();
+		if (!new File(mirror, Constants.OBJECTS).isDirectory())
+			repo.create(true);
+		return repo;
+	}
+
+	/**
+	 * Does the mirror of the build repository already contain the object?
+	 *
+	 * @param repo
+	 * @param id
+	 * @return true if contained, false if missing or not mirrored yet
+	 * @throws IOException
+	 */
+	public boolean contains(BuildRepository repo, ObjectId id)
+			throws IOException {
+		File mirror = getMirror(repo.getUri());
+		if (!new File(mirror, Constants.OBJECTS).isDirectory())
+			return false;
+		Repository gitRepo = open(mirror);
+		try {
+			return gitRepo.getObjectDatabase().has(id);
+		} finally {
+			gitRepo.close();
+		}
+	}
+
+	/**
+	 * Fetch the branch of the build repository into its mirror
+	 *
+	 * @param repo
+	 * @param monitor
+	 *            may be null
+	 * @return mirror directory
+	 * @throws IOException
+	 */
+	public File update(BuildRepository repo, StreamProgressMonitor monitor)
+			throws IOException {
+		return update(repo.getUri(), Collections.singleton(repo.getBranch()),
+				monitor);
+	}
+
+	/**
+	 * Fetch all given branches of the remote into its mirror using a single
+	 * connection
+	 * <p>
+	 * Concurrent updates of the same branches of a mirror, such as polls of
+	 * many jobs triggering builds at the same time, share a single fetch.
+	 *
+	 * @param uri
+	 * @param branches
+	 * @param monitor
+	 *            may be null
+	 * @return mirror directory
+	 * @throws IOException
+	 */
+	public File update(final String uri, final Collection<String> branches,
+			final StreamProgressMonitor monitor) throws IOException {
+		final File mirror = getMirror(uri);
+		String key = "fetch " + mirror.getAbsolutePath() + ' '
+				+ new TreeSet<String>(branches);
+		return FLIGHTS.execute(key, new Callable<File, IOException>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public File call() throws IOException {
+				fetch(mirror, uri, branches, monitor);
+				return mirror;
+			}
+		});
+	}
+
+	private void fetch(final File mirror, final String uri,
+			final Collection<String> branches,
+			final StreamProgressMonitor monitor) throws IOException {
+		lock(mirror, new Callable<Void, IOException>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public Void call() throws IOException {
+				Repository gitRepo = open(mirror);
+				List<String> refs = new ArrayList<String>(branches);
+				refs.add(Constants.FETCH_HEAD);
+				String[] refNames = refs.toArray(new String[refs.size()]);
+				long start = System.currentTimeMillis();
+				Set<File> existing = FetchOperation.getTemporaryFiles(gitRepo,
+						refNames);
+				CancellableProgressMonitor progress = monitor;
+				if (progress == null)
+					progress = new CancellableProgressMonitor();
+				boolean fetched = false;
+				try {
+					FetchCommand fetch = Git.wrap(gitRepo).fetch();
+					fetch.setRemote(uri);
+					// Fetched branches are kept as refs so their objects are
+					// never pruned from under the workspaces using the mirror
+					List<RefSpec> specs = new ArrayList<RefSpec>();
+					for (String branch : branches)
+						specs.add(new RefSpec("+" + branch + ":" + branch));
+					fetch.setRefSpecs(specs);
+					fetch.setProgressMonitor(progress);
+					fetch.call();
+					for (String branch : branches)
+						CommitUtils.getRef(gitRepo, branch);
+					fetched = true;
+					return null;
+				} catch (GitException e) {
+					throw getFailure(uri, progress, e);
+				} catch (JGitInternalException e) {
+					throw getFailure(uri, progress, e);
+				} catch (InvalidRemoteException e) {
+					throw getFailure(uri, progress, e);
+				} finally {
+					if (!fetched)
+						FetchOperation.cleanup(gitRepo, existing, start,
+								refNames);
+					gitRepo.close();
+				}
+			}
+		});
+	}
+
+	private IOException getFailure(String uri,
+			CancellableProgressMonitor progress, Exception cause) {
+		return FetchOperation.getFailure(new BuildRepository(uri,
+				BuildRepository.BRANCH_DEFAULT, null), progress, cause);
+	}
+
+	/**
+	 * Add the objects of the mirror as an alternate of the repository
+	 *
+	 * @param repo
+	 * @param mirror
+	 *            git directory of the repository whose objects are borrowed
+	 * @return true if added, false if already present
+	 * @throws IOException
+	 */
+	public static boolean addAlternate(Repository repo, File mirror)
+			throws IOException {
+		File info = new File(new File(repo.getDirectory(), Constants.OBJECTS),
+				"info");
+		File alternates = new File(info, "alternates");
+		String objects = new File(mirror, Constants.OBJECTS).getAbsolutePath();
+		if (alternates.isFile()) {
+			BufferedReader reader = new BufferedReader(new FileReader(
+					alternates));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null)
+					if (objects.equals(line.trim()))
+						return false;
+			} finally {
+				reader.close();
+			}
+		}
+		if (!info.isDirectory() && !info.mkdirs())
+			throw new IOException("Unable to create directory " + info);
+		FileWriter writer = new FileWriter(alternates, true);
+		try {
+			writer.write(objects);
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+		return true;
+	}
+}
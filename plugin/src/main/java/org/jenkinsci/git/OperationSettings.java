@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.Serializable;
+
+/**
+ * Settings of the poll and checkout operations run on a computer
+ * <p>
+ * Settings are collected in one object so operations only carry the state
+ * of a single poll or checkout in their own fields. Shared caches of the JVM
+ * an operation runs in are configured from these settings with
+ * {@link #install()} before any repository is opened.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class OperationSettings implements Serializable {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 3329785430615547032L;
+
+	private int refCacheSize = RemoteRefCache.SIZE_DEFAULT;
+
+	private long refCacheTtl;
+
+	private int timeout;
+
+	private int repositoryCacheSize = RepositoryHandleCache.SIZE_DEFAULT;
+
+	private PackCacheSettings packCache;
+
+	private int breakerThreshold;
+
+	private long breakerProbeInterval = RemoteCircuitBreaker.PROBE_INTERVAL_DEFAULT;
+
+	private String mirrorDirectory;
+
+	private int writerThreads = 1;
+
+	private boolean clean;
+
+	/**
+	 * Use the shared {@link RemoteRefCache} with the given configuration
+	 *
+	 * @param size
+	 *            maximum number of cached advertisements
+	 * @param ttl
+	 *            time-to-live in milliseconds, values less than 1 disable
+	 *            caching
+	 * @return this settings
+	 */
+	public OperationSettings setRefCache(int size, long ttl) {
+		refCacheSize = size;
+		refCacheTtl = ttl;
+		return this;
+	}
+
+	/**
+	 * Set timeout of remote listings
+	 *
+	 * @param timeout
+	 *            seconds, values less than 1 wait indefinitely
+	 * @return this settings
+	 */
+	public OperationSettings setTimeout(int timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Set maximum number of open repositories cached by the shared
+	 * {@link RepositoryHandleCache}
+	 *
+	 * @param size
+	 *            values less than 1 disable caching
+	 * @return this settings
+	 */
+	public OperationSettings setRepositoryCacheSize(int size) {
+		repositoryCacheSize = size;
+		return this;
+	}
+
+	/**
+	 * Set pack window cache settings
+	 *
+	 * @param settings
+	 *            may be null to keep the current settings
+	 * @return this settings
+	 */
+	public OperationSettings setPackCache(PackCacheSettings settings) {
+		packCache = settings;
+		return this;
+	}
+
+	/**
+	 * Use the shared {@link RemoteCircuitBreaker} with the given
+	 * configuration
+	 *
+	 * @param threshold
+	 *            consecutive failures that make a remote host unavailable,
+	 *            values less than 1 disable the circuit breaker
+	 * @param probeInterval
+	 *            milliseconds an unavailable remote host waits before letting
+	 *            a listing through
+	 * @return this settings
+	 */
+	public OperationSettings setBreaker(int threshold, long probeInterval) {
+		breakerThreshold = threshold;
+		breakerProbeInterval = probeInterval;
+		return this;
+	}
+
+	/**
+	 * Set directory of the {@link MirrorCache} that repositories are fetched
+	 * through
+	 *
+	 * @param directory
+	 *            null to fetch directly from each remote, empty to use the
+	 *            default directory
+	 * @return this settings
+	 */
+	public OperationSettings setMirrorDirectory(String directory) {
+		mirrorDirectory = directory;
+		return this;
+	}
+
+	/**
+	 * Set number of threads writing files when checking out into a freshly
+	 * created repository
+	 *
+	 * @param threads
+	 *            values less than 2 write files serially
+	 * @return this settings
+	 */
+	public OperationSettings setWriterThreads(int threads) {
+		writerThreads = threads;
+		return this;
+	}
+
+	/**
+	 * Set whether existing working trees are restored to their index before
+	 * fetching, deleting untracked files and resetting modified files
+	 *
+	 * @param clean
+	 * @return this settings
+	 */
+	public OperationSettings setClean(boolean clean) {
+		this.clean = clean;
+		return this;
+	}
+
+	/**
+	 * @return timeout of remote listings in seconds
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return maximum number of cached open repositories
+	 */
+	public int getRepositoryCacheSize() {
+		return repositoryCacheSize;
+	}
+
+	/**
+	 * @return pack window cache settings, may be null
+	 */
+	public PackCacheSettings getPackCache() {
+		return packCache;
+	}
+
+	/**
+	 * @return mirror directory, null if repositories are fetched directly
+	 */
+	public String getMirrorDirectory() {
+		return mirrorDirectory;
+	}
+
+	/**
+	 * @return number of threads writing files of a fresh checkout
+	 */
+	public int getWriterThreads() {
+		return writerThreads;
+	}
+
+	/**
+	 * @return true if working trees are cleaned before checkout
+	 */
+	public boolean isClean() {
+		return clean;
+	}
+
+	/**
+	 * Get circuit breaker to use
+	 *
+	 * @return circuit breaker or null if disabled
+	 */
+	public RemoteCircuitBreaker getBreaker() {
+		if (breakerThreshold < 1)
+			return null;
+		return RemoteCircuitBreaker.getShared().configure(breakerThreshold,
+				breakerProbeInterval);
+	}
+
+	/**
+	 * Get advertisement cache to use
+	 *
+	 * @return cache or null if disabled
+	 */
+	public RemoteRefCache getRefCache() {
+		if (refCacheTtl < 1)
+			return null;
+		return RemoteRefCache.getShared().configure(refCacheSize, refCacheTtl);
+	}
+
+	/**
+	 * Configure the shared caches of the JVM this method is called in
+	 */
+	public void install() {
+		RepositoryHandleCache.getShared().configure(repositoryCacheSize);
+		if (packCache != null)
+			packCache.install();
+	}
+}
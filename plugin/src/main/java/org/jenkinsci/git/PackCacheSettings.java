@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.storage.file.WindowCache;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+/**
+ * Settings of the JGit pack window cache that is shared by all repositories
+ * opened in a JVM.
+ * <p>
+ * Values less than 1 leave the JGit default in place. Settings are only
+ * installed when they differ from the settings last installed in the JVM
+ * since installing them discards all cached pack windows. The window cache is
+ * global to the JVM, installing settings also changes the cache used by
+ * anything else in the JVM that reads repositories with JGit.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PackCacheSettings implements Serializable {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -2871408212003517590L;
+
+	/**
+	 * Callable that returns the gauges of the pack window cache of the JVM it
+	 * is called in
+	 */
+	public static class Gauges implements
+			Callable<Map<String, Object>, IOException> {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = -4330874536108069322L;
+
+		public Map<String, Object> call() throws IOException {
+			return getGauges();
+		}
+	}
+
+	private static PackCacheSettings installed = new PackCacheSettings(0, 0,
+			0, false);
+
+	/**
+	 * Get settings last installed in this JVM
+	 *
+	 * @return non-null settings
+	 */
+	public static synchronized PackCacheSettings getInstalled() {
+		return installed;
+	}
+
+	/**
+	 * Get gauges of the pack window cache of this JVM as map of values
+	 *
+	 * @return map
+	 */
+	public static Map<String, Object> getGauges() {
+		PackCacheSettings settings = getInstalled();
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("packedGitLimit", Long.valueOf(settings.packedGitLimit));
+		values.put("packedGitWindowSize",
+				Integer.valueOf(settings.packedGitWindowSize));
+		values.put("deltaBaseCacheLimit",
+				Integer.valueOf(settings.deltaBaseCacheLimit));
+		values.put("packedGitMMAP", Boolean.valueOf(settings.packedGitMMAP));
+		return values;
+	}
+
+	private final long packedGitLimit;
+
+	private final int packedGitWindowSize;
+
+	private final int deltaBaseCacheLimit;
+
+	private final boolean packedGitMMAP;
+
+	/**
+	 * Create pack cache settings
+	 *
+	 * @param packedGitLimit
+	 *            maximum bytes of pack windows held in memory
+	 * @param packedGitWindowSize
+	 *            bytes of each pack window, must be a power of 2
+	 * @param deltaBaseCacheLimit
+	 *            maximum bytes of cached delta bases
+	 * @param packedGitMMAP
+	 *            true to memory map pack windows
+	 */
+	public PackCacheSettings(long packedGitLimit, int packedGitWindowSize,
+			int deltaBaseCacheLimit, boolean packedGitMMAP) {
+		this.packedGitLimit = packedGitLimit;
+		this.packedGitWindowSize = packedGitWindowSize;
+		this.deltaBaseCacheLimit = deltaBaseCacheLimit;
+		this.packedGitMMAP = packedGitMMAP;
+	}
+
+	/**
+	 * @return packed git limit in bytes
+	 */
+	public long getPackedGitLimit() {
+		return packedGitLimit;
+	}
+
+	/**
+	 * @return packed git window size in bytes
+	 */
+	public int getPackedGitWindowSize() {
+		return packedGitWindowSize;
+	}
+
+	/**
+	 * @return delta base cache limit in bytes
+	 */
+	public int getDeltaBaseCacheLimit() {
+		return deltaBaseCacheLimit;
+	}
+
+	/**
+	 * @return true if pack windows are memory mapped
+	 */
+	public boolean isPackedGitMMAP() {
+		return packedGitMMAP;
+	}
+
+	/**
+	 * Check these settings against the limits JGit enforces when installing
+	 * them, with values less than 1 replaced by the JGit defaults
+	 *
+	 * @return error message or null if the settings can be installed
+	 */
+	public String validate() {
+		WindowCacheConfig config = toConfig();
+		long limit = config.getPackedGitLimit();
+		int windowSize = config.getPackedGitWindowSize();
+		if (windowSize < 4096)
+			return "Pack window size must be at least 4 KB";
+		if (Integer.bitCount(windowSize) != 1)
+			return "Pack window size must be a power of 2";
+		if (windowSize >= limit)
+			return "Pack window size must be less than the pack window cache"
+					+ " limit";
+		return null;
+	}
+
+	/**
+	 * Create JGit configuration of these settings
+	 *
+	 * @return window cache config
+	 */
+	public WindowCacheConfig toConfig() {
+		WindowCacheConfig config = new WindowCacheConfig();
+		if (packedGitLimit > 0)
+			config.setPackedGitLimit(packedGitLimit);
+		if (packedGitWindowSize > 0)
+			config.setPackedGitWindowSize(packedGitWindowSize);
+		if (deltaBaseCacheLimit > 0)
+			config.setDeltaBaseCacheLimit(deltaBaseCacheLimit);
+		config.setPackedGitMMAP(packedGitMMAP);
+		return config;
+	}
+
+	/**
+	 * Install these settings in this JVM unless they are already installed
+	 *
+	 * @return true if installed, false if already installed
+	 * @throws IllegalArgumentException
+	 *             if the settings are not valid
+	 */
+	public boolean install() {
+		synchronized (PackCacheSettings.class) {
+			if (equals(installed))
+				return false;
+			String error = validate();
+			if (error != null)
+				throw new IllegalArgumentException(error);
+			WindowCache.reconfigure(toConfig());
+			installed = this;
+			return true;
+		}
+	}
+
+	public boolean equals(Object other) {
+		if (other == this)
+			return true;
+		if (!(other instanceof PackCacheSettings))
+			return false;
+		PackCacheSettings settings = (PackCacheSettings) other;
+		return packedGitLimit == settings.packedGitLimit
+				&& packedGitWindowSize == settings.packedGitWindowSize
+				&& deltaBaseCacheLimit == settings.deltaBaseCacheLimit
+				&& packedGitMMAP == settings.packedGitMMAP;
+	}
+
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	public String toString() {
+		return "packedGitLimit=" + packedGitLimit + ", packedGitWindowSize="
+				+ packedGitWindowSize + ", deltaBaseCacheLimit="
+				+ deltaBaseCacheLimit + ", packedGitMMAP=" + packedGitMMAP;
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Operation that checks out a commit into an empty working tree by inflating
+ * and writing files on a pool of threads
+ * <p>
+ * The index is built on the calling thread while the tree is walked and each
+ * file entry is handed off to a worker that writes it with its own object
+ * reader. The existing index and working tree are not compared against so
+ * this should only be used for freshly created repositories.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class ParallelTreeCheckoutOperation extends TreeCheckoutOperation {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 6160393476981402207L;
+
+	/**
+	 * Maximum number of pending file writes per thread
+	 */
+	public static final int QUEUE_SIZE = 256;
+
+	/**
+	 * Entry signaling workers that the tree walk is complete
+	 */
+	private static final DirCacheEntry DONE = new DirCacheEntry("done");
+
+	/**
+	 * Milliseconds the walk waits on a full queue before checking whether
+	 * the workers are still running
+	 */
+	private static final long OFFER_TIMEOUT = 100;
+
+	private final int threads;
+
+	/**
+	 * Create parallel tree checkout operation
+	 *
+	 * @param repo
+	 *            must be non-null
+	 * @param commit
+	 *            must be non-null
+	 * @param threads
+	 *            number of threads writing files
+	 */
+	public ParallelTreeCheckoutOperation(Repository repo, RevCommit commit,
+			int threads) {
+		super(repo, commit);
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Write blob of entry to the working tree and update the entry's length
+	 * and modification time from the written file
+	 *
+	 * @param reader
+	 * @param workTree
+	 * @param entry
+	 * @throws IOException
+	 */
+	protected void write(ObjectReader reader, File workTree,
+			DirCacheEntry entry) throws IOException {
+		File file = new File(workTree, entry.getPathString());
+		File parent = file.getParentFile();
+		// Other workers may be creating the same parent directories
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+			throw new IOException("Unable to create directory " + parent);
+		ObjectLoader loader = reader.open(entry.getObjectId(),
+				Constants.OBJ_BLOB);
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			loader.copyTo(output);
+		} finally {
+			output.close();
+		}
+		if (FileMode.EXECUTABLE_FILE.equals(entry.getRawMode()))
+			repo.getFS().setExecute(file, true);
+		entry.setLastModified(file.lastModified());
+		entry.setLength((int) file.length());
+	}
+
+	/**
+	 * Create worker that writes entries from the queue until the walk is done
+	 * <p>
+	 * The first failure of any worker is recorded and later entries are only
+	 * taken from the queue, not written, so the walk can stop early and never
+	 * blocks on a full queue.
+	 *
+	 * @param queue
+	 * @param workTree
+	 * @param failure
+	 *            first failure of any worker
+	 * @return worker
+	 */
+	protected Callable<Integer> createWorker(
+			final BlockingQueue<DirCacheEntry> queue, final File workTree,
+			final AtomicReference<Throwable> failure) {
+		return new Callable<Integer>() {
+
+			public Integer call() throws Exception {
+				int written = 0;
+				ObjectReader reader = null;
+				try {
+					reader = repo.newObjectReader();
+					DirCacheEntry entry;
+					while ((entry = queue.take()) != DONE)
+						if (failure.get() == null)
+							try {
+								write(reader, workTree, entry);
+								written++;
+							} catch (Throwable e) {
+								failure.compareAndSet(null, e);
+							}
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+					// Keep draining so the walk never blocks on a full queue
+					while (queue.take() != DONE)
+						continue;
+				} finally {
+					if (reader != null)
+						reader.release();
+				}
+				return written;
+			}
+		};
+	}
+
+	/**
+	 * Add entry to the queue, waiting while it is full
+	 *
+	 * @param queue
+	 * @param entry
+	 * @param failure
+	 * @param workers
+	 * @return true if added, false if a worker failed or no worker is left to
+	 *         take the entry
+	 * @throws InterruptedException
+	 */
+	private boolean offer(BlockingQueue<DirCacheEntry> queue,
+			DirCacheEntry entry, AtomicReference<Throwable> failure,
+			List<Future<Integer>> workers) throws InterruptedException {
+		while (!queue.offer(entry, OFFER_TIMEOUT, TimeUnit.MILLISECONDS))
+			if (failure.get() != null || isDone(workers))
+				return false;
+		return true;
+	}
+
+	private boolean isDone(List<Future<Integer>> workers) {
+		for (Future<Integer> worker : workers)
+			if (!worker.isDone())
+				return false;
+		return true;
+	}
+
+	/**
+	 * Signal every worker that the walk is done without throwing so that a
+	 * failure of the walk is never hidden
+	 *
+	 * @param queue
+	 * @param workers
+	 * @param executor
+	 */
+	private void finish(BlockingQueue<DirCacheEntry> queue,
+			List<Future<Integer>> workers, ExecutorService executor) {
+		try {
+			for (int i = 0; i < workers.size(); i++)
+				while (!queue.offer(DONE, OFFER_TIMEOUT, TimeUnit.MILLISECONDS))
+					if (isDone(workers))
+						return;
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private IOException getFailure(Throwable cause) {
+		if (cause instanceof IOException)
+			return (IOException) cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		return new IOException(cause);
+	}
+
+	public ObjectId call() throws IOException {
+		long start = System.currentTimeMillis();
+		RevTree tree = commit.getTree();
+		File workTree = repo.getWorkTree();
+		BlockingQueue<DirCacheEntry> queue = new LinkedBlockingQueue<DirCacheEntry>(
+				threads * QUEUE_SIZE);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> workers = new ArrayList<Future<Integer>>(
+				threads);
+		DirCache dirCache = repo.lockDirCache();
+		boolean committed = false;
+		try {
+			for (int i = 0; i < threads; i++)
+				workers.add(executor.submit(createWorker(queue, workTree,
+						failure)));
+
+			DirCacheBuilder builder = dirCache.builder();
+			TreeWalk walk = new TreeWalk(repo);
+			try {
+				walk.addTree(tree);
+				walk.setRecursive(true);
+				while (walk.next()) {
+					FileMode mode = walk.getFileMode(0);
+					DirCacheEntry entry = new DirCacheEntry(walk.getRawPath());
+					entry.setFileMode(mode);
+					entry.setObjectId(walk.getObjectId(0));
+					builder.add(entry);
+					if (FileMode.GITLINK.equals(mode))
+						new File(workTree, entry.getPathString()).mkdirs();
+					else if (!offer(queue, entry, failure, workers))
+						break;
+				}
+			} finally {
+				walk.release();
+				finish(queue, workers, executor);
+			}
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedException();
+
+			updated = 0;
+			for (Future<Integer> worker : workers)
+				try {
+					updated += worker.get();
+				} catch (ExecutionException e) {
+					failure.compareAndSet(null, e.getCause());
+				}
+			if (failure.get() != null)
+				throw getFailure(failure.get());
+
+			if (!builder.commit())
+				throw new IOException("Unable to write index");
+			committed = true;
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Checkout interrupted");
+		} finally {
+			executor.shutdown();
+			if (!committed)
+				dirCache.unlock();
+		}
+		removed = 0;
+		duration = System.currentTimeMillis() - start;
+		return tree;
+	}
+}
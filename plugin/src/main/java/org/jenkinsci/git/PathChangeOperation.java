@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Operation that checks whether any path included by a
+ * {@link BuildRepository} differs between the trees of two commits.
+ * <p>
+ * Only tree objects are read so the blobs of changed files do not need to be
+ * present locally.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PathChangeOperation implements Callable<Boolean, IOException> {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -5489131874826453061L;
+
+	private final BuildRepository repo;
+
+	private final Repository gitRepo;
+
+	private final ObjectId from;
+
+	private final ObjectId to;
+
+	/**
+	 * Create path change operation
+	 *
+	 * @param repo
+	 *            must be non-null
+	 * @param gitRepo
+	 *            must be non-null
+	 * @param from
+	 *            must be non-null
+	 * @param to
+	 *            must be non-null
+	 */
+	public PathChangeOperation(BuildRepository repo, Repository gitRepo,
+			ObjectId from, ObjectId to) {
+		if (repo == null)
+			throw new IllegalArgumentException("Repo cannot be null");
+		if (gitRepo == null)
+			throw new IllegalArgumentException("Git repo cannot be null");
+		if (from == null)
+			throw new IllegalArgumentException("From cannot be null");
+		if (to == null)
+			throw new IllegalArgumentException("To cannot be null");
+		this.repo = repo;
+		this.gitRepo = gitRepo;
+		this.from = from;
+		this.to = to;
+	}
+
+	public Boolean call() throws IOException {
+		RevWalk walk = new RevWalk(gitRepo);
+		TreeWalk treeWalk = new TreeWalk(gitRepo);
+		try {
+			treeWalk.addTree(walk.parseCommit(from).getTree());
+			treeWalk.addTree(walk.parseCommit(to).getTree());
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			while (treeWalk.next())
+				if (repo.isPathIncluded(treeWalk.getPathString()))
+					return Boolean.TRUE;
+			return Boolean.FALSE;
+		} finally {
+			treeWalk.release();
+			walk.release();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Set of Ant-style path patterns matched against repository-relative paths.
+ * <p>
+ * Patterns are separated by commas or line breaks. <code>*</code> matches
+ * any characters in a single path segment, <code>?</code> matches a single
+ * character in a path segment and <code>**</code> matches any number of path
+ * segments. A pattern ending in <code>/</code> matches everything below that
+ * directory.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PathPatterns implements Serializable {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -2250658434021418347L;
+
+	/**
+	 * Convert pattern to regular expression
+	 *
+	 * @param pattern
+	 * @return regular expression
+	 */
+	protected static String toRegex(String pattern) {
+		if (pattern.startsWith("/"))
+			pattern = pattern.substring(1);
+		if (pattern.endsWith("/"))
+			pattern += "**";
+		StringBuilder regex = new StringBuilder();
+		int length = pattern.length();
+		for (int i = 0; i < length; i++) {
+			char c = pattern.charAt(i);
+			switch (c) {
+			case '*':
+				if (i + 1 < length && pattern.charAt(i + 1) == '*') {
+					i++;
+					if (i + 1 < length && pattern.charAt(i + 1) == '/') {
+						// Leading or inner **/ also matches no directories
+						i++;
+						regex.append("(?:.*/)?");
+					} else
+						regex.append(".*");
+				} else
+					regex.append("[^/]*");
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			default:
+				if ("\\.[]{}()+-^$|".indexOf(c) != -1)
+					regex.append('\\');
+				regex.append(c);
+			}
+		}
+		return regex.toString();
+	}
+
+	private final String patterns;
+
+	private transient List<Pattern> compiled;
+
+	/**
+	 * Create path patterns
+	 *
+	 * @param patterns
+	 *            comma or line separated patterns, may be null
+	 */
+	public PathPatterns(String patterns) {
+		this.patterns = patterns;
+	}
+
+	private List<Pattern> getCompiled() {
+		if (compiled == null) {
+			List<Pattern> parsed = new ArrayList<Pattern>();
+			if (patterns != null)
+				for (String pattern : patterns.split("[,\\r\\n]")) {
+					pattern = pattern.trim();
+					if (pattern.length() > 0)
+						parsed.add(Pattern.compile(toRegex(pattern)));
+				}
+			compiled = Collections.unmodifiableList(parsed);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Are there no patterns?
+	 *
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return getCompiled().isEmpty();
+	}
+
+	/**
+	 * Does any pattern match the given path?
+	 *
+	 * @param path
+	 *            repository-relative path using <code>/</code> separators
+	 * @return true if matched, false otherwise
+	 */
+	public boolean matches(String path) {
+		for (Pattern pattern : getCompiled())
+			if (pattern.matcher(path).matches())
+				return true;
+		return false;
+	}
+
+	public String toString() {
+		return patterns != null ? patterns : "";
+	}
+}
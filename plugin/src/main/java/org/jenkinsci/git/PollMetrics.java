@@ -0,0 +1,519 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+import hudson.scm.PollingResult;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Polling metrics that record remote listing latency, advertised ref counts
+ * and bytes received per remote host along with counts of polling outcomes
+ * and of ref cache lookups.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PollMetrics implements Serializable {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -1923480613093545716L;
+
+	/**
+	 * Upper bounds in milliseconds of latency histogram buckets, a final
+	 * bucket counts all larger values
+	 */
+	public static final long[] LATENCY_BUCKETS = new long[] { 10, 50, 100,
+			250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+	/**
+	 * Host name used for remotes without a host such as local paths
+	 */
+	public static final String LOCAL_HOST = "local";
+
+	/**
+	 * Polling outcomes
+	 */
+	public static enum Outcome {
+
+		/**
+		 * Build required since no comparison was possible
+		 */
+		BUILD_NOW,
+
+		/**
+		 * Significant changes found
+		 */
+		SIGNIFICANT,
+
+		/**
+		 * No changes found
+		 */
+		NO_CHANGES,
+
+		/**
+		 * Polling failed
+		 */
+		ERROR;
+
+		/**
+		 * Get outcome of polling result
+		 *
+		 * @param result
+		 * @return outcome
+		 */
+		public static Outcome of(PollingResult result) {
+			if (result == null)
+				return ERROR;
+			if (result == PollingResult.NO_CHANGES)
+				return NO_CHANGES;
+			if (result == PollingResult.SIGNIFICANT)
+				return SIGNIFICANT;
+			return BUILD_NOW;
+		}
+	}
+
+	/**
+	 * Histogram of values with fixed bucket bounds
+	 */
+	public static class Histogram implements Serializable {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = 6105867127006283217L;
+
+		private final long[] bounds;
+
+		private final AtomicLongArray buckets;
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong sum = new AtomicLong();
+
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Create histogram
+		 *
+		 * @param bounds
+		 *            ascending upper bounds of buckets
+		 */
+		public Histogram(long[] bounds) {
+			this.bounds = bounds;
+			buckets = new AtomicLongArray(bounds.length + 1);
+		}
+
+		private void updateMax(long value) {
+			long current = max.get();
+			while (value > current && !max.compareAndSet(current, value))
+				current = max.get();
+		}
+
+		/**
+		 * Record value
+		 *
+		 * @param value
+		 * @return this histogram
+		 */
+		public Histogram record(long value) {
+			int bucket = 0;
+			while (bucket < bounds.length && value > bounds[bucket])
+				bucket++;
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			updateMax(value);
+			return this;
+		}
+
+		/**
+		 * Add all values recorded by other histogram with the same bounds
+		 *
+		 * @param other
+		 * @return this histogram
+		 */
+		public Histogram merge(Histogram other) {
+			for (int i = 0; i < buckets.length(); i++)
+				buckets.addAndGet(i, other.buckets.get(i));
+			count.addAndGet(other.count.get());
+			sum.addAndGet(other.sum.get());
+			updateMax(other.max.get());
+			return this;
+		}
+
+		/**
+		 * @return number of values recorded
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * @return sum of values recorded
+		 */
+		public long getSum() {
+			return sum.get();
+		}
+
+		/**
+		 * @return largest value recorded
+		 */
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * Get count of bucket
+		 *
+		 * @param bucket
+		 * @return count
+		 */
+		public long getBucket(int bucket) {
+			return buckets.get(bucket);
+		}
+
+		/**
+		 * Get histogram as map of values
+		 *
+		 * @return map
+		 */
+		public Map<String, Object> toMap() {
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			values.put("count", Long.valueOf(getCount()));
+			values.put("sum", Long.valueOf(getSum()));
+			values.put("max", Long.valueOf(getMax()));
+			Map<String, Object> counts = new LinkedHashMap<String, Object>();
+			for (int i = 0; i < bounds.length; i++)
+				counts.put("le" + bounds[i], Long.valueOf(buckets.get(i)));
+			counts.put("inf", Long.valueOf(buckets.get(bounds.length)));
+			values.put("buckets", counts);
+			return values;
+		}
+	}
+
+	/**
+	 * Metrics of a single remote host
+	 */
+	public static class HostMetrics implements Serializable {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = -6062287108213364007L;
+
+		private final Histogram latency = new Histogram(LATENCY_BUCKETS);
+
+		private final AtomicLong errors = new AtomicLong();
+
+		private final AtomicLong refs = new AtomicLong();
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		/**
+		 * @return latency histogram of remote listings in milliseconds
+		 */
+		public Histogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @return number of failed remote listings
+		 */
+		public long getErrors() {
+			return errors.get();
+		}
+
+		/**
+		 * @return total number of refs advertised
+		 */
+		public long getRefs() {
+			return refs.get();
+		}
+
+		/**
+		 * @return total number of bytes received where measurable
+		 */
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		void merge(HostMetrics other) {
+			latency.merge(other.latency);
+			errors.addAndGet(other.errors.get());
+			refs.addAndGet(other.refs.get());
+			bytes.addAndGet(other.bytes.get());
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			values.put("latency", latency.toMap());
+			values.put("errors", Long.valueOf(getErrors()));
+			values.put("refs", Long.valueOf(getRefs()));
+			values.put("bytes", Long.valueOf(getBytes()));
+			return values;
+		}
+	}
+
+	/**
+	 * Callable that merges metrics recorded elsewhere into the shared metrics
+	 * of the JVM it is called in
+	 */
+	public static class Publish implements Callable<Void, IOException> {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = 2953806209478361207L;
+
+		private final PollMetrics metrics;
+
+		/**
+		 * Create publish callable
+		 *
+		 * @param metrics
+		 */
+		public Publish(PollMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		public Void call() throws IOException {
+			getShared().merge(metrics);
+			return null;
+		}
+	}
+
+	private static final PollMetrics SHARED = new PollMetrics();
+
+	/**
+	 * Get metrics shared by all operations running in this JVM
+	 *
+	 * @return non-null metrics
+	 */
+	public static PollMetrics getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Get host of remote URI
+	 *
+	 * @param uri
+	 * @return host name or {@link #LOCAL_HOST} if none
+	 */
+	public static String getHost(String uri) {
+		if (uri == null)
+			return LOCAL_HOST;
+		try {
+			String host = new URIish(uri).getHost();
+			return host != null && host.length() > 0 ? host : LOCAL_HOST;
+		} catch (URISyntaxException e) {
+			return LOCAL_HOST;
+		}
+	}
+
+	private final ConcurrentMap<String, HostMetrics> hosts = new ConcurrentHashMap<String, HostMetrics>();
+
+	private final AtomicLongArray outcomes = new AtomicLongArray(
+			Outcome.values().length);
+
+	private final AtomicLong refCacheHits = new AtomicLong();
+
+	private final AtomicLong refCacheMisses = new AtomicLong();
+
+	/**
+	 * Get metrics of host
+	 *
+	 * @param host
+	 * @return non-null host metrics
+	 */
+	public HostMetrics getHostMetrics(String host) {
+		HostMetrics metrics = hosts.get(host);
+		if (metrics == null) {
+			metrics = new HostMetrics();
+			HostMetrics existing = hosts.putIfAbsent(host, metrics);
+			if (existing != null)
+				metrics = existing;
+		}
+		return metrics;
+	}
+
+	/**
+	 * Remove metrics of all hosts not in the given hosts
+	 *
+	 * @param names
+	 *            hosts still polled
+	 * @return this metrics
+	 */
+	public PollMetrics retainHosts(Collection<String> names) {
+		hosts.keySet().retainAll(names);
+		return this;
+	}
+
+	/**
+	 * Record successful remote listing
+	 *
+	 * @param uri
+	 * @param millis
+	 *            latency of listing
+	 * @param refs
+	 *            number of refs advertised
+	 * @param bytes
+	 *            number of bytes received or 0 if not measured
+	 * @return this metrics
+	 */
+	public PollMetrics recordListing(String uri, long millis, int refs,
+			long bytes) {
+		HostMetrics host = getHostMetrics(getHost(uri));
+		host.latency.record(millis);
+		host.refs.addAndGet(refs);
+		host.bytes.addAndGet(bytes);
+		return this;
+	}
+
+	/**
+	 * Record failed remote listing
+	 *
+	 * @param uri
+	 * @param millis
+	 *            time until failure
+	 * @return this metrics
+	 */
+	public PollMetrics recordError(String uri, long millis) {
+		HostMetrics host = getHostMetrics(getHost(uri));
+		host.latency.record(millis);
+		host.errors.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Record polling outcome
+	 *
+	 * @param outcome
+	 * @return this metrics
+	 */
+	public PollMetrics recordOutcome(Outcome outcome) {
+		outcomes.incrementAndGet(outcome.ordinal());
+		return this;
+	}
+
+	/**
+	 * Record lookup of a remote listing in the ref cache
+	 *
+	 * @param hit
+	 *            true if served from the cache, false otherwise
+	 * @return this metrics
+	 */
+	public PollMetrics recordRefCache(boolean hit) {
+		if (hit)
+			refCacheHits.incrementAndGet();
+		else
+			refCacheMisses.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Get number of remote listings served from the ref cache
+	 *
+	 * @return hit count
+	 */
+	public long getRefCacheHits() {
+		return refCacheHits.get();
+	}
+
+	/**
+	 * Get number of remote listings that missed the ref cache
+	 *
+	 * @return miss count
+	 */
+	public long getRefCacheMisses() {
+		return refCacheMisses.get();
+	}
+
+	/**
+	 * Get number of polls with outcome
+	 *
+	 * @param outcome
+	 * @return count
+	 */
+	public long getOutcome(Outcome outcome) {
+		return outcomes.get(outcome.ordinal());
+	}
+
+	/**
+	 * Is nothing recorded?
+	 *
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		if (!hosts.isEmpty() || refCacheHits.get() != 0
+				|| refCacheMisses.get() != 0)
+			return false;
+		for (int i = 0; i < outcomes.length(); i++)
+			if (outcomes.get(i) != 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Add all values recorded by other metrics
+	 *
+	 * @param other
+	 * @return this metrics
+	 */
+	public PollMetrics merge(PollMetrics other) {
+		if (other == null || other == this)
+			return this;
+		for (Entry<String, HostMetrics> host : other.hosts.entrySet())
+			getHostMetrics(host.getKey()).merge(host.getValue());
+		for (int i = 0; i < outcomes.length(); i++)
+			outcomes.addAndGet(i, other.outcomes.get(i));
+		refCacheHits.addAndGet(other.refCacheHits.get());
+		refCacheMisses.addAndGet(other.refCacheMisses.get());
+		return this;
+	}
+
+	/**
+	 * Get metrics as map of values
+	 *
+	 * @return map
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		Map<String, Object> outcomeValues = new LinkedHashMap<String, Object>();
+		for (Outcome outcome : Outcome.values())
+			outcomeValues.put(outcome.name(),
+					Long.valueOf(getOutcome(outcome)));
+		values.put("outcomes", outcomeValues);
+		Map<String, Object> hostValues = new TreeMap<String, Object>();
+		for (Entry<String, HostMetrics> host : hosts.entrySet())
+			hostValues.put(host.getKey(), host.getValue().toMap());
+		values.put("hosts", hostValues);
+		return values;
+	}
+}
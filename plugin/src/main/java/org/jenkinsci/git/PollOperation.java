@@ -27,26 +27,59 @@ import hudson.scm.PollingResult;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 
 /**
  * Operation that generates a {@link PollingResult} for a collection of
- * {@link BuildRepository} instances.
+ * {@link BuildRepository} instances and returns it in a {@link PollOutcome}
+ * along with the result of each repository polled.
  *
  * @author Kevin Sawicki (kevin@github.com)
  */
-public class PollOperation implements FileCallable<PollingResult> {
+public class PollOperation implements FileCallable<PollOutcome> {
 
 	/** serialVersionUID */
 	private static final long serialVersionUID = 7141515497249417849L;
 
+	/**
+	 * Name of the directory holding the repositories that polling fetches
+	 * into
+	 */
+	public static final String SCRATCH_DIRECTORY = "gitng-poll";
+
 	private final BuildRepositoryState state;
 
 	private final List<BuildRepository> repos;
 
+	private final int threads;
+
+	private OperationSettings settings = new OperationSettings();
+
+	private BuildRepositoryState heads;
+
+	private String job;
+
+	private transient PollMetrics metrics;
+
+	private transient BuildRepositoryState polled;
+
+	private transient Map<BuildRepository, PollingResult> outcomes;
+
 	/**
 	 * Create poll operation using given baseline
 	 *
@@ -55,31 +88,456 @@ public class PollOperation implements FileCallable<PollingResult> {
 	 */
 	public PollOperation(BuildRepositoryState baseline,
 			List<BuildRepository> repos) {
+		this(baseline, repos, 1);
+	}
+
+	/**
+	 * Create poll operation using given baseline that polls up to the given
+	 * number of repositories concurrently
+	 *
+	 * @param baseline
+	 * @param repos
+	 * @param threads
+	 *            maximum number of repositories polled at once, values less
+	 *            than 2 poll each repository serially
+	 */
+	public PollOperation(BuildRepositoryState baseline,
+			List<BuildRepository> repos, int threads) {
 		if (baseline == null)
 			throw new IllegalArgumentException("Baseline cannot be null");
 		if (repos == null)
 			throw new IllegalArgumentException("Repos cannot be null");
 		state = baseline;
 		this.repos = repos;
+		this.threads = threads;
+	}
+
+	/**
+	 * Set settings of this operation
+	 *
+	 * @param settings
+	 *            must be non-null
+	 * @return this operation
+	 */
+	public PollOperation setSettings(OperationSettings settings) {
+		if (settings == null)
+			throw new IllegalArgumentException("Settings cannot be null");
+		this.settings = settings;
+		return this;
+	}
+
+	/**
+	 * Set already known remote heads that are used instead of listing the
+	 * remote of a repository
+	 *
+	 * @param heads
+	 *            may be null
+	 * @return this operation
+	 */
+	public PollOperation setRemoteHeads(BuildRepositoryState heads) {
+		this.heads = heads;
+		return this;
+	}
+
+	/**
+	 * Set job whose significant polls record the remote heads they saw so
+	 * that the checkout of the build they trigger can skip fetching
+	 *
+	 * @param job
+	 *            may be null to not record polled heads
+	 * @return this operation
+	 */
+	public PollOperation setJob(String job) {
+		this.job = job;
+		return this;
+	}
+
+	/**
+	 * Get circuit breaker to use
+	 *
+	 * @return circuit breaker or null if disabled
+	 */
+	protected RemoteCircuitBreaker getBreaker() {
+		return settings.getBreaker();
+	}
+
+	/**
+	 * Get advertisement cache to use
+	 *
+	 * @return cache or null if disabled
+	 */
+	protected RemoteRefCache getCache() {
+		return settings.getRefCache();
+	}
+
+	/**
+	 * Open the repository used to list the remote of the given repository
+	 *
+	 * @param repo
+	 * @param file
+	 * @param channel
+	 * @return repository or null if it does not exist
+	 * @throws IOException
+	 */
+	protected Repository openRepository(BuildRepository repo, File file,
+			VirtualChannel channel) throws IOException {
+		return new FileRepositoryOperation(repo).invoke(file, channel);
+	}
+
+	/**
+	 * Get the git directory of the repository that polling fetches the remote
+	 * of the given repository into
+	 * <p>
+	 * Polling never updates the refs of the workspace repository and instead
+	 * fetches into a separate repository per remote that borrows the objects
+	 * of the workspace repository.
+	 *
+	 * @param repo
+	 * @param gitRepo
+	 * @return directory
+	 */
+	protected File getScratchDirectory(BuildRepository repo,
+			Repository gitRepo) {
+		return new File(new File(gitRepo.getDirectory(), SCRATCH_DIRECTORY),
+				MirrorCache.getName(repo.getUri()));
+	}
+
+	/**
+	 * Check whether any path included by the repository changed between the
+	 * current and latest commits, fetching the latest commit into the scratch
+	 * repository if it is missing locally
+	 *
+	 * @param repo
+	 * @param gitRepo
+	 * @param current
+	 * @param latest
+	 * @return true if changed or if the commits cannot be compared, false
+	 *         otherwise
+	 * @throws IOException
+	 */
+	protected boolean hasIncludedChanges(BuildRepository repo,
+			Repository gitRepo, ObjectId current, ObjectId latest)
+			throws IOException {
+		ObjectDatabase objects = gitRepo.getObjectDatabase();
+		if (objects.has(latest) && objects.has(current))
+			return new PathChangeOperation(repo, gitRepo, current, latest)
+					.call().booleanValue();
+
+		// Maintenance skips repositories while polling fetches through them
+		ReentrantLock lock = MaintenanceOperation.getLock(gitRepo
+				.getDirectory());
+		lock.lock();
+		try {
+			return hasScratchChanges(repo, gitRepo, current, latest);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Compare commits in the scratch repository of the repository, fetching
+	 * the latest commit when missing
+	 *
+	 * @param repo
+	 * @param gitRepo
+	 * @param current
+	 * @param latest
+	 * @return true if changed or if the commits cannot be compared, false
+	 *         otherwise
+	 * @throws IOException
+	 */
+	private boolean hasScratchChanges(BuildRepository repo,
+			Repository gitRepo, ObjectId current, ObjectId latest)
+			throws IOException {
+		File directory = getScratchDirectory(repo, gitRepo);
+		ScratchRepositoryOperation open = new ScratchRepositoryOperation();
+		Repository scratch = open.invoke(directory, null);
+		try {
+			if (!directory.equals(gitRepo.getDirectory())
+					&& MirrorCache.addAlternate(scratch, gitRepo.getDirectory())) {
+				// Alternates are only read once by an open repository
+				RepositoryHandleCache.getShared().evict(scratch);
+				scratch.close();
+				scratch = null;
+				scratch = open.invoke(directory, null);
+			}
+			ObjectDatabase objects = scratch.getObjectDatabase();
+			if (!objects.has(latest))
+				new FetchOperation(repo, scratch)
+						.setTimeout(settings.getTimeout())
+						.setBreaker(getBreaker()).call();
+			if (!objects.has(latest) || !objects.has(current))
+				return true;
+			return new PathChangeOperation(repo, scratch, current, latest)
+					.call().booleanValue();
+		} finally {
+			if (scratch != null)
+				scratch.close();
+		}
+	}
+
+	/**
+	 * Poll a single repository
+	 *
+	 * @param repo
+	 * @param file
+	 * @param channel
+	 * @return polling result for repository
+	 * @throws IOException
+	 */
+	protected PollingResult poll(BuildRepository repo, File file,
+			VirtualChannel channel) throws IOException {
+		PollingResult result;
+		Repository gitRepo = openRepository(repo, file, channel);
+		if (gitRepo != null)
+			try {
+				result = poll(repo, gitRepo);
+			} finally {
+				gitRepo.close();
+			}
+		else
+			result = PollingResult.BUILD_NOW;
+		if (outcomes != null)
+			synchronized (outcomes) {
+				outcomes.put(repo, result);
+			}
+		return result;
+	}
+
+	/**
+	 * Poll a single repository using an open local repository
+	 *
+	 * @param repo
+	 * @param gitRepo
+	 * @return polling result for repository
+	 * @throws IOException
+	 */
+	protected PollingResult poll(BuildRepository repo, Repository gitRepo)
+			throws IOException {
+		ObjectId latest = null;
+		if (heads != null)
+			latest = heads.get(repo);
+		// Pushed heads are unverified and never let checkouts skip fetching
+		boolean pushed = latest != null;
+		if (latest == null)
+			latest = new LsRemoteOperation(repo, gitRepo, getCache())
+					.setMetrics(metrics).setTimeout(settings.getTimeout())
+					.setBreaker(getBreaker()).call();
+		if (latest == null)
+			return PollingResult.BUILD_NOW;
+		ObjectId current = state.get(repo);
+		if (latest.equals(current))
+			return PollingResult.NO_CHANGES;
+		if (current != null && repo.hasPathFilter()
+				&& !hasIncludedChanges(repo, gitRepo, current, latest))
+			return PollingResult.NO_CHANGES;
+		if (polled != null && !pushed)
+			synchronized (polled) {
+				polled.put(repo, latest);
+			}
+		if (current == null)
+			return PollingResult.BUILD_NOW;
+		return PollingResult.SIGNIFICANT;
 	}
 
-	public PollingResult invoke(File file, VirtualChannel channel)
+	/**
+	 * Poll all repositories concurrently.
+	 * <p>
+	 * Results are consumed in repository order so the result returned is
+	 * always the same as the serial result. Once a repository is found that
+	 * is not {@link PollingResult#NO_CHANGES} all polls of repositories after
+	 * it are cancelled and only polls of repositories before it are waited
+	 * on.
+	 *
+	 * @param file
+	 * @param channel
+	 * @return polling result
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected PollingResult pollParallel(final File file,
+			final VirtualChannel channel) throws IOException,
+			InterruptedException {
+		final int count = repos.size();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				threads, count));
+		CompletionService<PollingResult> service = new ExecutorCompletionService<PollingResult>(
+				executor);
+		Map<Future<PollingResult>, Integer> indices = new HashMap<Future<PollingResult>, Integer>();
+		List<Future<PollingResult>> futures = new ArrayList<Future<PollingResult>>(
+				count);
+		try {
+			for (int i = 0; i < count; i++) {
+				final BuildRepository repo = repos.get(i);
+				Future<PollingResult> future = service
+						.submit(new Callable<PollingResult>() {
+
+							public PollingResult call() throws Exception {
+								return poll(repo, file, channel);
+							}
+						});
+				futures.add(future);
+				indices.put(future, Integer.valueOf(i));
+			}
+
+			boolean[] done = new boolean[count];
+			int next = 0;
+			while (next < count) {
+				done[indices.get(service.take()).intValue()] = true;
+				while (next < count && done[next]) {
+					PollingResult result = getResult(futures.get(next));
+					if (result != PollingResult.NO_CHANGES)
+						return result;
+					next++;
+				}
+				cancelAfterDecisive(futures, done, next);
+			}
+			return PollingResult.NO_CHANGES;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Cancel all polls after the first completed poll at or after the start
+	 * index that did not return {@link PollingResult#NO_CHANGES} since they
+	 * can no longer affect the result
+	 *
+	 * @param futures
+	 * @param done
+	 * @param start
+	 * @throws InterruptedException
+	 */
+	private void cancelAfterDecisive(List<Future<PollingResult>> futures,
+			boolean[] done, int start) throws InterruptedException {
+		for (int i = start; i < done.length; i++) {
+			if (!done[i])
+				continue;
+			Future<PollingResult> future = futures.get(i);
+			if (future.isCancelled())
+				continue;
+			boolean decisive;
+			try {
+				decisive = future.get() != PollingResult.NO_CHANGES;
+			} catch (ExecutionException e) {
+				decisive = true;
+			}
+			if (decisive) {
+				for (int j = i + 1; j < done.length; j++)
+					futures.get(j).cancel(true);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get result of completed poll, re-throwing any failure
+	 *
+	 * @param future
+	 * @return polling result
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private PollingResult getResult(Future<PollingResult> future)
 			throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Send the metrics recorded by this operation to the shared metrics of the
+	 * JVM on the other side of the channel, or of this JVM when there is no
+	 * channel
+	 *
+	 * @param channel
+	 */
+	protected void publishMetrics(VirtualChannel channel) {
+		if (metrics == null || metrics.isEmpty())
+			return;
+		if (channel == null) {
+			PollMetrics.getShared().merge(metrics);
+			return;
+		}
+		try {
+			channel.call(new PollMetrics.Publish(metrics));
+		} catch (IOException ignored) {
+			// Metrics are best-effort and never fail polling
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Send the remote heads seen by significant polls of this operation to the
+	 * polled head table of the job in the JVM on the other side of the
+	 * channel, or of this JVM when there is no channel
+	 *
+	 * @param channel
+	 */
+	protected void publishPolled(VirtualChannel channel) {
+		if (job == null || polled == null || polled.isEmpty())
+			return;
+		if (channel == null) {
+			RemoteHeadTable.getPolled(job).putAll(polled);
+			return;
+		}
+		try {
+			channel.call(new RemoteHeadTable.PublishPolled(job, polled));
+		} catch (IOException ignored) {
+			// Polled heads only let checkouts skip fetches and never fail
+			// polling
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Poll repositories serially or concurrently depending on the thread count
+	 *
+	 * @param file
+	 * @param channel
+	 * @return polling result
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected PollingResult poll(File file, VirtualChannel channel)
+			throws IOException, InterruptedException {
+		if (threads > 1 && repos.size() > 1)
+			return pollParallel(file, channel);
 		for (BuildRepository repo : repos) {
-			Repository gitRepo = new FileRepositoryOperation(repo).invoke(file,
-					channel);
-			if (gitRepo == null)
-				return PollingResult.BUILD_NOW;
-			LsRemoteOperation op = new LsRemoteOperation(repo, gitRepo);
-			ObjectId latest = op.call();
-			if (latest == null)
-				return PollingResult.BUILD_NOW;
-			ObjectId current = state.get(repo);
-			if (current == null)
-				return PollingResult.BUILD_NOW;
-			if (!latest.equals(current))
-				return PollingResult.SIGNIFICANT;
+			PollingResult result = poll(repo, file, channel);
+			if (result != PollingResult.NO_CHANGES)
+				return result;
 		}
 		return PollingResult.NO_CHANGES;
 	}
-}
\ No newline at end of file
+
+	public PollOutcome invoke(File file, VirtualChannel channel)
+			throws IOException, InterruptedException {
+		metrics = new PollMetrics();
+		polled = job != null ? new BuildRepositoryState() : null;
+		outcomes = new HashMap<BuildRepository, PollingResult>();
+		settings.install();
+		try {
+			PollingResult result = poll(file, channel);
+			synchronized (outcomes) {
+				return new PollOutcome(result, outcomes);
+			}
+		} finally {
+			publishMetrics(channel);
+			publishPolled(channel);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.scm.PollingResult;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a {@link PollOperation} holding the combined polling result and
+ * the result of each repository that was actually polled
+ * <p>
+ * Repositories whose poll was skipped because an earlier repository already
+ * decided the result have no result of their own.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PollOutcome implements Serializable {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -2486035542930416417L;
+
+	private final PollingResult result;
+
+	private final Map<BuildRepository, PollingResult> repos;
+
+	/**
+	 * Create poll outcome
+	 *
+	 * @param result
+	 * @param repos
+	 *            results of polled repositories
+	 */
+	public PollOutcome(PollingResult result,
+			Map<BuildRepository, PollingResult> repos) {
+		this.result = result;
+		this.repos = new LinkedHashMap<BuildRepository, PollingResult>(repos);
+	}
+
+	/**
+	 * @return combined polling result
+	 */
+	public PollingResult getResult() {
+		return result;
+	}
+
+	/**
+	 * Get result of repository
+	 *
+	 * @param repo
+	 * @return result or null if the repository was not polled
+	 */
+	public PollingResult get(BuildRepository repo) {
+		return repos.get(repo);
+	}
+
+	/**
+	 * Get results of all polled repositories
+	 *
+	 * @return non-null, non-modifiable map
+	 */
+	public Map<BuildRepository, PollingResult> getRepositories() {
+		return Collections.unmodifiableMap(repos);
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.AbstractProject;
+import hudson.model.TransientProjectActionFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.git.PollScheduler.Schedule;
+
+/**
+ * Project action that displays the adaptive polling schedule of each
+ * repository of a job
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PollScheduleAction implements Action {
+
+	/**
+	 * Factory that adds the action to projects using a
+	 * {@link RepositoryManager}
+	 */
+	@Extension
+	public static class Factory extends TransientProjectActionFactory {
+
+		@SuppressWarnings("rawtypes")
+		public Collection<? extends Action> createFor(AbstractProject target) {
+			if (!(target.getScm() instanceof RepositoryManager))
+				return Collections.emptyList();
+			return Collections.singletonList(new PollScheduleAction(target));
+		}
+	}
+
+	private final AbstractProject<?, ?> project;
+
+	/**
+	 * Create poll schedule action
+	 *
+	 * @param project
+	 */
+	public PollScheduleAction(AbstractProject<?, ?> project) {
+		this.project = project;
+	}
+
+	/**
+	 * @return project
+	 */
+	public AbstractProject<?, ?> getProject() {
+		return project;
+	}
+
+	/**
+	 * Get schedules of the project's repositories
+	 *
+	 * @return non-null but possibly empty list
+	 */
+	public List<Schedule> getSchedules() {
+		return PollScheduler.getShared().getSchedules(project.getFullName());
+	}
+
+	public String getIconFileName() {
+		return "clock.gif";
+	}
+
+	public String getDisplayName() {
+		return "Git Polling Schedule";
+	}
+
+	public String getUrlName() {
+		return "gitngPollSchedule";
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Scheduler that adapts how often each {@link BuildRepository} of a job is
+ * polled based on how often polling finds changes.
+ * <p>
+ * Every poll that finds no changes doubles the interval before the repository
+ * is polled again, starting at the base interval and up to the ceiling. A poll
+ * that finds a change resets the interval so the repository is polled on
+ * every trigger again.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PollScheduler {
+
+	/**
+	 * Default base interval in milliseconds
+	 */
+	public static final long BASE_DEFAULT = 60 * 1000;
+
+	private static final PollScheduler SHARED = new PollScheduler();
+
+	/**
+	 * Get scheduler shared by all jobs
+	 *
+	 * @return non-null scheduler
+	 */
+	public static PollScheduler getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Polling schedule of a single repository of a job
+	 */
+	public static class Schedule {
+
+		private final String job;
+
+		private final BuildRepository repo;
+
+		private long interval;
+
+		private long lastPoll;
+
+		private long lastChange;
+
+		private int polls;
+
+		private int changes;
+
+		Schedule(String job, BuildRepository repo) {
+			this.job = job;
+			this.repo = repo;
+		}
+
+		/**
+		 * @return job name
+		 */
+		public String getJob() {
+			return job;
+		}
+
+		/**
+		 * @return repository
+		 */
+		public BuildRepository getRepository() {
+			return repo;
+		}
+
+		/**
+		 * @return current interval in milliseconds
+		 */
+		public synchronized long getInterval() {
+			return interval;
+		}
+
+		/**
+		 * @return time of last poll or 0 if never polled
+		 */
+		public synchronized long getLastPoll() {
+			return lastPoll;
+		}
+
+		/**
+		 * @return time of last poll that found a change or 0 if none
+		 */
+		public synchronized long getLastChange() {
+			return lastChange;
+		}
+
+		/**
+		 * @return time the repository is next due to be polled
+		 */
+		public synchronized long getNextPoll() {
+			return lastPoll + interval;
+		}
+
+		/**
+		 * @return date the repository is next due to be polled
+		 */
+		public Date getNextPollDate() {
+			return new Date(getNextPoll());
+		}
+
+		/**
+		 * @return number of polls
+		 */
+		public synchronized int getPolls() {
+			return polls;
+		}
+
+		/**
+		 * @return number of polls that found a change
+		 */
+		public synchronized int getChanges() {
+			return changes;
+		}
+
+		/**
+		 * @return fraction of polls that found a change
+		 */
+		public synchronized double getChangeRate() {
+			return polls > 0 ? (double) changes / polls : 0;
+		}
+
+		synchronized boolean isDue(long now) {
+			return now - lastPoll >= interval;
+		}
+
+		synchronized void record(boolean changed, long now, long base,
+				long ceiling) {
+			polls++;
+			lastPoll = now;
+			if (changed) {
+				changes++;
+				lastChange = now;
+				interval = 0;
+			} else if (interval < base)
+				interval = Math.min(base, ceiling);
+			else
+				interval = Math.min(interval * 2, ceiling);
+		}
+	}
+
+	private final ConcurrentMap<String, Schedule> schedules = new ConcurrentHashMap<String, Schedule>();
+
+	private volatile long base = BASE_DEFAULT;
+
+	private volatile long ceiling;
+
+	/**
+	 * Update intervals of scheduler
+	 *
+	 * @param base
+	 *            interval after the first poll without changes in milliseconds
+	 * @param ceiling
+	 *            maximum interval in milliseconds, values less than 1 disable
+	 *            adaptive polling
+	 * @return this scheduler
+	 */
+	public PollScheduler configure(long base, long ceiling) {
+		this.base = Math.max(0, base);
+		this.ceiling = ceiling;
+		return this;
+	}
+
+	/**
+	 * Is adaptive polling enabled?
+	 *
+	 * @return true if enabled, false otherwise
+	 */
+	public boolean isEnabled() {
+		return ceiling > 0;
+	}
+
+	private Schedule getSchedule(String job, BuildRepository repo) {
+		String key = job + ' ' + repo;
+		Schedule schedule = schedules.get(key);
+		if (schedule == null) {
+			schedule = new Schedule(job, repo);
+			Schedule existing = schedules.putIfAbsent(key, schedule);
+			if (existing != null)
+				schedule = existing;
+		}
+		return schedule;
+	}
+
+	/**
+	 * Is repository of job due to be polled?
+	 *
+	 * @param job
+	 * @param repo
+	 * @return true if due or adaptive polling is disabled, false otherwise
+	 */
+	public boolean isDue(String job, BuildRepository repo) {
+		if (!isEnabled())
+			return true;
+		return getSchedule(job, repo).isDue(System.currentTimeMillis());
+	}
+
+	/**
+	 * Record outcome of polling repository of job
+	 *
+	 * @param job
+	 * @param repo
+	 * @param changed
+	 * @return this scheduler
+	 */
+	public PollScheduler record(String job, BuildRepository repo,
+			boolean changed) {
+		getSchedule(job, repo).record(changed, System.currentTimeMillis(),
+				base, ceiling);
+		return this;
+	}
+
+	/**
+	 * Get schedules of all repositories of job
+	 *
+	 * @param job
+	 * @return non-null but possibly empty list
+	 */
+	public List<Schedule> getSchedules(String job) {
+		List<Schedule> jobSchedules = new ArrayList<Schedule>();
+		for (Schedule schedule : schedules.values())
+			if (schedule.getJob().equals(job))
+				jobSchedules.add(schedule);
+		return jobSchedules;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Root action that accepts push notifications and records the new commit of
+ * the pushed ref in the shared {@link RemoteHeadTable}.
+ * <p>
+ * Notifications are POST requests to <code>/gitng-notify/</code> with
+ * <code>uri</code>, <code>ref</code> and <code>sha</code> parameters.
+ * Notifications are ignored unless enabled with a push head maximum age, and
+ * must either present the configured token or come from a user with the build
+ * permission.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+@Extension
+public class PushNotificationAction implements RootAction {
+
+	/**
+	 * URL name
+	 */
+	public static final String URL_NAME = "gitng-notify";
+
+	/**
+	 * Header carrying the notification token
+	 */
+	public static final String HEADER_TOKEN = "X-GitNG-Token";
+
+	private static final Logger LOGGER = Logger
+			.getLogger(PushNotificationAction.class.getName());
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return null;
+	}
+
+	public String getUrlName() {
+		return URL_NAME;
+	}
+
+	/**
+	 * Record push notification
+	 *
+	 * @param uri
+	 * @param ref
+	 * @param sha
+	 * @return true if recorded, false if any value was missing or invalid
+	 */
+	public boolean notify(String uri, String ref, String sha) {
+		if (uri == null || uri.length() == 0)
+			return false;
+		if (ref == null || ref.length() == 0)
+			return false;
+		if (sha == null || !ObjectId.isId(sha))
+			return false;
+		if (!ref.startsWith(Constants.R_REFS))
+			ref = Constants.R_HEADS + ref;
+		RemoteHeadTable.getShared().put(uri, ref, ObjectId.fromString(sha));
+		LOGGER.fine("Push notification for " + uri + " " + ref + " " + sha);
+		return true;
+	}
+
+	/**
+	 * Is the given token the configured token?
+	 *
+	 * @param expected
+	 *            configured token, may be null
+	 * @param actual
+	 *            token presented, may be null
+	 * @return true if both tokens are present and equal, false otherwise
+	 */
+	public static boolean isValidToken(String expected, String actual) {
+		if (expected == null || expected.length() == 0 || actual == null)
+			return false;
+		try {
+			return MessageDigest.isEqual(expected.getBytes("UTF-8"),
+					actual.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Is the request allowed to record push notifications?
+	 *
+	 * @param req
+	 * @param descriptor
+	 * @return true if authorized, false otherwise
+	 */
+	protected boolean isAuthorized(StaplerRequest req,
+			RepositoryManagerDescriptor descriptor) {
+		String token = req.getHeader(HEADER_TOKEN);
+		if (token == null)
+			token = req.getParameter("token");
+		if (isValidToken(descriptor.getPushToken(), token))
+			return true;
+		return Hudson.getInstance().hasPermission(Item.BUILD);
+	}
+
+	/**
+	 * Handle push notification request
+	 *
+	 * @param req
+	 * @param rsp
+	 * @throws IOException
+	 */
+	public void doIndex(StaplerRequest req, StaplerResponse rsp)
+			throws IOException {
+		if (!"POST".equals(req.getMethod())) {
+			rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		RepositoryManagerDescriptor descriptor = Hudson.getInstance()
+				.getDescriptorByType(RepositoryManagerDescriptor.class);
+		if (descriptor == null || descriptor.getPushHeadMaxAge() < 1) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"Push notifications are disabled");
+			return;
+		}
+		if (!isAuthorized(req, descriptor)) {
+			rsp.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		if (!notify(req.getParameter("uri"), req.getParameter("ref"),
+				req.getParameter("sha"))) {
+			rsp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"uri, ref and sha parameters are required");
+			return;
+		}
+		rsp.setStatus(HttpServletResponse.SC_OK);
+		rsp.setContentType("text/plain");
+		rsp.getWriter().println("OK");
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Per-host circuit breaker for remote listings and polling fetches.
+ * <p>
+ * A host's circuit opens after the configured number of consecutive failures
+ * to connect to it, after which calls to {@link #check(String)} for any remote
+ * on that host fail fast with a {@link RemoteUnavailableException} instead of
+ * contacting the host. Only connection failures and timeouts are counted,
+ * other failures show that the host answered and close the circuit.
+ * <p>
+ * Once the probe interval has passed since the circuit opened it is half-open
+ * and the next check lets a single call through to the host, subject to the
+ * deadline of that call. The circuit closes if that call succeeds and opens
+ * again for another probe interval if it fails in any way, while other calls
+ * keep failing fast until then.
+ * <p>
+ * Circuits are kept by each JVM that lists remotes, which is the controller
+ * when polling without a workspace and the agent of the workspace otherwise.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemoteCircuitBreaker {
+
+	/**
+	 * Default number of consecutive failures that open a circuit
+	 */
+	public static final int THRESHOLD_DEFAULT = 3;
+
+	/**
+	 * Default milliseconds an open circuit waits before letting a call through
+	 */
+	public static final long PROBE_INTERVAL_DEFAULT = 30000;
+
+	/**
+	 * Callable to get the unavailable hosts of the shared circuit breaker
+	 */
+	public static class Unavailable implements
+			Callable<Map<String, Object>, IOException> {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = 6047415262400413862L;
+
+		public Map<String, Object> call() throws IOException {
+			return getShared().getUnavailableRemotes();
+		}
+	}
+
+	private static final RemoteCircuitBreaker SHARED = new RemoteCircuitBreaker();
+
+	/**
+	 * Get circuit breaker shared by all operations running in this JVM
+	 *
+	 * @return non-null circuit breaker
+	 */
+	public static RemoteCircuitBreaker getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Is the given failure a failure to connect to the remote host?
+	 *
+	 * @param failure
+	 * @return true if the failure or any of its causes is a connection
+	 *         failure or timeout, false otherwise
+	 */
+	public static boolean isConnectFailure(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause
+				.getCause()) {
+			if (cause instanceof ConnectException
+					|| cause instanceof NoRouteToHostException
+					|| cause instanceof SocketTimeoutException)
+				return true;
+			if (cause.getCause() == cause)
+				break;
+		}
+		return false;
+	}
+
+	/**
+	 * Get host and port the given remote is contacted at
+	 *
+	 * @param uri
+	 * @return host and port separated by a colon, or the remote itself if it
+	 *         has no host
+	 */
+	public static String getHost(String uri) {
+		URIish parsed;
+		try {
+			parsed = new URIish(uri);
+		} catch (URISyntaxException e) {
+			return uri;
+		}
+		String host = parsed.getHost();
+		if (host == null || host.length() == 0)
+			return uri;
+		int port = parsed.getPort();
+		if (port < 1)
+			port = getDefaultPort(parsed.getScheme());
+		return host + ':' + port;
+	}
+
+	private static int getDefaultPort(String scheme) {
+		if ("http".equals(scheme))
+			return 80;
+		if ("https".equals(scheme))
+			return 443;
+		if ("git".equals(scheme))
+			return 9418;
+		return 22;
+	}
+
+	private static class Circuit {
+
+		int failures;
+
+		boolean open;
+
+		long opened;
+
+		boolean probing;
+
+		IOException cause;
+	}
+
+	private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+	private int threshold;
+
+	private long probeInterval = PROBE_INTERVAL_DEFAULT;
+
+	/**
+	 * Create disabled circuit breaker
+	 */
+	public RemoteCircuitBreaker() {
+	}
+
+	/**
+	 * Create circuit breaker
+	 *
+	 * @param threshold
+	 * @param probeInterval
+	 */
+	public RemoteCircuitBreaker(int threshold, long probeInterval) {
+		configure(threshold, probeInterval);
+	}
+
+	/**
+	 * Configure circuit breaker
+	 *
+	 * @param threshold
+	 *            consecutive failures that open a circuit, values less than 1
+	 *            disable the circuit breaker and close all circuits
+	 * @param probeInterval
+	 *            milliseconds an open circuit waits before letting a call
+	 *            through
+	 * @return this circuit breaker
+	 */
+	public synchronized RemoteCircuitBreaker configure(int threshold,
+			long probeInterval) {
+		this.threshold = threshold;
+		this.probeInterval = Math.max(1, probeInterval);
+		if (threshold < 1)
+			circuits.clear();
+		return this;
+	}
+
+	/**
+	 * Is this circuit breaker enabled?
+	 *
+	 * @return true if enabled, false otherwise
+	 */
+	public synchronized boolean isEnabled() {
+		return threshold > 0;
+	}
+
+	/**
+	 * Check that the given remote can be contacted
+	 * <p>
+	 * A half-open circuit lets the first caller through, which must then
+	 * record the outcome of its call with {@link #recordSuccess(String)} or
+	 * {@link #recordFailure(String, IOException)}.
+	 *
+	 * @param uri
+	 * @throws RemoteUnavailableException
+	 *             if the circuit of the remote's host is open
+	 */
+	public synchronized void check(String uri)
+			throws RemoteUnavailableException {
+		Circuit circuit = circuits.get(getHost(uri));
+		if (circuit == null || !circuit.open)
+			return;
+		long elapsed = System.currentTimeMillis() - circuit.opened;
+		if (!circuit.probing && elapsed >= probeInterval) {
+			circuit.probing = true;
+			return;
+		}
+		throw new RemoteUnavailableException(uri, circuit.failures,
+				circuit.cause);
+	}
+
+	/**
+	 * Is the circuit of the given remote's host open?
+	 *
+	 * @param uri
+	 * @return true if open, false otherwise
+	 */
+	public synchronized boolean isOpen(String uri) {
+		Circuit circuit = circuits.get(getHost(uri));
+		return circuit != null && circuit.open;
+	}
+
+	/**
+	 * Record successful call to the given remote which closes the circuit of
+	 * its host
+	 *
+	 * @param uri
+	 */
+	public synchronized void recordSuccess(String uri) {
+		circuits.remove(getHost(uri));
+	}
+
+	/**
+	 * Record failed call to the given remote, opening the circuit of its host
+	 * once the threshold of consecutive connection failures is reached
+	 * <p>
+	 * Failures that are not connection failures close the circuit since the
+	 * host was reached, unless the circuit is half-open in which case any
+	 * failure opens it again.
+	 *
+	 * @param uri
+	 * @param cause
+	 * @return true if this failure opened the circuit, false otherwise
+	 */
+	public synchronized boolean recordFailure(String uri, IOException cause) {
+		if (threshold < 1)
+			return false;
+		String host = getHost(uri);
+		Circuit circuit = circuits.get(host);
+		if (circuit != null && circuit.probing) {
+			circuit.probing = false;
+			circuit.failures++;
+			circuit.cause = cause;
+			circuit.opened = System.currentTimeMillis();
+			return false;
+		}
+		if (!isConnectFailure(cause)) {
+			circuits.remove(host);
+			return false;
+		}
+		if (circuit == null) {
+			circuit = new Circuit();
+			circuits.put(host, circuit);
+		}
+		circuit.failures++;
+		circuit.cause = cause;
+		if (circuit.open || circuit.failures < threshold)
+			return false;
+		circuit.open = true;
+		circuit.opened = System.currentTimeMillis();
+		return true;
+	}
+
+	/**
+	 * Get hosts with open circuits
+	 *
+	 * @return non-null but possibly empty map of hosts to the number of
+	 *         consecutive failures
+	 */
+	public synchronized Map<String, Object> getUnavailableRemotes() {
+		Map<String, Object> remotes = new TreeMap<String, Object>();
+		for (Map.Entry<String, Circuit> entry : circuits.entrySet())
+			if (entry.getValue().open)
+				remotes.put(entry.getKey(),
+						Integer.valueOf(entry.getValue().failures));
+		return remotes;
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Table of the latest known commit of remote refs keyed by remote URI and ref
+ * name.
+ * <p>
+ * Entries are recorded when a remote reports a push, or in the separate
+ * {@link #getPolled(String)} table of a job when a poll of that job finds
+ * significant changes, and are only used while they are younger than the
+ * maximum age given to lookups. Tables hold
+ * at most a fixed number of entries, evicting the oldest entry first, and
+ * expired entries are removed by {@link #prune(long)}.
+ * <p>
+ * Remote URIs are matched by host and path so that the same repository
+ * reached through different schemes, users or a trailing <code>.git</code>
+ * shares entries.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemoteHeadTable {
+
+	/**
+	 * Callable that records the heads seen by a poll in the polled table of
+	 * the job in the JVM it is called in
+	 */
+	public static class PublishPolled implements Callable<Void, IOException> {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = -4302216873946209641L;
+
+		private final String job;
+
+		private final BuildRepositoryState heads;
+
+		/**
+		 * Create publish callable
+		 *
+		 * @param job
+		 * @param heads
+		 */
+		public PublishPolled(String job, BuildRepositoryState heads) {
+			this.job = job;
+			this.heads = heads;
+		}
+
+		public Void call() throws IOException {
+			getPolled(job).putAll(heads);
+			return null;
+		}
+	}
+
+	/**
+	 * Default maximum number of entries
+	 */
+	public static final int SIZE_DEFAULT = 1000;
+
+	private static final RemoteHeadTable SHARED = new RemoteHeadTable();
+
+	private static final ConcurrentMap<String, RemoteHeadTable> POLLED = new ConcurrentHashMap<String, RemoteHeadTable>();
+
+	/**
+	 * Get table shared by all operations running in this JVM
+	 *
+	 * @return non-null table
+	 */
+	public static RemoteHeadTable getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Get table of the heads most recently seen by significant polls of the
+	 * given job in this JVM
+	 *
+	 * @param job
+	 * @return non-null table
+	 */
+	public static RemoteHeadTable getPolled(String job) {
+		RemoteHeadTable table = POLLED.get(job);
+		if (table == null) {
+			table = new RemoteHeadTable();
+			RemoteHeadTable existing = POLLED.putIfAbsent(job, table);
+			if (existing != null)
+				table = existing;
+		}
+		return table;
+	}
+
+	/**
+	 * Remove and return the table of heads seen by significant polls of the
+	 * given job so that they are used by at most one checkout
+	 *
+	 * @param job
+	 * @return table or null if no significant poll was recorded
+	 */
+	public static RemoteHeadTable takePolled(String job) {
+		return POLLED.remove(job);
+	}
+
+	private static class Head {
+
+		final ObjectId id;
+
+		final long updated;
+
+		Head(ObjectId id, long updated) {
+			this.id = id;
+			this.updated = updated;
+		}
+	}
+
+	/**
+	 * Normalize remote URI to the host and path of the repository
+	 *
+	 * @param uri
+	 * @return normalized URI
+	 */
+	public static String normalize(String uri) {
+		String normalized = uri.trim();
+		try {
+			URIish parsed = new URIish(normalized);
+			String path = parsed.getPath();
+			if (path == null)
+				path = "";
+			while (path.startsWith("/"))
+				path = path.substring(1);
+			if (parsed.getHost() != null) {
+				String host = parsed.getHost().toLowerCase(Locale.US);
+				if (parsed.getPort() > 0)
+					host += ":" + parsed.getPort();
+				normalized = host + '/' + path;
+			} else
+				normalized = path;
+		} catch (URISyntaxException e) {
+			// Match URIs that cannot be parsed as given
+		}
+		while (normalized.endsWith("/"))
+			normalized = normalized.substring(0, normalized.length() - 1);
+		if (normalized.endsWith(Constants.DOT_GIT_EXT))
+			normalized = normalized.substring(0, normalized.length()
+					- Constants.DOT_GIT_EXT.length());
+		while (normalized.endsWith("/"))
+			normalized = normalized.substring(0, normalized.length() - 1);
+		return normalized;
+	}
+
+	private static String getKey(String uri, String ref) {
+		return normalize(uri) + ' ' + ref;
+	}
+
+	private final ConcurrentMap<String, Head> heads = new ConcurrentHashMap<String, Head>();
+
+	private final int maxSize;
+
+	/**
+	 * Create table holding up to {@link #SIZE_DEFAULT} entries
+	 */
+	public RemoteHeadTable() {
+		this(SIZE_DEFAULT);
+	}
+
+	/**
+	 * Create table holding up to the given number of entries
+	 *
+	 * @param maxSize
+	 */
+	public RemoteHeadTable(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Remove oldest entry
+	 */
+	private void evictOldest() {
+		Entry<String, Head> oldest = null;
+		for (Entry<String, Head> entry : heads.entrySet())
+			if (oldest == null
+					|| entry.getValue().updated < oldest.getValue().updated)
+				oldest = entry;
+		if (oldest != null)
+			heads.remove(oldest.getKey(), oldest.getValue());
+	}
+
+	/**
+	 * Record latest commit of remote ref
+	 *
+	 * @param uri
+	 * @param ref
+	 * @param id
+	 * @return this table
+	 */
+	public RemoteHeadTable put(String uri, String ref, ObjectId id) {
+		if (uri == null || ref == null || id == null)
+			return this;
+		heads.put(getKey(uri, ref), new Head(id.copy(),
+				System.currentTimeMillis()));
+		while (heads.size() > maxSize)
+			evictOldest();
+		return this;
+	}
+
+	/**
+	 * Record latest commits of the branches of all repositories in the state
+	 *
+	 * @param state
+	 * @return this table
+	 */
+	public RemoteHeadTable putAll(BuildRepositoryState state) {
+		if (state == null)
+			return this;
+		for (Entry<BuildRepository, ObjectId> entry : state)
+			put(entry.getKey().getUri(), entry.getKey().getBranch(),
+					entry.getValue());
+		return this;
+	}
+
+	/**
+	 * Get latest commit of remote ref
+	 *
+	 * @param uri
+	 * @param ref
+	 * @param maxAge
+	 *            maximum age of entry in milliseconds
+	 * @return id or null if unknown or older than the maximum age
+	 */
+	public ObjectId get(String uri, String ref, long maxAge) {
+		if (uri == null || ref == null)
+			return null;
+		Head head = heads.get(getKey(uri, ref));
+		if (head == null)
+			return null;
+		if (System.currentTimeMillis() - head.updated >= maxAge)
+			return null;
+		return head.id;
+	}
+
+	/**
+	 * Get state of the given repositories that have an entry younger than the
+	 * maximum age
+	 *
+	 * @param repos
+	 * @param maxAge
+	 *            maximum age of entries in milliseconds
+	 * @return non-null but possibly empty state
+	 */
+	public BuildRepositoryState getState(Collection<BuildRepository> repos,
+			long maxAge) {
+		BuildRepositoryState state = new BuildRepositoryState();
+		prune(Math.max(maxAge, 0));
+		if (repos == null || maxAge < 1)
+			return state;
+		for (BuildRepository repo : repos)
+			state.put(repo, get(repo.getUri(), repo.getBranch(), maxAge));
+		return state;
+	}
+
+	/**
+	 * Remove entries older than the maximum age
+	 *
+	 * @param maxAge
+	 *            maximum age of entries in milliseconds
+	 * @return number of entries removed
+	 */
+	public int prune(long maxAge) {
+		long now = System.currentTimeMillis();
+		int removed = 0;
+		for (Entry<String, Head> entry : heads.entrySet())
+			if (now - entry.getValue().updated >= maxAge
+					&& heads.remove(entry.getKey(), entry.getValue()))
+				removed++;
+		return removed;
+	}
+
+	/**
+	 * Remove all entries
+	 *
+	 * @return this table
+	 */
+	public RemoteHeadTable clear() {
+		heads.clear();
+		return this;
+	}
+
+	/**
+	 * Get number of entries
+	 *
+	 * @return size
+	 */
+	public int size() {
+		return heads.size();
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Poll operation that does not require a workspace.
+ * <p>
+ * Remotes are listed using a scratch bare repository per remote in the
+ * directory this operation is invoked on and compared against the stored
+ * baseline so the operation can run on the controller without touching an
+ * agent.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemotePollOperation extends PollOperation {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 5226406585587451226L;
+
+	/**
+	 * Create remote poll operation using given baseline
+	 *
+	 * @param baseline
+	 * @param repos
+	 */
+	public RemotePollOperation(BuildRepositoryState baseline,
+			List<BuildRepository> repos) {
+		super(baseline, repos);
+	}
+
+	/**
+	 * Create remote poll operation using given baseline that polls up to the
+	 * given number of repositories concurrently
+	 *
+	 * @param baseline
+	 * @param repos
+	 * @param threads
+	 */
+	public RemotePollOperation(BuildRepositoryState baseline,
+			List<BuildRepository> repos, int threads) {
+		super(baseline, repos, threads);
+	}
+
+	protected Repository openRepository(BuildRepository repo, File file,
+			VirtualChannel channel) throws IOException {
+		return new ScratchRepositoryOperation().invoke(new File(file,
+				MirrorCache.getName(repo.getUri())), channel);
+	}
+
+	protected File getScratchDirectory(BuildRepository repo,
+			Repository gitRepo) {
+		return gitRepo.getDirectory();
+	}
+}
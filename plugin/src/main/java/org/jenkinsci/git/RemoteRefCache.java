@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Size-bounded cache of remote ref advertisements keyed by remote URI.
+ * <p>
+ * Entries expire once they are older than the configured time-to-live and the
+ * least recently used entry is evicted when the cache is full.
+ * <p>
+ * Each JVM that lists remotes keeps its own cache, which is the controller
+ * when polling without a workspace and the agent of the workspace otherwise.
+ * Polls send their hits and misses back to the controller through
+ * {@link PollMetrics}.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemoteRefCache {
+
+	/**
+	 * Default maximum number of cached advertisements
+	 */
+	public static final int SIZE_DEFAULT = 256;
+
+	/**
+	 * Callable to get the gauges of the shared cache
+	 */
+	public static class Gauges implements
+			Callable<Map<String, Object>, IOException> {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = -3904563528211869516L;
+
+		public Map<String, Object> call() throws IOException {
+			return getShared().getGauges();
+		}
+	}
+
+	private static final RemoteRefCache SHARED = new RemoteRefCache();
+
+	/**
+	 * Get cache shared by all operations running in this JVM
+	 *
+	 * @return non-null cache
+	 */
+	public static RemoteRefCache getShared() {
+		return SHARED;
+	}
+
+	private static class CacheEntry {
+
+		final Map<String, ObjectId> refs;
+
+		final long created;
+
+		CacheEntry(Map<String, ObjectId> refs, long created) {
+			this.refs = refs;
+			this.created = created;
+		}
+	}
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(
+			16, 0.75F, true) {
+
+		private static final long serialVersionUID = 2473409128612457341L;
+
+		protected boolean removeEldestEntry(
+				Map.Entry<String, CacheEntry> eldest) {
+			return size() > size;
+		}
+	};
+
+	private int size;
+
+	private long ttl;
+
+	/**
+	 * Create cache with default size and caching disabled
+	 */
+	public RemoteRefCache() {
+		this(SIZE_DEFAULT, 0);
+	}
+
+	/**
+	 * Create cache
+	 *
+	 * @param size
+	 *            maximum number of advertisements cached
+	 * @param ttl
+	 *            time-to-live of cached advertisements in milliseconds
+	 */
+	public RemoteRefCache(int size, long ttl) {
+		configure(size, ttl);
+	}
+
+	/**
+	 * Update size and time-to-live of cache
+	 *
+	 * @param size
+	 *            maximum number of advertisements cached
+	 * @param ttl
+	 *            time-to-live of cached advertisements in milliseconds, values
+	 *            less than 1 disable caching
+	 * @return this cache
+	 */
+	public synchronized RemoteRefCache configure(int size, long ttl) {
+		this.size = Math.max(1, size);
+		this.ttl = ttl;
+		if (ttl < 1)
+			entries.clear();
+		else
+			while (entries.size() > this.size)
+				entries.remove(entries.keySet().iterator().next());
+		return this;
+	}
+
+	/**
+	 * Is caching enabled?
+	 *
+	 * @return true if enabled, false otherwise
+	 */
+	public synchronized boolean isEnabled() {
+		return ttl > 0;
+	}
+
+	/**
+	 * Get time-to-live of cached advertisements
+	 *
+	 * @return time-to-live in milliseconds
+	 */
+	public synchronized long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Get maximum number of cached advertisements
+	 *
+	 * @return size
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get cached advertisement for URI
+	 *
+	 * @param uri
+	 * @return non-modifiable map of ref names to ids or null if not cached or
+	 *         expired
+	 */
+	public Map<String, ObjectId> get(String uri) {
+		if (uri == null)
+			return null;
+		synchronized (this) {
+			if (ttl < 1)
+				return null;
+			CacheEntry entry = entries.get(uri);
+			if (entry != null
+					&& System.currentTimeMillis() - entry.created < ttl) {
+				hits.incrementAndGet();
+				return entry.refs;
+			}
+			if (entry != null)
+				entries.remove(uri);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Cache advertisement for URI
+	 *
+	 * @param uri
+	 * @param refs
+	 * @return this cache
+	 */
+	public RemoteRefCache put(String uri, Map<String, ObjectId> refs) {
+		if (uri == null || refs == null)
+			return this;
+		CacheEntry entry = new CacheEntry(Collections.unmodifiableMap(refs),
+				System.currentTimeMillis());
+		synchronized (this) {
+			if (ttl > 0)
+				entries.put(uri, entry);
+		}
+		return this;
+	}
+
+	/**
+	 * Remove all cached advertisements
+	 *
+	 * @return this cache
+	 */
+	public synchronized RemoteRefCache clear() {
+		entries.clear();
+		return this;
+	}
+
+	/**
+	 * Get number of advertisements currently cached
+	 *
+	 * @return count
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Get current number of cached advertisements and maximum size
+	 *
+	 * @return non-null map of gauge names to values
+	 */
+	public synchronized Map<String, Object> getGauges() {
+		Map<String, Object> gauges = new LinkedHashMap<String, Object>();
+		gauges.put("count", Integer.valueOf(entries.size()));
+		gauges.put("size", Integer.valueOf(size));
+		return gauges;
+	}
+
+	/**
+	 * Get number of lookups served from the cache
+	 *
+	 * @return hit count
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of lookups not served from the cache
+	 *
+	 * @return miss count
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when a remote is not contacted because repeated connection
+ * failures have opened its circuit in a {@link RemoteCircuitBreaker}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemoteUnavailableException extends IOException {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 4379420786517304418L;
+
+	private final String remote;
+
+	/**
+	 * Create remote unavailable exception
+	 *
+	 * @param remote
+	 * @param failures
+	 *            number of consecutive failures
+	 * @param cause
+	 *            last failure, may be null
+	 */
+	public RemoteUnavailableException(String remote, int failures,
+			IOException cause) {
+		super("Remote " + remote + " unavailable after " + failures
+				+ " consecutive failures"
+				+ (cause != null ? ": " + cause.getMessage() : ""));
+		if (cause != null)
+			initCause(cause);
+		this.remote = remote;
+	}
+
+	/**
+	 * Get remote that is unavailable
+	 *
+	 * @return remote URI
+	 */
+	public String getRemote() {
+		return remote;
+	}
+
+	/**
+	 * Find remote unavailable exception in the causes of the given failure
+	 *
+	 * @param failure
+	 * @return exception or null if the failure was not caused by an
+	 *         unavailable remote
+	 */
+	public static RemoteUnavailableException find(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause
+				.getCause()) {
+			if (cause instanceof RemoteUnavailableException)
+				return (RemoteUnavailableException) cause;
+			if (cause.getCause() == cause)
+				break;
+		}
+		return null;
+	}
+}
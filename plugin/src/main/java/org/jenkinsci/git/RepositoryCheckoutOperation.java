@@ -28,27 +28,48 @@ import hudson.remoting.VirtualChannel;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.RefUpdate.Result;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.gitective.core.CommitUtils;
 import org.gitective.core.service.CommitFinder;
+import org.jenkinsci.git.CheckoutTimings.Phase;
+import org.jenkinsci.git.CheckoutTimings.RepositoryTimings;
 import org.jenkinsci.git.log.Commit;
+import org.jenkinsci.git.log.CommitCollectorFilter;
 import org.jenkinsci.git.log.CommitLogWriter;
-import org.jenkinsci.git.log.CommitLogWriterFilter;
 
 /**
- * Operation that checks out a collection of {@link BuildRepository} instances.
+ * Operation that checks out a collection of {@link BuildRepository} instances
+ * and returns a {@link CheckoutResult} with the {@link BuildRepositoryState}
+ * of the checked out commits.
  *
  * @author Kevin Sawicki (kevin@github.com)
  */
 public class RepositoryCheckoutOperation extends TaskListenerOperation
-		implements FileCallable<Boolean> {
+		implements FileCallable<CheckoutResult> {
 
 	/** serialVersionUID */
 	private static final long serialVersionUID = 8944211954428830644L;
@@ -57,6 +78,14 @@ public class RepositoryCheckoutOperation extends TaskListenerOperation
 
 	private final FilePath log;
 
+	private final int threads;
+
+	private OperationSettings settings = new OperationSettings();
+
+	private BuildRepositoryState expectedHeads;
+
+	private transient Set<String> sharedUris;
+
 	/**
 	 * Create repository checkout operation
 	 *
@@ -78,6 +107,23 @@ public class RepositoryCheckoutOperation extends TaskListenerOperation
 	public RepositoryCheckoutOperation(
 			Collection<BuildRepository> repositories, FilePath commitLog,
 			TaskListener listener) {
+		this(repositories, commitLog, listener, 1);
+	}
+
+	/**
+	 * Create repository checkout operation that checks out up to the given
+	 * number of repositories concurrently
+	 *
+	 * @param repositories
+	 * @param commitLog
+	 * @param listener
+	 * @param threads
+	 *            maximum number of repositories checked out at once, values
+	 *            less than 2 check out each repository serially
+	 */
+	public RepositoryCheckoutOperation(
+			Collection<BuildRepository> repositories, FilePath commitLog,
+			TaskListener listener, int threads) {
 		super(listener);
 		if (repositories == null)
 			throw new IllegalArgumentException("Repositories cannot be null");
@@ -85,57 +131,491 @@ public class RepositoryCheckoutOperation extends TaskListenerOperation
 			throw new IllegalArgumentException("Commit log cannot be null");
 		repos = repositories;
 		log = commitLog;
+		this.threads = threads;
+	}
+
+	/**
+	 * Set settings of this operation
+	 *
+	 * @param settings
+	 *            must be non-null
+	 * @return this operation
+	 */
+	public RepositoryCheckoutOperation setSettings(OperationSettings settings) {
+		if (settings == null)
+			throw new IllegalArgumentException("Settings cannot be null");
+		this.settings = settings;
+		return this;
+	}
+
+	/**
+	 * Set commits that repositories are expected to be at, such as the heads
+	 * seen when polling
+	 * <p>
+	 * Repositories whose expected commit already exists locally are checked
+	 * out at that commit without fetching.
+	 *
+	 * @param heads
+	 *            may be null
+	 * @return this operation
+	 */
+	public RepositoryCheckoutOperation setExpectedHeads(
+			BuildRepositoryState heads) {
+		expectedHeads = heads;
+		return this;
+	}
+
+	/**
+	 * Get commit that the repository is expected to be at
+	 *
+	 * @param repo
+	 * @return id or null if unknown
+	 */
+	protected ObjectId getExpected(BuildRepository repo) {
+		return expectedHeads != null ? expectedHeads.get(repo) : null;
+	}
+
+	/**
+	 * Get expected commit of the repository if it already exists in the local
+	 * object database
+	 *
+	 * @param repo
+	 * @param gitRepo
+	 * @return commit or null if unknown or missing
+	 * @throws IOException
+	 */
+	protected RevCommit getLocalExpected(BuildRepository repo,
+			Repository gitRepo) throws IOException {
+		ObjectId expected = getExpected(repo);
+		if (expected == null || !gitRepo.getObjectDatabase().has(expected))
+			return null;
+		RevWalk walk = new RevWalk(gitRepo);
+		try {
+			return walk.parseCommit(expected);
+		} catch (IncorrectObjectTypeException e) {
+			return null;
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Get mirror cache that the repository is fetched through
+	 *
+	 * @param repo
+	 * @return cache or null if the repository is fetched directly
+	 */
+	protected MirrorCache getMirrors(BuildRepository repo) {
+		if (settings.getMirrorDirectory() != null)
+			return MirrorCache.create(settings.getMirrorDirectory());
+		return null;
+	}
+
+	/**
+	 * Group mirrored repositories by remote URI
+	 *
+	 * @return map of URI to repositories in checkout order
+	 */
+	protected Map<String, List<BuildRepository>> groupByUri() {
+		Map<String, List<BuildRepository>> groups = new LinkedHashMap<String, List<BuildRepository>>();
+		for (BuildRepository repo : repos) {
+			List<BuildRepository> group = groups.get(repo.getUri());
+			if (group == null) {
+				group = new ArrayList<BuildRepository>();
+				groups.put(repo.getUri(), group);
+			}
+			group.add(repo);
+		}
+		return groups;
+	}
+
+	/**
+	 * Fetch the branches of all repositories sharing a remote URI into its
+	 * mirror using a single connection per remote
+	 * <p>
+	 * Each directory then only fetches locally from the mirror, which
+	 * transfers no objects since the mirror is one of its alternates. Nothing
+	 * is fetched ahead when the mirror cache is disabled.
+	 *
+	 * @param monitor
+	 * @throws IOException
+	 */
+	protected void fetchShared(StreamProgressMonitor monitor)
+			throws IOException {
+		sharedUris = new HashSet<String>();
+		if (settings.getMirrorDirectory() == null)
+			return;
+		for (Entry<String, List<BuildRepository>> group : groupByUri()
+				.entrySet()) {
+			if (group.getValue().size() < 2)
+				continue;
+			String uri = group.getKey();
+			sharedUris.add(uri);
+			MirrorCache mirrors = getMirrors(group.getValue().get(0));
+			Set<String> branches = new LinkedHashSet<String>();
+			for (BuildRepository repo : group.getValue()) {
+				ObjectId expected = getExpected(repo);
+				if (expected == null || !mirrors.contains(repo, expected))
+					branches.add(repo.getBranch());
+			}
+			if (branches.isEmpty())
+				continue;
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedIOException("Checkout interrupted");
+			long start = System.currentTimeMillis();
+			mirrors.update(uri, branches, monitor);
+			if (listener != null)
+				listener.getLogger().println(
+						"Fetched " + branches.size() + " branches of " + uri
+								+ " in one connection in "
+								+ (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * Fetch the branch of the repository, from its mirror if mirrored
+	 *
+	 * @param repo
+	 * @param gitRepo
+	 * @param monitor
+	 * @return fetched commit
+	 * @throws IOException
+	 */
+	protected RevCommit fetch(BuildRepository repo, Repository gitRepo,
+			StreamProgressMonitor monitor) throws IOException {
+		RevCommit local = getLocalExpected(repo, gitRepo);
+		if (local != null) {
+			if (listener != null)
+				listener.getLogger().println(
+						"Skipping fetch of " + repo + ", polled commit "
+								+ local.name() + " is available locally");
+			return local;
+		}
+		MirrorCache mirrors = getMirrors(repo);
+		if (mirrors != null)
+			repo = new BuildRepository(mirrors.getMirror(repo.getUri())
+					.toURI().toString(), repo.getBranch(), repo.getDirectory());
+		return new FetchOperation(repo, gitRepo, monitor).call();
+	}
+
+	/**
+	 * Create operation checking out the fetched commit
+	 *
+	 * @param gitRepo
+	 * @param fetched
+	 * @param current
+	 *            current commit, null if the repository was just created
+	 * @return tree checkout operation
+	 */
+	protected TreeCheckoutOperation createTreeCheckout(Repository gitRepo,
+			RevCommit fetched, RevCommit current) {
+		int writerThreads = settings.getWriterThreads();
+		if (current == null && writerThreads > 1)
+			return new ParallelTreeCheckoutOperation(gitRepo, fetched,
+					writerThreads);
+		return new TreeCheckoutOperation(gitRepo, fetched, current);
+	}
+
+	/**
+	 * Restore the working tree of an existing repository to its index
+	 *
+	 * @param repo
+	 * @param gitRepo
+	 * @throws IOException
+	 */
+	protected void clean(BuildRepository repo, Repository gitRepo)
+			throws IOException {
+		CleanOperation clean = new CleanOperation(gitRepo);
+		clean.call();
+		if (listener != null)
+			listener.getLogger().println(
+					"Deleted " + clean.getDeleted()
+							+ " untracked files and reset " + clean.getReset()
+							+ " in " + clean.getDuration() + " ms for " + repo);
 	}
 
-	public Boolean invoke(File file, VirtualChannel channel)
+	/**
+	 * Fetch and check out a single repository, collecting the commits between
+	 * the current and fetched commits
+	 *
+	 * @param repo
+	 * @param gitRepo
+	 * @param current
+	 *            current commit, null if the repository was just created
+	 * @param commits
+	 * @param monitor
+	 * @param timings
+	 * @return checked out commit or null if nothing was fetched
+	 * @throws IOException
+	 */
+	protected RevCommit checkout(BuildRepository repo, Repository gitRepo,
+			RevCommit current, CommitCollectorFilter commits,
+			StreamProgressMonitor monitor, RepositoryTimings timings)
+			throws IOException {
+		RevCommit fetched = fetch(repo, gitRepo, monitor);
+		timings.record(Phase.FETCH);
+		if (fetched == null)
+			return null;
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedIOException("Checkout of " + repo
+					+ " interrupted");
+
+		if (current != null)
+			new CommitFinder(gitRepo).setFilter(commits).findBetween(fetched,
+					current);
+		else
+			commits.add(new Commit(gitRepo, fetched));
+		timings.record(Phase.CHANGELOG);
+
+		TreeCheckoutOperation tree = createTreeCheckout(gitRepo, fetched,
+				current);
+		tree.call();
+		timings.record(Phase.CHECKOUT);
+		if (listener != null)
+			listener.getLogger().println(
+					"Wrote " + tree.getUpdated() + " files and removed "
+							+ tree.getRemoved() + " in " + tree.getDuration()
+							+ " ms for " + repo);
+		RefUpdate refUpdate = gitRepo.updateRef(Constants.HEAD, true);
+		refUpdate.setNewObjectId(fetched);
+		Result result = refUpdate.forceUpdate();
+		if (result == null)
+			throw new IOException("Null ref update result");
+		switch (result) {
+		case NEW:
+		case FORCED:
+		case FAST_FORWARD:
+		case NO_CHANGE:
+			// These are the acceptable results
+			break;
+		default:
+			throw new IOException(result.name());
+		}
+		timings.record(Phase.REF_UPDATE);
+		return fetched;
+	}
+
+	/**
+	 * Open or create, fetch and check out a single repository in the given
+	 * directory
+	 *
+	 * @param repo
+	 * @param file
+	 * @param channel
+	 * @param commits
+	 * @param monitor
+	 * @param timings
+	 * @return checked out commit or null if nothing was fetched
+	 * @throws IOException
+	 */
+	protected RevCommit checkout(BuildRepository repo, File file,
+			VirtualChannel channel, CommitCollectorFilter commits,
+			StreamProgressMonitor monitor, RepositoryTimings timings)
+			throws IOException {
+		// The mirror is updated before the repository is opened so that the
+		// open phase covers opening it along with its alternate
+		MirrorCache mirrors = getMirrors(repo);
+		File mirror = null;
+		if (mirrors != null) {
+			mirror = mirrors.getMirror(repo.getUri());
+			ObjectId expected = getExpected(repo);
+			// Shared remotes were already fetched before any checkout
+			boolean shared = sharedUris != null
+					&& sharedUris.contains(repo.getUri());
+			if (!shared
+					&& (expected == null || !mirrors.contains(repo, expected)))
+				mirrors.update(repo, monitor);
+			timings.record(Phase.FETCH);
+		}
+
+		Repository gitRepo = new FileRepositoryOperation(repo).invoke(file,
+				channel);
+		boolean created = gitRepo == null;
+		if (created)
+			gitRepo = new InitOperation(repo).invoke(file, channel);
+		try {
+			if (mirror != null && MirrorCache.addAlternate(gitRepo, mirror)) {
+				// Alternates are only read once by an open repository
+				RepositoryHandleCache.getShared().evict(gitRepo);
+				gitRepo.close();
+				gitRepo = null;
+				gitRepo = new FileRepositoryOperation(repo).invoke(file,
+						channel);
+				if (gitRepo == null)
+					throw new IOException("Unable to reopen repository "
+							+ repo);
+			}
+			RevCommit current = null;
+			if (!created)
+				current = CommitUtils.getLatest(gitRepo);
+			timings.record(Phase.OPEN);
+			if (!created && settings.isClean()) {
+				clean(repo, gitRepo);
+				timings.record(Phase.CLEAN);
+			}
+			return checkout(repo, gitRepo, current, commits, monitor, timings);
+		} finally {
+			if (gitRepo != null)
+				gitRepo.close();
+		}
+	}
+
+	/**
+	 * Check out up to the configured number of repositories concurrently,
+	 * writing the commits of each repository to the log in repository order
+	 * <p>
+	 * All started checkouts are waited on before a failure is thrown so that
+	 * no repository is still being written to once this method returns.
+	 *
+	 * @param file
+	 * @param channel
+	 * @param writer
+	 * @param timings
+	 * @return state of checked out commits or null if a repository fetched
+	 *         nothing
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected BuildRepositoryState checkoutParallel(final File file,
+			final VirtualChannel channel, CommitLogWriter writer,
+			CheckoutTimings timings) throws IOException, InterruptedException {
+		List<BuildRepository> ordered = new ArrayList<BuildRepository>(repos);
+		int count = ordered.size();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				threads, count));
+		try {
+			List<Future<RevCommit>> futures = new ArrayList<Future<RevCommit>>(
+					count);
+			List<CommitCollectorFilter> logs = new ArrayList<CommitCollectorFilter>(
+					count);
+			List<RepositoryTimings> repoTimings = new ArrayList<RepositoryTimings>(
+					count);
+			for (final BuildRepository repo : ordered) {
+				final CommitCollectorFilter commits = new CommitCollectorFilter();
+				logs.add(commits);
+				final RepositoryTimings repoTiming = new RepositoryTimings(
+						repo.toString());
+				repoTimings.add(repoTiming);
+				futures.add(executor.submit(new Callable<RevCommit>() {
+
+					public RevCommit call() throws Exception {
+						return checkout(repo, file, channel, commits, null,
+								repoTiming);
+					}
+				}));
+			}
+
+			BuildRepositoryState state = new BuildRepositoryState();
+			IOException failure = null;
+			for (int i = 0; i < count; i++) {
+				RevCommit fetched;
+				try {
+					fetched = getResult(futures.get(i));
+				} catch (IOException e) {
+					if (failure == null)
+						failure = e;
+					continue;
+				}
+				if (failure != null || state == null)
+					continue;
+				if (fetched == null) {
+					state = null;
+					continue;
+				}
+				logs.get(i).writeTo(writer);
+				state.put(ordered.get(i), fetched);
+				timings.add(repoTimings.get(i));
+				if (listener != null) {
+					listener.getLogger().println(
+							"Checked out " + ordered.get(i) + " at "
+									+ fetched.name());
+					listener.getLogger().println(
+							"Checkout timings of " + repoTimings.get(i));
+				}
+			}
+			if (failure != null)
+				throw failure;
+			return state;
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			throw e;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Get result of completed checkout, re-throwing any failure
+	 *
+	 * @param future
+	 * @return checked out commit
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private RevCommit getResult(Future<RevCommit> future) throws IOException,
+			InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	public CheckoutResult invoke(File file, VirtualChannel channel)
 			throws IOException, InterruptedException {
+		settings.install();
 		CommitLogWriter writer = new CommitLogWriter(new OutputStreamWriter(
 				log.write()));
-		CommitLogWriterFilter filter = new CommitLogWriterFilter(writer);
-		StreamProgressMonitor monitor = null;
-		if (listener != null)
-			monitor = new StreamProgressMonitor(listener.getLogger());
+		CheckoutTimings timings = new CheckoutTimings();
 		try {
-			for (BuildRepository repo : repos) {
-				Repository gitRepo = new FileRepositoryOperation(repo).invoke(
-						file, channel);
-				RevCommit current = null;
-				if (gitRepo == null)
-					gitRepo = new InitOperation(repo).invoke(file, channel);
-				else
-					current = CommitUtils.getLatest(gitRepo);
+			StreamProgressMonitor monitor = null;
+			if (listener != null)
+				monitor = new StreamProgressMonitor(listener.getLogger());
+			fetchShared(monitor);
+			if (threads > 1 && repos.size() > 1) {
+				BuildRepositoryState state = checkoutParallel(file, channel,
+						writer, timings);
+				return state != null ? new CheckoutResult(state, timings)
+						: null;
+			}
 
-				RevCommit fetched = new FetchOperation(repo, gitRepo, monitor)
-						.call();
+			BuildRepositoryState state = new BuildRepositoryState();
+			for (BuildRepository repo : repos) {
+				if (Thread.interrupted())
+					throw new InterruptedException("Checkout interrupted");
+				CommitCollectorFilter commits = new CommitCollectorFilter();
+				RepositoryTimings repoTimings = new RepositoryTimings(
+						repo.toString());
+				RevCommit fetched = checkout(repo, file, channel, commits,
+						monitor, repoTimings);
 				if (fetched == null)
-					return false;
-
-				if (current != null)
-					new CommitFinder(gitRepo).setFilter(filter).findBetween(
-							fetched, current);
-				else
-					writer.write(new Commit(gitRepo, fetched));
-
-				new TreeCheckoutOperation(gitRepo, fetched).call();
-				RefUpdate refUpdate = gitRepo.updateRef(Constants.HEAD, true);
-				refUpdate.setNewObjectId(fetched);
-				Result result = refUpdate.forceUpdate();
-				if (result == null)
-					throw new IOException("Null ref update result");
-				switch (result) {
-				case NEW:
-				case FORCED:
-				case FAST_FORWARD:
-				case NO_CHANGE:
-					// These are the acceptable results
-					break;
-				default:
-					throw new IOException(result.name());
+					return null;
+				commits.writeTo(writer);
+				state.put(repo, fetched);
+				timings.add(repoTimings);
+				if (listener != null) {
+					listener.getLogger().println(
+							"Checked out " + repo + " at " + fetched.name());
+					listener.getLogger().println(
+							"Checkout timings of " + repoTimings);
 				}
 			}
+			return new CheckoutResult(state, timings);
+		} catch (InterruptedIOException e) {
+			// Aborted builds must see an interruption rather than a failure
+			InterruptedException interrupted = new InterruptedException(
+					e.getMessage());
+			interrupted.initCause(e);
+			throw interrupted;
 		} finally {
 			writer.close();
 		}
-		return true;
 	}
 }
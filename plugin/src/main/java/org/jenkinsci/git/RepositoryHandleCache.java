@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+/**
+ * Size-bounded cache of open {@link Repository} handles keyed by git
+ * directory.
+ * <p>
+ * Every repository returned from {@link #open(FileRepositoryBuilder)} has had
+ * its use count incremented and must be released by the caller by calling
+ * {@link Repository#close()}. The cache holds one reference of its own that
+ * is released when the least recently used repository is evicted, so the
+ * underlying files are closed once the last user is done with them.
+ * <p>
+ * Cached repositories that are not opened for longer than the idle timeout
+ * are evicted in the background so their files do not stay open, and a
+ * cached repository is only reused while its git directory still has the
+ * configuration file it had when it was opened, so a repository deleted and
+ * created again in the same directory is opened anew.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RepositoryHandleCache {
+
+	/**
+	 * Default maximum number of cached repositories
+	 */
+	public static final int SIZE_DEFAULT = 64;
+
+	/**
+	 * Default milliseconds a cached repository may go unused before evicted
+	 */
+	public static final long IDLE_TIMEOUT_DEFAULT = 5 * 60 * 1000;
+
+	/**
+	 * Callable that returns the gauges of the shared cache of the JVM it is
+	 * called in
+	 */
+	public static class Gauges implements
+			Callable<Map<String, Object>, IOException> {
+
+		/** serialVersionUID */
+		private static final long serialVersionUID = 3521848069232414560L;
+
+		public Map<String, Object> call() throws IOException {
+			return getShared().getGauges();
+		}
+	}
+
+	private static final RepositoryHandleCache SHARED = new RepositoryHandleCache(
+			SIZE_DEFAULT);
+
+	/**
+	 * Get cache shared by all operations running in this JVM
+	 *
+	 * @return non-null cache
+	 */
+	public static RepositoryHandleCache getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Get identity of the repository in the git directory that changes when
+	 * the repository is deleted and created again
+	 *
+	 * @param gitDir
+	 * @return identity, 0 if the repository has no configuration file
+	 */
+	protected static long getIdentity(File gitDir) {
+		File config = new File(gitDir, Constants.CONFIG);
+		return config.lastModified() * 31 + config.length();
+	}
+
+	private static class Entry {
+
+		final Repository repo;
+
+		final long identity;
+
+		long used;
+
+		Entry(Repository repo, long identity) {
+			this.repo = repo;
+			this.identity = identity;
+			used = System.currentTimeMillis();
+		}
+	}
+
+	private final Map<File, Entry> entries = new LinkedHashMap<File, Entry>(
+			16, 0.75F, true);
+
+	private int size;
+
+	private long idleTimeout = IDLE_TIMEOUT_DEFAULT;
+
+	private ScheduledExecutorService expirer;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * Create cache
+	 *
+	 * @param size
+	 *            maximum number of cached repositories, values less than 1
+	 *            disable caching
+	 */
+	public RepositoryHandleCache(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Configure maximum number of cached repositories, closing the least
+	 * recently used repositories that no longer fit
+	 *
+	 * @param size
+	 *            values less than 1 disable caching
+	 * @return this cache
+	 */
+	public RepositoryHandleCache configure(int size) {
+		List<Repository> evicted;
+		synchronized (this) {
+			this.size = size;
+			evicted = trim();
+		}
+		close(evicted);
+		return this;
+	}
+
+	/**
+	 * Set milliseconds a cached repository may go unused before it is evicted
+	 *
+	 * @param timeout
+	 *            values less than 1 never evict idle repositories
+	 * @return this cache
+	 */
+	public synchronized RepositoryHandleCache setIdleTimeout(long timeout) {
+		idleTimeout = timeout;
+		if (expirer != null) {
+			expirer.shutdown();
+			expirer = null;
+		}
+		if (!entries.isEmpty())
+			scheduleExpiry();
+		return this;
+	}
+
+	private void scheduleExpiry() {
+		if (expirer != null || idleTimeout < 1)
+			return;
+		expirer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable,
+						"GitNG repository cache expiry");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1000, idleTimeout / 2);
+		expirer.scheduleWithFixedDelay(new Runnable() {
+
+			public void run() {
+				expire();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Close and remove cached repositories that were not opened within the
+	 * idle timeout
+	 *
+	 * @return number of repositories evicted
+	 */
+	public int expire() {
+		List<Repository> evicted = new ArrayList<Repository>();
+		synchronized (this) {
+			if (idleTimeout < 1)
+				return 0;
+			long oldest = System.currentTimeMillis() - idleTimeout;
+			for (Iterator<Entry> iter = entries.values().iterator(); iter
+					.hasNext();) {
+				Entry entry = iter.next();
+				if (entry.used > oldest)
+					continue;
+				iter.remove();
+				evicted.add(entry.repo);
+				evictions++;
+			}
+		}
+		close(evicted);
+		return evicted.size();
+	}
+
+	private List<Repository> trim() {
+		List<Repository> evicted = new ArrayList<Repository>();
+		while (entries.size() > Math.max(0, size)) {
+			File eldest = entries.keySet().iterator().next();
+			evicted.add(entries.remove(eldest).repo);
+			evictions++;
+		}
+		return evicted;
+	}
+
+	private void close(List<Repository> repos) {
+		for (Repository repo : repos)
+			repo.close();
+	}
+
+	/**
+	 * Is the cached repository still usable?
+	 *
+	 * @param repo
+	 * @param identity
+	 *            identity of the repository when it was cached
+	 * @return true if valid, false otherwise
+	 */
+	protected boolean isValid(Repository repo, long identity) {
+		File objects = new File(repo.getDirectory(), Constants.OBJECTS);
+		return objects.isDirectory()
+				&& getIdentity(repo.getDirectory()) == identity;
+	}
+
+	/**
+	 * Open repository configured by the given builder, reusing a cached
+	 * repository with the same git directory
+	 *
+	 * @param builder
+	 * @return repository that the caller must close
+	 * @throws IOException
+	 */
+	public Repository open(FileRepositoryBuilder builder) throws IOException {
+		builder.setup();
+		File key = builder.getGitDir().getAbsoluteFile();
+		List<Repository> evicted = new ArrayList<Repository>();
+		try {
+			synchronized (this) {
+				Entry cached = entries.get(key);
+				if (cached != null) {
+					if (isValid(cached.repo, cached.identity)) {
+						hits++;
+						cached.used = System.currentTimeMillis();
+						cached.repo.incrementOpen();
+						return cached.repo;
+					}
+					entries.remove(key);
+					evicted.add(cached.repo);
+				}
+				misses++;
+				Repository repo = builder.build();
+				if (size < 1)
+					return repo;
+				// The cache keeps the reference held by the new repository
+				repo.incrementOpen();
+				entries.put(key, new Entry(repo, getIdentity(key)));
+				evicted.addAll(trim());
+				scheduleExpiry();
+				return repo;
+			}
+		} finally {
+			close(evicted);
+		}
+	}
+
+	/**
+	 * Close and remove the cached repository with the same git directory as
+	 * the given repository
+	 * <p>
+	 * Callers that still have the repository open keep using it until they
+	 * close it.
+	 *
+	 * @param repo
+	 * @return this cache
+	 */
+	public RepositoryHandleCache evict(Repository repo) {
+		Entry evicted;
+		synchronized (this) {
+			evicted = entries.remove(repo.getDirectory().getAbsoluteFile());
+			if (evicted != null)
+				evictions++;
+		}
+		if (evicted != null)
+			evicted.repo.close();
+		return this;
+	}
+
+	/**
+	 * Close and remove all cached repositories
+	 *
+	 * @return this cache
+	 */
+	public RepositoryHandleCache clear() {
+		List<Repository> evicted;
+		synchronized (this) {
+			evicted = new ArrayList<Repository>(entries.size());
+			for (Entry entry : entries.values())
+				evicted.add(entry.repo);
+			entries.clear();
+		}
+		close(evicted);
+		return this;
+	}
+
+	/**
+	 * @return number of cached open repositories
+	 */
+	public synchronized int getOpen() {
+		return entries.size();
+	}
+
+	/**
+	 * @return maximum number of cached repositories
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of opens served from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of opens that built a new repository
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of repositories evicted from the cache
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Get gauges of this cache as map of values
+	 *
+	 * @return map
+	 */
+	public synchronized Map<String, Object> getGauges() {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("open", Integer.valueOf(entries.size()));
+		values.put("size", Integer.valueOf(size));
+		values.put("hits", Long.valueOf(hits));
+		values.put("misses", Long.valueOf(misses));
+		values.put("evictions", Long.valueOf(evictions));
+		return values;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.TopLevelItem;
+import hudson.slaves.WorkspaceList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jenkinsci.git.MaintenanceOperation.Result;
+
+/**
+ * Periodic work that runs a {@link MaintenanceOperation} on the workspaces of
+ * jobs using a {@link RepositoryManager} and on the scratch repositories used
+ * when polling without a workspace
+ * <p>
+ * The workspaces of top-level jobs are maintained on every online computer
+ * that has an idle executor so maintenance uses idle executor time. Each
+ * workspace is maintained while holding its workspace lease so builds never
+ * use it while its packs are replaced and its reflogs trimmed, workspaces
+ * whose lease is held are skipped until the next run.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+@Extension
+public class RepositoryMaintenance extends AsyncPeriodicWork {
+
+	private final Map<String, Long> lastRuns = new ConcurrentHashMap<String, Long>();
+
+	private volatile long cycle;
+
+	/**
+	 * Create repository maintenance work
+	 */
+	public RepositoryMaintenance() {
+		super("GitNG repository maintenance");
+	}
+
+	public long getRecurrencePeriod() {
+		return HOUR;
+	}
+
+	/**
+	 * Is the workspace of the project due for maintenance?
+	 *
+	 * @param project
+	 * @param interval
+	 *            milliseconds between runs
+	 * @param now
+	 * @return true if due, false otherwise
+	 */
+	protected boolean isDue(AbstractProject<?, ?> project, long interval,
+			long now) {
+		return isDue(project.getFullName(), interval, now);
+	}
+
+	/**
+	 * Is the named work due for maintenance?
+	 *
+	 * @param name
+	 * @param interval
+	 *            milliseconds between runs
+	 * @param now
+	 * @return true if due, false otherwise
+	 */
+	protected boolean isDue(String name, long interval, long now) {
+		Long lastRun = lastRuns.get(name);
+		return lastRun == null || now - lastRun.longValue() >= interval;
+	}
+
+	/**
+	 * Maintain the scratch repositories used when polling without a workspace
+	 *
+	 * @param dir
+	 * @param log
+	 * @throws IOException
+	 */
+	protected void maintainPolling(File dir, PrintStream log)
+			throws IOException {
+		List<Result> results = new MaintenanceOperation(
+				Collections.<BuildRepository> emptyList()).maintainAll(dir);
+		lastRuns.put(PollOperation.SCRATCH_DIRECTORY,
+				System.currentTimeMillis());
+		for (Result result : results)
+			log.println(result);
+	}
+
+	/**
+	 * Maintain the workspace of the project on the computer unless its lease
+	 * is held
+	 * <p>
+	 * Allocating a lease never blocks, a held workspace is allocated under a
+	 * different path which is released without being used.
+	 *
+	 * @param project
+	 * @param computer
+	 * @param workspace
+	 * @param log
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected void maintain(AbstractProject<?, ?> project, Computer computer,
+			FilePath workspace, PrintStream log) throws IOException,
+			InterruptedException {
+		WorkspaceList.Lease lease = computer.getWorkspaceList().allocate(
+				workspace);
+		if (!workspace.equals(lease.path)) {
+			lease.release();
+			log.println("Skipping busy workspace " + workspace + " of "
+					+ project.getFullName());
+			return;
+		}
+		try {
+			if (!workspace.exists())
+				return;
+			RepositoryManager manager = (RepositoryManager) project.getScm();
+			List<Result> results = workspace.act(new MaintenanceOperation(
+					manager.getRepositories()).setCycle(cycle));
+			for (Result result : results)
+				log.println(project.getFullName() + " " + result);
+		} finally {
+			lease.release();
+		}
+	}
+
+	/**
+	 * Maintain the workspaces of the project on all online computers with an
+	 * idle executor
+	 *
+	 * @param project
+	 * @param log
+	 * @throws InterruptedException
+	 */
+	protected void maintain(AbstractProject<?, ?> project, PrintStream log)
+			throws InterruptedException {
+		if (!(project instanceof TopLevelItem))
+			return;
+		for (Computer computer : Hudson.getInstance().getComputers()) {
+			Node node = computer.getNode();
+			if (node == null || computer.isOffline()
+					|| computer.countIdle() == 0)
+				continue;
+			FilePath workspace = node.getWorkspaceFor((TopLevelItem) project);
+			if (workspace == null)
+				continue;
+			try {
+				maintain(project, computer, workspace, log);
+			} catch (IOException e) {
+				log.println("Maintenance of " + project.getFullName() + " on "
+						+ computer.getDisplayName() + " failed: "
+						+ e.getMessage());
+			}
+		}
+		lastRuns.put(project.getFullName(), System.currentTimeMillis());
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected void execute(TaskListener listener) throws IOException,
+			InterruptedException {
+		Hudson hudson = Hudson.getInstance();
+		RepositoryManagerDescriptor descriptor = hudson
+				.getDescriptorByType(RepositoryManagerDescriptor.class);
+		if (descriptor == null || descriptor.getMaintenanceInterval() < 1)
+			return;
+		long interval = descriptor.getMaintenanceInterval() * HOUR;
+		// Mirrors shared by several jobs are only maintained once per run
+		cycle = System.currentTimeMillis();
+		PrintStream log = listener.getLogger();
+		for (AbstractProject project : hudson
+				.getAllItems(AbstractProject.class)) {
+			if (!(project.getScm() instanceof RepositoryManager))
+				continue;
+			if (!isDue(project, interval, System.currentTimeMillis()))
+				continue;
+			maintain(project, log);
+		}
+
+		if (isDue(PollOperation.SCRATCH_DIRECTORY, interval,
+				System.currentTimeMillis()))
+			try {
+				maintainPolling(new File(hudson.getRootDir(),
+						PollOperation.SCRATCH_DIRECTORY), log);
+			} catch (IOException e) {
+				e.printStackTrace(listener.error("Maintenance of polling"
+						+ " repositories failed"));
+			}
+	}
+}
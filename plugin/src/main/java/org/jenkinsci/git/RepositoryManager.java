@@ -27,16 +27,22 @@ import hudson.model.BuildListener;
 import hudson.model.TaskListener;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Hudson;
 import hudson.scm.ChangeLogParser;
 import hudson.scm.PollingResult;
 import hudson.scm.SCMRevisionState;
 import hudson.scm.SCM;
+import hudson.triggers.SCMTrigger.SCMTriggerCause;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
 
+import org.jenkinsci.git.PollMetrics.Outcome;
 import org.jenkinsci.git.log.CommitLogReader;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.export.Exported;
@@ -48,8 +54,21 @@ import org.kohsuke.stapler.export.Exported;
  */
 public class RepositoryManager extends SCM {
 
+	private static final Logger LOGGER = Logger
+			.getLogger(RepositoryManager.class.getName());
+
 	private final List<BuildRepository> repos;
 
+	private int pollThreads = 1;
+
+	private boolean pollWithoutWorkspace;
+
+	private int checkoutThreads = 1;
+
+	private int writerThreads = 1;
+
+	private boolean clean;
+
 	/**
 	 * Create repository manager with given build repositories
 	 *
@@ -63,9 +82,76 @@ public class RepositoryManager extends SCM {
 			repos = Collections.emptyList();
 	}
 
+	/**
+	 * Set maximum number of repositories polled concurrently
+	 *
+	 * @param threads
+	 *            values less than 2 poll serially
+	 * @return this manager
+	 */
+	public RepositoryManager setPollThreads(int threads) {
+		pollThreads = threads;
+		return this;
+	}
+
+	/**
+	 * Set whether polling is done on the controller without a workspace
+	 *
+	 * @param pollWithoutWorkspace
+	 * @return this manager
+	 */
+	public RepositoryManager setPollWithoutWorkspace(
+			boolean pollWithoutWorkspace) {
+		this.pollWithoutWorkspace = pollWithoutWorkspace;
+		return this;
+	}
+
+	/**
+	 * Set maximum number of repositories checked out concurrently
+	 *
+	 * @param threads
+	 *            values less than 2 check out serially
+	 * @return this manager
+	 */
+	public RepositoryManager setCheckoutThreads(int threads) {
+		checkoutThreads = threads;
+		return this;
+	}
+
+	/**
+	 * Set number of threads writing files when checking out into a fresh
+	 * workspace
+	 *
+	 * @param threads
+	 *            values less than 2 write files serially
+	 * @return this manager
+	 */
+	public RepositoryManager setWriterThreads(int threads) {
+		writerThreads = threads;
+		return this;
+	}
+
+	/**
+	 * Set whether untracked files are deleted and modified files reset before
+	 * each checkout
+	 *
+	 * @param clean
+	 * @return this manager
+	 */
+	public RepositoryManager setClean(boolean clean) {
+		this.clean = clean;
+		return this;
+	}
+
 	public SCMRevisionState calcRevisionsFromBuild(AbstractBuild<?, ?> build,
 			Launcher launcher, TaskListener listener) throws IOException,
 			InterruptedException {
+		BuildRepositoryState state = build
+				.getAction(BuildRepositoryState.class);
+		if (state != null)
+			return state;
+
+		// Builds checked out before the state was recorded during checkout
 		FilePath workspace = build.getWorkspace();
 		if (workspace == null || !workspace.exists())
 			return SCMRevisionState.NONE;
@@ -81,15 +167,110 @@ public class RepositoryManager extends SCM {
 			return PollingResult.BUILD_NOW;
 
 		BuildRepositoryState state = (BuildRepositoryState) baseline;
-		return workspace.act(new PollOperation(state, repos));
+		RepositoryManagerDescriptor descriptor = getDescriptor();
+		BuildRepositoryState heads = RemoteHeadTable.getShared().getState(
+				repos, descriptor.getPushHeadMaxAge() * 1000);
+
+		String job = project.getFullName();
+		PollScheduler scheduler = PollScheduler.getShared();
+		List<BuildRepository> due = new ArrayList<BuildRepository>(
+				repos.size());
+		for (BuildRepository repo : repos)
+			if (heads.get(repo) != null || scheduler.isDue(job, repo))
+				due.add(repo);
+			else if (listener != null)
+				listener.getLogger().println(
+						"Skipping quiet repository " + repo);
+		if (due.isEmpty())
+			return PollingResult.NO_CHANGES;
+
+		PollOperation operation;
+		if (pollWithoutWorkspace)
+			operation = new RemotePollOperation(state, due, pollThreads);
+		else
+			operation = new PollOperation(state, due, pollThreads);
+		operation.setSettings(descriptor.getOperationSettings());
+		if (descriptor.getPolledHeadMaxAge() > 0)
+			operation.setJob(job);
+		if (!heads.isEmpty())
+			operation.setRemoteHeads(heads);
+		PollMetrics metrics = PollMetrics.getShared();
+		PollOutcome outcome;
+		try {
+			if (pollWithoutWorkspace)
+				outcome = operation.invoke(getPollDirectory(), null);
+			else
+				outcome = workspace.act(operation);
+		} catch (IOException e) {
+			metrics.recordOutcome(Outcome.ERROR);
+			// Failures on agents arrive wrapped by the remoting layer
+			RemoteUnavailableException unavailable = RemoteUnavailableException
+					.find(e);
+			if (unavailable != null) {
+				LOGGER.warning("Polling " + job + " failed: "
+						+ unavailable.getMessage());
+				if (listener != null)
+					listener.error("Polling failed: "
+							+ unavailable.getMessage());
+			}
+			throw e;
+		}
+		PollingResult result = outcome.getResult();
+		metrics.recordOutcome(Outcome.of(result));
+
+		// Repositories not polled since an earlier one decided the result
+		// stay due without changing their interval
+		if (scheduler.isEnabled())
+			for (Entry<BuildRepository, PollingResult> polled : outcome
+					.getRepositories().entrySet())
+				scheduler.record(job, polled.getKey(),
+						polled.getValue() != PollingResult.NO_CHANGES);
+		return result;
 	}
 
 	public boolean checkout(AbstractBuild<?, ?> build, Launcher launcher,
 			FilePath workspace, BuildListener listener, File changelogFile)
 			throws IOException, InterruptedException {
 		RepositoryCheckoutOperation operation = new RepositoryCheckoutOperation(
-				repos, new FilePath(changelogFile), listener);
-		return workspace.act(operation);
+				repos, new FilePath(changelogFile), listener, checkoutThreads);
+		RepositoryManagerDescriptor descriptor = getDescriptor();
+		operation.setSettings(descriptor.getOperationSettings()
+				.setWriterThreads(writerThreads).setClean(clean));
+		operation.setExpectedHeads(getPolledHeads(build,
+				descriptor.getPolledHeadMaxAge() * 1000));
+		CheckoutResult result = workspace.act(operation);
+		if (result == null)
+			return false;
+		build.addAction(result.getState());
+		CheckoutTimings timings = result.getTimings();
+		if (timings != null && !timings.isEmpty()) {
+			build.addAction(timings);
+			CheckoutMetrics.getShared().record(
+					build.getProject().getFullName(), build.getBuiltOnStr(),
+					timings);
+		}
+		return true;
+	}
+
+	/**
+	 * Get heads seen by the significant poll of the build's job that
+	 * triggered the build
+	 *
+	 * @param build
+	 * @param maxAge
+	 *            maximum age of polled heads in milliseconds
+	 * @return non-null but possibly empty state
+	 */
+	protected BuildRepositoryState getPolledHeads(AbstractBuild<?, ?> build,
+			long maxAge) {
+		// Only builds started by polling check out the polled heads
+		if (build.getCause(SCMTriggerCause.class) == null)
+			return new BuildRepositoryState();
+		RemoteHeadTable polled = RemoteHeadTable.takePolled(build
+				.getProject().getFullName());
+		if (polled == null)
+			return new BuildRepositoryState();
+		return polled.getState(repos, maxAge);
 	}
 
 	/**
@@ -103,11 +284,76 @@ public class RepositoryManager extends SCM {
 		return repos;
 	}
 
+	/**
+	 * Get directory on the controller used for polling without a workspace
+	 *
+	 * @return directory
+	 */
+	protected File getPollDirectory() {
+		return new File(Hudson.getInstance().getRootDir(),
+				PollOperation.SCRATCH_DIRECTORY);
+	}
+
+	/**
+	 * Is polling done on the controller without a workspace?
+	 *
+	 * @return true if polling without a workspace, false otherwise
+	 */
+	@Exported
+	public boolean isPollWithoutWorkspace() {
+		return pollWithoutWorkspace;
+	}
+
+	/**
+	 * Get maximum number of repositories polled concurrently
+	 *
+	 * @return poll thread count, values less than 2 poll serially
+	 */
+	@Exported
+	public int getPollThreads() {
+		return pollThreads;
+	}
+
+	/**
+	 * Get maximum number of repositories checked out concurrently
+	 *
+	 * @return checkout thread count, values less than 2 check out serially
+	 */
+	@Exported
+	public int getCheckoutThreads() {
+		return checkoutThreads;
+	}
+
+	/**
+	 * Get number of threads writing files when checking out into a fresh
+	 * workspace
+	 *
+	 * @return writer thread count, values less than 2 write files serially
+	 */
+	@Exported
+	public int getWriterThreads() {
+		return writerThreads;
+	}
+
+	/**
+	 * Are working trees cleaned before each checkout?
+	 *
+	 * @return true if cleaned, false otherwise
+	 */
+	@Exported
+	public boolean isClean() {
+		return clean;
+	}
+
 	public ChangeLogParser createChangeLogParser() {
 		return new CommitLogReader();
 	}
 
+	public RepositoryManagerDescriptor getDescriptor() {
+		return (RepositoryManagerDescriptor) super.getDescriptor();
+	}
+
 	public boolean requiresWorkspaceForPolling() {
-		return true;
+		return !pollWithoutWorkspace;
 	}
 }
@@ -22,9 +22,34 @@
 package org.jenkinsci.git;
 
 import hudson.Extension;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Descriptor.FormException;
+import hudson.remoting.Callable;
+import hudson.remoting.Future;
+import hudson.remoting.VirtualChannel;
+import hudson.scm.SCM;
 import hudson.scm.SCMDescriptor;
+import hudson.util.FormValidation;
 
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.git.PollMetrics.Outcome;
 import org.jenkinsci.git.browser.CommitBrowser;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 /**
  * Repository manager descriptor
@@ -33,14 +58,596 @@ import org.jenkinsci.git.browser.CommitBrowser;
 public class RepositoryManagerDescriptor extends
 		SCMDescriptor<RepositoryManager> {
 
+	/**
+	 * Default number of seconds a pushed head is used instead of listing the
+	 * remote, 0 ignores push notifications
+	 */
+	public static final long PUSH_HEAD_MAX_AGE_DEFAULT = 0;
+
+	/**
+	 * Default number of seconds the head seen by a significant poll is checked
+	 * out by the build it triggers without fetching when already available
+	 * locally, 0 always fetches
+	 */
+	public static final long POLLED_HEAD_MAX_AGE_DEFAULT = 0;
+
+	/**
+	 * Default number of seconds a remote listing may wait on the remote
+	 */
+	public static final int POLL_TIMEOUT_DEFAULT = 60;
+
+	/**
+	 * Default number of hours between maintenance of each workspace
+	 */
+	public static final int MAINTENANCE_INTERVAL_DEFAULT = 24;
+
+	/**
+	 * Number of milliseconds to wait for gauges of all computers
+	 */
+	public static final long GAUGES_TIMEOUT = 5000;
+
+	private static final int KB = 1024;
+
+	private static final int MB = 1024 * KB;
+
+	private int refCacheSize = RemoteRefCache.SIZE_DEFAULT;
+
+	private long refCacheTtl;
+
+	private long pushHeadMaxAge = PUSH_HEAD_MAX_AGE_DEFAULT;
+
+	private String pushToken;
+
+	private long polledHeadMaxAge = POLLED_HEAD_MAX_AGE_DEFAULT;
+
+	private long pollIntervalBase = PollScheduler.BASE_DEFAULT / 1000;
+
+	private long pollIntervalCeiling;
+
+	private int pollTimeout = POLL_TIMEOUT_DEFAULT;
+
+	private int breakerThreshold = RemoteCircuitBreaker.THRESHOLD_DEFAULT;
+
+	private long breakerProbeInterval = RemoteCircuitBreaker.PROBE_INTERVAL_DEFAULT / 1000;
+
+	private int repositoryCacheSize = RepositoryHandleCache.SIZE_DEFAULT;
+
+	private int packedGitLimit;
+
+	private int packedGitWindowSize;
+
+	private int deltaBaseCacheLimit;
+
+	private boolean packedGitMMAP;
+
+	private boolean packCacheOnAgents;
+
+	private boolean mirrorCache;
+
+	private String mirrorDirectory;
+
+	private int maintenanceInterval = MAINTENANCE_INTERVAL_DEFAULT;
+
 	/**
 	 * Create repository manager descriptor
 	 */
 	public RepositoryManagerDescriptor() {
 		super(RepositoryManager.class, CommitBrowser.class);
+		load();
+		RemoteRefCache.getShared().configure(refCacheSize, refCacheTtl * 1000);
+		PollScheduler.getShared().configure(pollIntervalBase * 1000,
+				pollIntervalCeiling * 1000);
+		RemoteCircuitBreaker.getShared().configure(breakerThreshold,
+				breakerProbeInterval * 1000);
+		RepositoryHandleCache.getShared().configure(repositoryCacheSize);
+		getPackCacheSettings().install();
 	}
 
 	public String getDisplayName() {
 		return "GitNG";
 	}
+
+	public boolean configure(StaplerRequest req, JSONObject json)
+			throws FormException {
+		int packedGitLimit = json.optInt("packedGitLimit", 0);
+		int packedGitWindowSize = json.optInt("packedGitWindowSize", 0);
+		int deltaBaseCacheLimit = json.optInt("deltaBaseCacheLimit", 0);
+		boolean packedGitMMAP = json.optBoolean("packedGitMMAP", false);
+		String packCacheError = createPackCacheSettings(packedGitLimit,
+				packedGitWindowSize, deltaBaseCacheLimit, packedGitMMAP)
+				.validate();
+		if (packCacheError != null)
+			throw new FormException(packCacheError, "packedGitWindowSize");
+
+		refCacheSize = json.optInt("refCacheSize", RemoteRefCache.SIZE_DEFAULT);
+		refCacheTtl = json.optLong("refCacheTtl", 0);
+		pushHeadMaxAge = json.optLong("pushHeadMaxAge",
+				PUSH_HEAD_MAX_AGE_DEFAULT);
+		pushToken = Util.fixEmptyAndTrim(json.optString("pushToken", null));
+		polledHeadMaxAge = json.optLong("polledHeadMaxAge",
+				POLLED_HEAD_MAX_AGE_DEFAULT);
+		pollIntervalBase = json.optLong("pollIntervalBase",
+				PollScheduler.BASE_DEFAULT / 1000);
+		pollIntervalCeiling = json.optLong("pollIntervalCeiling", 0);
+		pollTimeout = json.optInt("pollTimeout", POLL_TIMEOUT_DEFAULT);
+		breakerThreshold = json.optInt("breakerThreshold",
+				RemoteCircuitBreaker.THRESHOLD_DEFAULT);
+		breakerProbeInterval = json.optLong("breakerProbeInterval",
+				RemoteCircuitBreaker.PROBE_INTERVAL_DEFAULT / 1000);
+		repositoryCacheSize = json.optInt("repositoryCacheSize",
+				RepositoryHandleCache.SIZE_DEFAULT);
+		this.packedGitLimit = packedGitLimit;
+		this.packedGitWindowSize = packedGitWindowSize;
+		this.deltaBaseCacheLimit = deltaBaseCacheLimit;
+		this.packedGitMMAP = packedGitMMAP;
+		packCacheOnAgents = json.optBoolean("packCacheOnAgents", false);
+		mirrorCache = json.optBoolean("mirrorCache", false);
+		mirrorDirectory = json.optString("mirrorDirectory", null);
+		maintenanceInterval = json.optInt("maintenanceInterval",
+				MAINTENANCE_INTERVAL_DEFAULT);
+		RemoteRefCache.getShared().configure(refCacheSize, refCacheTtl * 1000);
+		PollScheduler.getShared().configure(pollIntervalBase * 1000,
+				pollIntervalCeiling * 1000);
+		RemoteCircuitBreaker.getShared().configure(breakerThreshold,
+				breakerProbeInterval * 1000);
+		RepositoryHandleCache.getShared().configure(repositoryCacheSize);
+		getPackCacheSettings().install();
+		save();
+		return true;
+	}
+
+	public SCM newInstance(StaplerRequest req, JSONObject json)
+			throws FormException {
+		RepositoryManager manager = (RepositoryManager) super.newInstance(req,
+				json);
+		manager.setPollThreads(json.optInt("pollThreads", 1));
+		manager.setPollWithoutWorkspace(json.optBoolean(
+				"pollWithoutWorkspace", false));
+		manager.setCheckoutThreads(json.optInt("checkoutThreads", 1));
+		manager.setWriterThreads(json.optInt("writerThreads", 1));
+		manager.setClean(json.optBoolean("clean", false));
+		return manager;
+	}
+
+	/**
+	 * Get settings of poll and checkout operations from the global
+	 * configuration
+	 *
+	 * @return non-null settings
+	 */
+	public OperationSettings getOperationSettings() {
+		OperationSettings settings = new OperationSettings();
+		settings.setRefCache(refCacheSize, refCacheTtl * 1000);
+		settings.setTimeout(pollTimeout);
+		settings.setRepositoryCacheSize(repositoryCacheSize);
+		// The window cache is global to the JVM of each agent
+		if (packCacheOnAgents)
+			settings.setPackCache(getPackCacheSettings());
+		settings.setBreaker(breakerThreshold, breakerProbeInterval * 1000);
+		if (mirrorCache)
+			settings.setMirrorDirectory(Util.fixNull(mirrorDirectory));
+		return settings;
+	}
+
+	/**
+	 * Get maximum number of cached ref advertisements
+	 *
+	 * @return size
+	 */
+	public int getRefCacheSize() {
+		return refCacheSize;
+	}
+
+	/**
+	 * Get time-to-live of cached ref advertisements
+	 *
+	 * @return time-to-live in seconds
+	 */
+	public long getRefCacheTtl() {
+		return refCacheTtl;
+	}
+
+	/**
+	 * Get maximum age of pushed heads used instead of listing the remote
+	 *
+	 * @return maximum age in seconds
+	 */
+	public long getPushHeadMaxAge() {
+		return pushHeadMaxAge;
+	}
+
+	/**
+	 * Get token push notifications must present when not sent by a user with
+	 * the build permission
+	 *
+	 * @return token, null if only users with the build permission may notify
+	 */
+	public String getPushToken() {
+		return pushToken;
+	}
+
+	/**
+	 * Get maximum age of polled heads that are checked out without fetching
+	 * when already available locally
+	 *
+	 * @return maximum age in seconds
+	 */
+	public long getPolledHeadMaxAge() {
+		return polledHeadMaxAge;
+	}
+
+	/**
+	 * Get interval after the first poll of a repository that found no changes
+	 *
+	 * @return interval in seconds
+	 */
+	public long getPollIntervalBase() {
+		return pollIntervalBase;
+	}
+
+	/**
+	 * Get maximum interval between polls of a quiet repository
+	 *
+	 * @return interval in seconds, 0 if adaptive polling is disabled
+	 */
+	public long getPollIntervalCeiling() {
+		return pollIntervalCeiling;
+	}
+
+	/**
+	 * Get timeout of remote listings during polling
+	 *
+	 * @return timeout in seconds, 0 to wait indefinitely
+	 */
+	public int getPollTimeout() {
+		return pollTimeout;
+	}
+
+	/**
+	 * Get number of consecutive failures after which a remote host is
+	 * considered unavailable
+	 *
+	 * @return threshold, 0 if the circuit breaker is disabled
+	 */
+	public int getBreakerThreshold() {
+		return breakerThreshold;
+	}
+
+	/**
+	 * Get interval an unavailable remote host waits before letting a listing
+	 * through
+	 *
+	 * @return interval in seconds
+	 */
+	public long getBreakerProbeInterval() {
+		return breakerProbeInterval;
+	}
+
+	/**
+	 * Get maximum number of open repositories cached on each computer
+	 *
+	 * @return size, 0 if caching is disabled
+	 */
+	public int getRepositoryCacheSize() {
+		return repositoryCacheSize;
+	}
+
+	/**
+	 * Call gauges callable on each online computer
+	 * <p>
+	 * Computers are called concurrently and computers that do not answer
+	 * within {@link #GAUGES_TIMEOUT} milliseconds are skipped.
+	 *
+	 * @param gauges
+	 * @return map of computer names to gauges
+	 */
+	protected Map<String, Object> getComputerGauges(
+			Callable<Map<String, Object>, IOException> gauges) {
+		Map<String, Future<Map<String, Object>>> calls = new TreeMap<String, Future<Map<String, Object>>>();
+		for (Computer computer : Hudson.getInstance().getComputers()) {
+			VirtualChannel channel = computer.getChannel();
+			if (channel == null)
+				continue;
+			String name = computer.getName();
+			if (name.length() == 0)
+				name = "master";
+			try {
+				calls.put(name, channel.callAsync(gauges));
+			} catch (IOException ignored) {
+				// Skip computers that cannot be reached
+			}
+		}
+
+		Map<String, Object> values = new TreeMap<String, Object>();
+		long deadline = System.currentTimeMillis() + GAUGES_TIMEOUT;
+		for (Entry<String, Future<Map<String, Object>>> call : calls
+				.entrySet()) {
+			long remaining = Math.max(0,
+					deadline - System.currentTimeMillis());
+			try {
+				values.put(call.getKey(),
+						call.getValue().get(remaining, TimeUnit.MILLISECONDS));
+			} catch (ExecutionException ignored) {
+				// Skip computers that failed to compute gauges
+			} catch (TimeoutException ignored) {
+				// Skip computers that are too slow to answer
+				call.getValue().cancel(true);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Get gauges of the open repository cache of each online computer
+	 *
+	 * @return map of computer names to gauges
+	 */
+	public Map<String, Object> getRepositoryCacheGauges() {
+		return getComputerGauges(new RepositoryHandleCache.Gauges());
+	}
+
+	/**
+	 * Get gauges of the pack window cache of each online computer
+	 *
+	 * @return map of computer names to gauges
+	 */
+	public Map<String, Object> getPackCacheGauges() {
+		return getComputerGauges(new PackCacheSettings.Gauges());
+	}
+
+	/**
+	 * Get pack window cache limit
+	 *
+	 * @return limit in megabytes, 0 for the JGit default
+	 */
+	public int getPackedGitLimit() {
+		return packedGitLimit;
+	}
+
+	/**
+	 * Get pack window size
+	 *
+	 * @return size in kilobytes, 0 for the JGit default
+	 */
+	public int getPackedGitWindowSize() {
+		return packedGitWindowSize;
+	}
+
+	/**
+	 * Get delta base cache limit
+	 *
+	 * @return limit in megabytes, 0 for the JGit default
+	 */
+	public int getDeltaBaseCacheLimit() {
+		return deltaBaseCacheLimit;
+	}
+
+	/**
+	 * Are pack windows memory mapped?
+	 *
+	 * @return true if memory mapped, false otherwise
+	 */
+	public boolean isPackedGitMMAP() {
+		return packedGitMMAP;
+	}
+
+	/**
+	 * Are the pack window cache settings also installed on agents?
+	 *
+	 * @return true if installed on agents, false if only on the controller
+	 */
+	public boolean isPackCacheOnAgents() {
+		return packCacheOnAgents;
+	}
+
+	/**
+	 * Are repositories fetched through a mirror cache on each computer?
+	 *
+	 * @return true if mirrored, false otherwise
+	 */
+	public boolean isMirrorCache() {
+		return mirrorCache;
+	}
+
+	/**
+	 * Get directory of the mirror cache on each computer
+	 *
+	 * @return directory, null or empty for the default directory
+	 */
+	public String getMirrorDirectory() {
+		return mirrorDirectory;
+	}
+
+	/**
+	 * Get interval between maintenance of each workspace
+	 *
+	 * @return interval in hours, values less than 1 disable maintenance
+	 */
+	public int getMaintenanceInterval() {
+		return maintenanceInterval;
+	}
+
+	/**
+	 * Get pack window cache settings installed on the controller, and on each
+	 * agent before repositories are opened when enabled for agents
+	 *
+	 * @return non-null settings
+	 */
+	public PackCacheSettings getPackCacheSettings() {
+		return createPackCacheSettings(packedGitLimit, packedGitWindowSize,
+				deltaBaseCacheLimit, packedGitMMAP);
+	}
+
+	/**
+	 * Create pack window cache settings from configured values
+	 *
+	 * @param limit
+	 *            in megabytes
+	 * @param windowSize
+	 *            in kilobytes
+	 * @param deltaBaseCacheLimit
+	 *            in megabytes
+	 * @param mmap
+	 * @return non-null settings
+	 */
+	protected static PackCacheSettings createPackCacheSettings(int limit,
+			int windowSize, int deltaBaseCacheLimit, boolean mmap) {
+		long deltaBaseCacheBytes = Math.min(Integer.MAX_VALUE,
+				(long) deltaBaseCacheLimit * MB);
+		long windowBytes = Math.min(Integer.MAX_VALUE, (long) windowSize * KB);
+		return new PackCacheSettings((long) limit * MB, (int) windowBytes,
+				(int) deltaBaseCacheBytes, mmap);
+	}
+
+	/**
+	 * Check pack window cache limit and window size form values
+	 *
+	 * @param limit
+	 * @param windowSize
+	 * @return validation result
+	 */
+	protected FormValidation checkPackCache(String limit, String windowSize) {
+		int limitValue;
+		int windowSizeValue;
+		try {
+			limitValue = parseCount(limit);
+			windowSizeValue = parseCount(windowSize);
+		} catch (NumberFormatException e) {
+			return FormValidation.error("Must be a whole number");
+		}
+		String error = createPackCacheSettings(limitValue, windowSizeValue, 0,
+				false).validate();
+		return error != null ? FormValidation.error(error) : FormValidation
+				.ok();
+	}
+
+	private static int parseCount(String value) {
+		value = Util.fixEmptyAndTrim(value);
+		return value != null ? Integer.parseInt(value) : 0;
+	}
+
+	/**
+	 * Check pack window cache limit form value
+	 *
+	 * @param value
+	 * @param packedGitWindowSize
+	 * @return validation result
+	 */
+	public FormValidation doCheckPackedGitLimit(@QueryParameter String value,
+			@QueryParameter String packedGitWindowSize) {
+		return checkPackCache(value, packedGitWindowSize);
+	}
+
+	/**
+	 * Check pack window size form value
+	 *
+	 * @param value
+	 * @param packedGitLimit
+	 * @return validation result
+	 */
+	public FormValidation doCheckPackedGitWindowSize(
+			@QueryParameter String value,
+			@QueryParameter String packedGitLimit) {
+		return checkPackCache(packedGitLimit, value);
+	}
+
+	/**
+	 * Get remote hosts currently considered unavailable by each online
+	 * computer
+	 *
+	 * @return map of computer names to maps of unavailable hosts to their
+	 *         consecutive failures, computers without unavailable hosts are
+	 *         omitted
+	 */
+	public Map<String, Object> getUnavailableRemotes() {
+		Map<String, Object> remotes = getComputerGauges(new RemoteCircuitBreaker.Unavailable());
+		for (Iterator<Object> iter = remotes.values().iterator(); iter
+				.hasNext();)
+			if (((Map<?, ?>) iter.next()).isEmpty())
+				iter.remove();
+		return remotes;
+	}
+
+	/**
+	 * Get number of ls-remote calls served from the ref cache of any computer
+	 *
+	 * @return hit count
+	 */
+	public long getRefCacheHits() {
+		return getPollMetrics().getRefCacheHits();
+	}
+
+	/**
+	 * Get number of ls-remote calls that missed the ref cache of any computer
+	 *
+	 * @return miss count
+	 */
+	public long getRefCacheMisses() {
+		return getPollMetrics().getRefCacheMisses();
+	}
+
+	/**
+	 * Get gauges of the ref cache of each online computer
+	 *
+	 * @return map of computer names to gauges
+	 */
+	public Map<String, Object> getRefCacheGauges() {
+		return getComputerGauges(new RemoteRefCache.Gauges());
+	}
+
+	/**
+	 * Get polling metrics of this controller including those sent back from
+	 * agents
+	 *
+	 * @return non-null metrics
+	 */
+	public PollMetrics getPollMetrics() {
+		return PollMetrics.getShared();
+	}
+
+	/**
+	 * Get checkout phase durations per job and per computer
+	 *
+	 * @return non-null metrics
+	 */
+	public CheckoutMetrics getCheckoutMetrics() {
+		return CheckoutMetrics.getShared();
+	}
+
+	/**
+	 * Get number of polls with the given outcome
+	 *
+	 * @param outcome
+	 *            name of {@link Outcome}
+	 * @return count
+	 */
+	public long getPollCount(String outcome) {
+		return getPollMetrics().getOutcome(Outcome.valueOf(outcome));
+	}
+
+	/**
+	 * Write polling, cache and checkout metrics as JSON
+	 *
+	 * @param req
+	 * @param rsp
+	 * @throws IOException
+	 */
+	public void doMetrics(StaplerRequest req, StaplerResponse rsp)
+			throws IOException {
+		Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+		Map<String, Object> values = getPollMetrics().toMap();
+		Map<String, Object> cache = new LinkedHashMap<String, Object>();
+		cache.put("hits", Long.valueOf(getRefCacheHits()));
+		cache.put("misses", Long.valueOf(getRefCacheMisses()));
+		cache.put("computers", getRefCacheGauges());
+		values.put("refCache", cache);
+		values.put("repositoryCache", getRepositoryCacheGauges());
+		values.put("packCache", getPackCacheGauges());
+		values.put("checkout", getCheckoutMetrics().toMap());
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.getWriter().print(JSONObject.fromObject(values).toString(2));
+	}
 }
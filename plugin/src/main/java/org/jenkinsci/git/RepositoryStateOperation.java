@@ -64,7 +64,11 @@ public class RepositoryStateOperation implements FileCallable<SCMRevisionState>
 					channel);
 			if (gitRepo == null)
 				continue;
-			state.put(repo, CommitUtils.getLatest(gitRepo));
+			try {
+				state.put(repo, CommitUtils.getLatest(gitRepo));
+			} finally {
+				gitRepo.close();
+			}
 		}
 		return !state.isEmpty() ? state : SCMRevisionState.NONE;
 	}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Operation that resolves a bare {@link Repository} in a directory, creating
+ * it if it does not exist.
+ * <p>
+ * The repository is never checked out and is used as the local side of
+ * transports that only need to talk to a remote. Repositories are opened
+ * through the shared {@link RepositoryHandleCache} and must be closed by the
+ * caller.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class ScratchRepositoryOperation implements FileCallable<Repository> {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = -3045339006591717204L;
+
+	private static final Object LOCK = new Object();
+
+	public Repository invoke(File file, VirtualChannel channel)
+			throws IOException {
+		if (file == null)
+			throw new IllegalArgumentException("File cannot be null");
+		synchronized (LOCK) {
+			FileRepositoryBuilder builder = new FileRepositoryBuilder();
+			builder.setFS(FS.DETECTED);
+			builder.setGitDir(file);
+			builder.setBare();
+			Repository repo = RepositoryHandleCache.getShared().open(builder);
+			if (!repo.getObjectDatabase().exists())
+				repo.create(true);
+			return repo;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class that coalesces concurrent calls with the same key so that only the
+ * first call runs and all calls that arrive while it is in flight wait on and
+ * share its result.
+ * <p>
+ * Waiting calls do not share the failure of a call that was cancelled, such
+ * as a fetch of an aborted build, and instead retry with one of them running
+ * the call again.
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ * @param <V>
+ *            result type
+ */
+public class SingleFlight<V> {
+
+	private final ConcurrentMap<String, FutureTask<V>> calls = new ConcurrentHashMap<String, FutureTask<V>>();
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Execute callable unless a call with the same key is already in flight in
+	 * which case the result of that call is returned
+	 *
+	 * @param key
+	 *            must be non-null
+	 * @param callable
+	 *            must be non-null
+	 * @return result
+	 * @throws IOException
+	 */
+	public V execute(String key, final Callable<V, IOException> callable)
+			throws IOException {
+		if (key == null)
+			throw new IllegalArgumentException("Key cannot be null");
+		if (callable == null)
+			throw new IllegalArgumentException("Callable cannot be null");
+		FutureTask<V> task = new FutureTask<V>(
+				new java.util.concurrent.Callable<V>() {
+
+					public V call() throws IOException {
+						return callable.call();
+					}
+				});
+		for (;;) {
+			FutureTask<V> existing = calls.putIfAbsent(key, task);
+			if (existing == null)
+				break;
+			coalesced.incrementAndGet();
+			if (!isCancelled(existing))
+				return getResult(existing);
+		}
+		try {
+			task.run();
+		} finally {
+			calls.remove(key, task);
+		}
+		return getResult(task);
+	}
+
+	/**
+	 * Wait for task and check whether it failed because it was cancelled
+	 *
+	 * @param task
+	 * @return true if cancelled, false if completed or failed otherwise
+	 * @throws IOException
+	 */
+	private boolean isCancelled(FutureTask<V> task) throws IOException {
+		try {
+			task.get();
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException interrupted = new InterruptedIOException();
+			interrupted.initCause(e);
+			throw interrupted;
+		} catch (ExecutionException e) {
+			// Socket timeouts are failures of the remote, not cancellations
+			Throwable cause = e.getCause();
+			return cause instanceof InterruptedIOException
+					&& !(cause instanceof SocketTimeoutException);
+		}
+	}
+
+	/**
+	 * Get result of task, re-throwing any failure
+	 *
+	 * @param task
+	 * @return result
+	 * @throws IOException
+	 */
+	private V getResult(FutureTask<V> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException interrupted = new InterruptedIOException();
+			interrupted.initCause(e);
+			throw interrupted;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Get number of calls currently in flight
+	 *
+	 * @return count
+	 */
+	public int getInFlight() {
+		return calls.size();
+	}
+
+	/**
+	 * Get number of calls that waited on a call already in flight instead of
+	 * running
+	 *
+	 * @return count
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+}
@@ -23,15 +23,13 @@ package org.jenkinsci.git;
 
 import java.io.PrintStream;
 
-import org.eclipse.jgit.lib.ProgressMonitor;
-
 /**
  * Progress monitor that writes task information to a configured
  * {@link PrintStream}
  *
  * @author Kevin Sawicki (kevin@github.com)
  */
-public class StreamProgressMonitor implements ProgressMonitor {
+public class StreamProgressMonitor extends CancellableProgressMonitor {
 
 	/**
 	 * Done message
@@ -54,10 +52,6 @@ public class StreamProgressMonitor implements ProgressMonitor {
 		this.stream = stream;
 	}
 
-	public void start(int totalTasks) {
-		// Ignored
-	}
-
 	public void beginTask(String title, int totalWork) {
 		endTask();
 		stream.print(title);
@@ -69,18 +63,10 @@ public class StreamProgressMonitor implements ProgressMonitor {
 		done = false;
 	}
 
-	public void update(int completed) {
-		// Ignored
-	}
-
 	public void endTask() {
 		if (done)
 			return;
 		stream.println(DONE);
 		done = true;
 	}
-
-	public boolean isCancelled() {
-		return false;
-	}
 }
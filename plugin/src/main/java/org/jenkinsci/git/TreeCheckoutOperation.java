@@ -24,6 +24,7 @@ package org.jenkinsci.git;
 import hudson.remoting.Callable;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheCheckout;
@@ -42,9 +43,17 @@ public class TreeCheckoutOperation implements Callable<ObjectId, IOException> {
 	/** serialVersionUID */
 	private static final long serialVersionUID = 1247715173832080149L;
 
-	private final Repository repo;
+	protected final Repository repo;
 
-	private final RevCommit commit;
+	protected final RevCommit commit;
+
+	private final RevCommit head;
+
+	protected int updated;
+
+	protected int removed;
+
+	protected long duration;
 
 	/**
 	 * Create tree checkout operation
@@ -55,21 +64,84 @@ public class TreeCheckoutOperation implements Callable<ObjectId, IOException> {
 	 *            must be non-null
 	 */
 	public TreeCheckoutOperation(Repository repo, RevCommit commit) {
+		this(repo, commit, null);
+	}
+
+	/**
+	 * Create tree checkout operation that updates the working tree from the
+	 * given current commit
+	 * <p>
+	 * Only paths that differ between the current and target trees are written
+	 * instead of comparing the entire index against the target tree.
+	 *
+	 * @param repo
+	 *            must be non-null
+	 * @param commit
+	 *            must be non-null
+	 * @param head
+	 *            commit currently checked out, may be null
+	 */
+	public TreeCheckoutOperation(Repository repo, RevCommit commit,
+			RevCommit head) {
 		if (repo == null)
 			throw new IllegalArgumentException("Repo cannot be null");
 		if (commit == null)
 			throw new IllegalArgumentException("Commit cannot be null");
 		this.repo = repo;
 		this.commit = commit;
+		this.head = head;
+	}
+
+	/**
+	 * Get number of files written by the last checkout
+	 *
+	 * @return count
+	 */
+	public int getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * Get number of files removed by the last checkout
+	 *
+	 * @return count
+	 */
+	public int getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Get duration of the last checkout
+	 *
+	 * @return milliseconds
+	 */
+	public long getDuration() {
+		return duration;
 	}
 
 	public ObjectId call() throws IOException {
+		// The checkout itself can not be cancelled once started
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedIOException("Checkout interrupted");
+		long start = System.currentTimeMillis();
 		RevTree tree = commit.getTree();
 		DirCache dirCache = repo.lockDirCache();
-		DirCacheCheckout co = new DirCacheCheckout(repo, dirCache, tree);
-		co.setFailOnConflict(false);
-		if (!co.checkout())
-			throw new IOException("Checkout failed");
+		DirCacheCheckout co;
+		try {
+			if (head != null)
+				co = new DirCacheCheckout(repo, head.getTree(), dirCache, tree);
+			else
+				co = new DirCacheCheckout(repo, dirCache, tree);
+			co.setFailOnConflict(false);
+			if (!co.checkout())
+				throw new IOException("Checkout failed");
+		} finally {
+			// Releases the index lock if the checkout failed before writing it
+			dirCache.unlock();
+		}
+		updated = co.getUpdated().size();
+		removed = co.getRemoved().size();
+		duration = System.currentTimeMillis() - start;
 		return tree;
 	}
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git.log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.gitective.core.filter.commit.CommitFilter;
+
+/**
+ * Filter that collects all commits visited as {@link Commit} objects so they
+ * can be written to a {@link CommitLogWriter} later
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CommitCollectorFilter extends CommitFilter {
+
+	private final List<Commit> commits;
+
+	/**
+	 * Create commit collector filter
+	 */
+	public CommitCollectorFilter() {
+		this(new ArrayList<Commit>());
+	}
+
+	private CommitCollectorFilter(List<Commit> commits) {
+		this.commits = commits;
+	}
+
+	public boolean include(RevWalk walker, RevCommit commit) throws IOException {
+		commits.add(new Commit(repository, commit));
+		return true;
+	}
+
+	/**
+	 * Add commit
+	 *
+	 * @param commit
+	 * @return this filter
+	 */
+	public CommitCollectorFilter add(Commit commit) {
+		commits.add(commit);
+		return this;
+	}
+
+	/**
+	 * Get commits collected
+	 *
+	 * @return non-null but possibly empty list of commits
+	 */
+	public List<Commit> getCommits() {
+		return Collections.unmodifiableList(commits);
+	}
+
+	/**
+	 * Write all commits collected
+	 *
+	 * @param writer
+	 * @return this filter
+	 * @throws IOException
+	 */
+	public CommitCollectorFilter writeTo(CommitLogWriter writer)
+			throws IOException {
+		for (Commit commit : commits)
+			writer.write(commit);
+		return this;
+	}
+
+	public RevFilter clone() {
+		return new CommitCollectorFilter(commits);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.jenkinsci.git.CheckoutMetrics.PhaseMetrics;
+import org.jenkinsci.git.CheckoutTimings.Phase;
+import org.jenkinsci.git.CheckoutTimings.RepositoryTimings;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link CheckoutMetrics}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CheckoutMetricsTest extends Assert {
+
+	/**
+	 * Test recording metrics per job and per computer
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void metrics() throws Exception {
+		RepositoryTimings repo = new RepositoryTimings("repo");
+		Thread.sleep(10);
+		repo.record(Phase.FETCH);
+		CheckoutMetrics metrics = new CheckoutMetrics();
+		metrics.record("job1", "agent1", new CheckoutTimings().add(repo));
+		metrics.record("job1", "", new CheckoutTimings().add(repo));
+
+		PhaseMetrics job = metrics.getJobMetrics("job1");
+		assertEquals(2, job.get(Phase.FETCH).getCount());
+		assertEquals(2 * repo.get(Phase.FETCH), job.get(Phase.FETCH)
+				.getSum());
+		assertEquals(2, job.getTotal().getCount());
+		assertEquals(1, metrics.getComputerMetrics("agent1")
+				.get(Phase.FETCH).getCount());
+		assertEquals(1, metrics.getComputerMetrics(null).get(Phase.FETCH)
+				.getCount());
+
+		Map<String, Object> values = metrics.toMap();
+		Map<String, Object> jobs = (Map<String, Object>) values.get("jobs");
+		assertTrue(jobs.containsKey("job1"));
+		Map<String, Object> computers = (Map<String, Object>) values
+				.get("computers");
+		assertTrue(computers.containsKey("agent1"));
+		assertTrue(computers.containsKey(CheckoutMetrics.CONTROLLER));
+	}
+
+	/**
+	 * Test phases that did not run are not recorded
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void skipUnrecordedPhases() throws Exception {
+		RepositoryTimings repo = new RepositoryTimings("repo");
+		repo.record(Phase.FETCH);
+		CheckoutMetrics metrics = new CheckoutMetrics();
+		metrics.record("job1", "", new CheckoutTimings().add(repo));
+		PhaseMetrics job = metrics.getJobMetrics("job1");
+		assertEquals(1, job.get(Phase.FETCH).getCount());
+		assertEquals(0, job.get(Phase.CLEAN).getCount());
+		assertEquals(1, job.getTotal().getCount());
+	}
+
+	/**
+	 * Test removing metrics of deleted and renamed jobs and removed computers
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void prune() throws Exception {
+		RepositoryTimings repo = new RepositoryTimings("repo");
+		repo.record(Phase.FETCH);
+		CheckoutMetrics metrics = new CheckoutMetrics();
+		metrics.record("job1", "agent1", new CheckoutTimings().add(repo));
+		metrics.record("job2", "", new CheckoutTimings().add(repo));
+		metrics.renameJob("job1", "job3").removeJob("job2");
+		metrics.retainComputers(Arrays.asList(""));
+
+		Map<String, Object> values = metrics.toMap();
+		Map<String, Object> jobs = (Map<String, Object>) values.get("jobs");
+		assertEquals(1, jobs.size());
+		assertTrue(jobs.containsKey("job3"));
+		Map<String, Object> computers = (Map<String, Object>) values
+				.get("computers");
+		assertEquals(1, computers.size());
+		assertTrue(computers.containsKey(CheckoutMetrics.CONTROLLER));
+	}
+}
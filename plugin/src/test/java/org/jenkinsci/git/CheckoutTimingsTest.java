@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import org.jenkinsci.git.CheckoutTimings.Phase;
+import org.jenkinsci.git.CheckoutTimings.RepositoryTimings;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link CheckoutTimings}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CheckoutTimingsTest extends Assert {
+
+	/**
+	 * Test recording phases adds the time elapsed since the previous phase
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void recordPhases() throws Exception {
+		RepositoryTimings timings = new RepositoryTimings("repo");
+		Thread.sleep(20);
+		timings.record(Phase.OPEN);
+		Thread.sleep(20);
+		timings.record(Phase.FETCH);
+		timings.record(Phase.OPEN);
+		assertEquals("repo", timings.getRepository());
+		assertTrue(timings.get(Phase.OPEN) >= 20);
+		assertTrue(timings.get("FETCH") >= 20);
+		assertEquals(0, timings.get(Phase.CHECKOUT));
+		assertTrue(timings.isRecorded(Phase.FETCH));
+		assertFalse(timings.isRecorded(Phase.CHECKOUT));
+		assertEquals(timings.get(Phase.OPEN) + timings.get(Phase.FETCH),
+				timings.getTotal());
+		assertTrue(timings.toString().startsWith("repo: open "));
+		assertFalse(timings.toString().contains("checkout"));
+	}
+
+	/**
+	 * Test timings action keeps repositories in order
+	 */
+	@Test
+	public void action() {
+		CheckoutTimings timings = new CheckoutTimings();
+		assertTrue(timings.isEmpty());
+		timings.add(new RepositoryTimings("a")).add(null)
+				.add(new RepositoryTimings("b"));
+		assertFalse(timings.isEmpty());
+		assertEquals(2, timings.getRepositories().size());
+		assertEquals("a", timings.getRepositories().get(0).getRepository());
+		assertEquals("b", timings.getRepositories().get(1).getRepository());
+		assertEquals(Phase.values().length, timings.getPhases().length);
+		assertNull(timings.getUrlName());
+		assertNotNull(timings.getDisplayName());
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link CleanOperation}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class CleanOperationTest extends GitTestCase {
+
+	private void write(File file, String content) throws Exception {
+		file.getParentFile().mkdirs();
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void assertContent(File file, String content) throws Exception {
+		FileReader reader = new FileReader(file);
+		try {
+			for (char c : content.toCharArray())
+				assertEquals(c, (char) reader.read());
+			assertEquals(-1, reader.read());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Create operation with null repository
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void nullRepository() {
+		new CleanOperation(null);
+	}
+
+	/**
+	 * Test deleting untracked files and resetting modified and missing files
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void clean() throws Exception {
+		git.add("file.txt", "a");
+		git.add("dir/file2.txt", "b");
+		git.add("dir/sub/file3.txt", "c");
+		Repository repo = git.repo();
+		File workTree = repo.getWorkTree();
+		write(new File(workTree, "file.txt"), "changed");
+		assertTrue(new File(workTree, "dir/file2.txt").delete());
+		write(new File(workTree, "untracked.txt"), "d");
+		write(new File(workTree, "dir/sub/untracked.txt"), "e");
+		write(new File(workTree, "out/classes/Main.class"), "f");
+		File nested = new File(workTree, "out/nested");
+		assertTrue(new File(nested, Constants.DOT_GIT).mkdirs());
+		write(new File(nested, "file.txt"), "g");
+
+		CleanOperation op = new CleanOperation(repo);
+		assertEquals(5, op.call().intValue());
+		assertEquals(3, op.getDeleted());
+		assertEquals(2, op.getReset());
+		assertContent(new File(workTree, "file.txt"), "a");
+		assertContent(new File(workTree, "dir/file2.txt"), "b");
+		assertContent(new File(workTree, "dir/sub/file3.txt"), "c");
+		assertFalse(new File(workTree, "untracked.txt").exists());
+		assertFalse(new File(workTree, "dir/sub/untracked.txt").exists());
+		assertFalse(new File(workTree, "out/classes").exists());
+		assertTrue(new File(nested, "file.txt").exists());
+
+		assertEquals(0, op.call().intValue());
+		assertEquals(3, repo.readDirCache().getEntryCount());
+	}
+}
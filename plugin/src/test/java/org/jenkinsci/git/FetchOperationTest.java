@@ -24,11 +24,22 @@ package org.jenkinsci.git;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.RefSpec;
+import org.gitective.core.CommitUtils;
 import org.junit.Test;
 
 /**
@@ -79,4 +90,207 @@ public class FetchOperationTest extends GitTestCase {
 		assertEquals(commit2, fetched);
 		assertTrue(out.toString().length() > 0);
 	}
+
+	/**
+	 * Test fetching stores the fetched commit in a remote-tracking ref
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void fetchUpdatesTrackingRef() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), Constants.R_HEADS + Constants.MASTER, null);
+		Repository fetching = git.repo(git.initRepo());
+		FetchOperation fetch = new FetchOperation(repo, fetching);
+		assertEquals("refs/remotes/origin/master", fetch.getTrackingRef());
+		assertEquals(commit1, fetch.call());
+		assertEquals(commit1, CommitUtils.getRef(fetching,
+				"refs/remotes/origin/master"));
+		RevCommit commit2 = git.add("file.txt", "b");
+		assertEquals(commit2, fetch.call());
+		assertEquals(commit2, CommitUtils.getRef(fetching,
+				"refs/remotes/origin/master"));
+	}
+
+	/**
+	 * Test concurrent fetches of the same branch into different repositories
+	 * only contact the remote once
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void fetchCoalesced() throws Exception {
+		RevCommit commit = git.add("file.txt", "a");
+		final String uri = git.repo().getDirectory().toURI().toString();
+		BuildRepository repo = new BuildRepository(uri,
+				BuildRepository.BRANCH_DEFAULT, null);
+		final List<String> fetched = new CopyOnWriteArrayList<String>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Repository first = git.repo(git.initRepo());
+		final FetchOperation leader = new FetchOperation(repo, first) {
+
+			protected void fetch(String from, RefSpec spec)
+					throws IOException {
+				fetched.add(from);
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				super.fetch(from, spec);
+			}
+		};
+		Repository second = git.repo(git.initRepo());
+		final FetchOperation follower = new FetchOperation(repo, second) {
+
+			protected void fetch(String from, RefSpec spec)
+					throws IOException {
+				fetched.add(from);
+				super.fetch(from, spec);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<RevCommit> leading = executor
+					.submit(new java.util.concurrent.Callable<RevCommit>() {
+
+						public RevCommit call() throws IOException {
+							return leader.call();
+						}
+					});
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			SingleFlight<File> flights = FetchOperation.getFlights();
+			long coalesced = flights.getCoalesced();
+			Future<RevCommit> following = executor
+					.submit(new java.util.concurrent.Callable<RevCommit>() {
+
+						public RevCommit call() throws IOException {
+							return follower.call();
+						}
+					});
+			for (int i = 0; i < 1000
+					&& flights.getCoalesced() == coalesced; i++)
+				Thread.sleep(10);
+			release.countDown();
+			assertEquals(commit, leading.get());
+			assertEquals(commit, following.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(2, fetched.size());
+		assertEquals(uri, fetched.get(0));
+		assertEquals(first.getDirectory().toURI().toString(), fetched.get(1));
+		assertEquals(commit, second.resolve("refs/remotes/origin/master"));
+	}
+
+	/**
+	 * Test fetching from an unreachable remote opens its circuit and then
+	 * fails fast
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void fetchUnavailable() throws Exception {
+		RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(1, 60000);
+		BuildRepository repo = new BuildRepository(
+				"http://localhost:1/unreachable.git",
+				BuildRepository.BRANCH_DEFAULT, null);
+		FetchOperation fetch = new FetchOperation(repo, git.repo(git
+				.initRepo())).setTimeout(5).setBreaker(breaker);
+		try {
+			fetch.call();
+			fail("Exception not thrown");
+		} catch (RemoteUnavailableException e) {
+			fail("Circuit open before first failure");
+		} catch (IOException e) {
+			assertNotNull(e);
+		}
+		assertTrue(breaker.isOpen(repo.getUri()));
+		try {
+			fetch.call();
+			fail("Exception not thrown");
+		} catch (RemoteUnavailableException e) {
+			assertEquals(repo.getUri(), e.getRemote());
+		}
+	}
+
+	/**
+	 * Test remote-tracking refs of refs outside of branches
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void trackingRefOfNonBranch() throws IOException {
+		FetchOperation fetch = new FetchOperation(new BuildRepository("a",
+				"refs/changes/01/1/1", null), git.repo());
+		assertEquals("refs/remotes/origin/changes/01/1/1",
+				fetch.getTrackingRef());
+	}
+
+	/**
+	 * Test cancelled fetch fails with an interruption and removes partially
+	 * received packs
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void fetchCancelled() throws Exception {
+		git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		Repository fetching = git.repo(git.initRepo());
+		StreamProgressMonitor monitor = new StreamProgressMonitor(
+				new PrintStream(new ByteArrayOutputStream()));
+		monitor.cancel();
+		try {
+			new FetchOperation(repo, fetching, monitor).call();
+			fail("Cancelled fetch did not fail");
+		} catch (InterruptedIOException e) {
+			assertNotNull(e.getCause());
+		}
+		String[] incoming = new File(fetching.getDirectory(),
+				Constants.OBJECTS).list();
+		for (String name : incoming)
+			assertFalse(name.startsWith(FetchOperation.INCOMING_PREFIX));
+		assertNull(fetching.resolve("refs/remotes/origin/master"));
+	}
+
+	/**
+	 * Test cleaning up temporary pack and lock files created by a fetch
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void cleanup() throws Exception {
+		Repository repo = git.repo();
+		File packs = new File(repo.getDirectory(), Constants.OBJECTS + "/pack");
+		packs.mkdirs();
+		File held = new File(repo.getDirectory(), Constants.FETCH_HEAD
+				+ ".lock");
+		assertTrue(held.createNewFile());
+		File old = new File(packs, FetchOperation.INCOMING_PREFIX + "0.pack");
+		assertTrue(old.createNewFile());
+		long start = System.currentTimeMillis();
+		assertTrue(old.setLastModified(start - 60000));
+		Set<File> existing = FetchOperation.getTemporaryFiles(repo,
+				Constants.FETCH_HEAD, "refs/remotes/origin/master");
+		assertEquals(2, existing.size());
+		existing.remove(old);
+
+		File pack = new File(packs, FetchOperation.INCOMING_PREFIX + "1.pack");
+		assertTrue(pack.createNewFile());
+		File lock = new File(repo.getDirectory(),
+				"refs/remotes/origin/master.lock");
+		lock.getParentFile().mkdirs();
+		assertTrue(lock.createNewFile());
+		assertEquals(2, FetchOperation.cleanup(repo, existing, start,
+				Constants.FETCH_HEAD, "refs/remotes/origin/master"));
+		assertFalse(pack.exists());
+		assertFalse(lock.exists());
+		assertTrue(held.exists());
+		assertTrue(old.exists());
+	}
 }
@@ -85,4 +85,31 @@ public class LsRemoteOperationTest extends GitTestCase {
 		RevCommit commit2 = git.add("file.txt", "b");
 		assertEquals(commit2, op.call());
 	}
+
+	/**
+	 * List remote using a cache of advertisements
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void listRemoteCached() throws Exception {
+		Repository gitRepo = git.repo();
+		BuildRepository repo = new BuildRepository(gitRepo.getDirectory()
+				.toURI().toString(), Constants.R_HEADS + Constants.MASTER, null);
+		RemoteRefCache cache = new RemoteRefCache(1, 60000);
+		PollMetrics metrics = new PollMetrics();
+		LsRemoteOperation op = new LsRemoteOperation(repo, gitRepo, cache)
+				.setMetrics(metrics);
+		RevCommit commit1 = git.add("file.txt", "a");
+		assertEquals(commit1, op.call());
+		git.add("file.txt", "b");
+		assertEquals(commit1, op.call());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, metrics.getRefCacheHits());
+		assertEquals(1, metrics.getRefCacheMisses());
+		assertEquals(Integer.valueOf(1), cache.getGauges().get("count"));
+		cache.clear();
+		assertFalse(commit1.equals(op.call()));
+	}
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link MaintenanceOperation}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class MaintenanceOperationTest extends GitTestCase {
+
+	private BuildRepository createRepo() throws Exception {
+		return new BuildRepository(git.repo().getDirectory().toURI()
+				.toString(), BuildRepository.BRANCH_DEFAULT, null);
+	}
+
+	/**
+	 * Create operation with null repositories
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void nullRepositories() {
+		new MaintenanceOperation(null);
+	}
+
+	/**
+	 * Test packing loose objects and consolidating packs across runs
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void repack() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		MaintenanceOperation op = new MaintenanceOperation(
+				Collections.singletonList(createRepo())).setPruneExpire(0);
+		List<MaintenanceOperation.Result> results = op.invoke(git.repo()
+				.getWorkTree(), null);
+		assertEquals(1, results.size());
+		MaintenanceOperation.Result result = results.get(0);
+		assertNotNull(result.toString());
+		assertTrue(result.isRepacked());
+		assertEquals(0, result.getPacksBefore());
+		assertEquals(1, result.getPacksAfter());
+		assertTrue(result.getLooseBefore() > 0);
+		assertEquals(0, result.getLooseAfter());
+
+		RevCommit commit2 = git.add("file.txt", "b");
+		result = op.invoke(git.repo().getWorkTree(), null).get(0);
+		assertTrue(result.isRepacked());
+		assertEquals(1, result.getPacksBefore());
+		assertEquals(1, result.getPacksAfter());
+		assertEquals(0, result.getLooseAfter());
+
+		Repository repo = new FileRepository(git.repo().getDirectory());
+		assertTrue(repo.getObjectDatabase().has(commit1));
+		assertTrue(repo.getObjectDatabase().has(commit2));
+		assertTrue(repo.getObjectDatabase().has(commit2.getTree()));
+
+		result = op.invoke(git.repo().getWorkTree(), null).get(0);
+		assertFalse(result.isRepacked());
+		assertEquals(1, result.getPacksAfter());
+	}
+
+	/**
+	 * Test pruning unreachable loose objects only once expired
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void pruneUnreachable() throws Exception {
+		git.add("file.txt", "a");
+		Repository repo = git.repo();
+		ObjectInserter inserter = repo.newObjectInserter();
+		ObjectId blob;
+		try {
+			blob = inserter.insert(Constants.OBJ_BLOB,
+					Constants.encode("unreachable"));
+			inserter.flush();
+		} finally {
+			inserter.release();
+		}
+		MaintenanceOperation op = new MaintenanceOperation(
+				Collections.singletonList(createRepo()));
+		MaintenanceOperation.Result result = op.invoke(repo.getWorkTree(),
+				null).get(0);
+		assertEquals(result.getLooseBefore(), result.getLooseAfter());
+		assertTrue(new FileRepository(repo.getDirectory())
+				.getObjectDatabase().has(blob));
+
+		op.setPruneExpire(0);
+		result = op.invoke(repo.getWorkTree(), null).get(0);
+		assertEquals(0, result.getLooseAfter());
+		assertFalse(new FileRepository(repo.getDirectory())
+				.getObjectDatabase().has(blob));
+	}
+
+	/**
+	 * Test trimming reflogs to the limit
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void trimReflogs() throws Exception {
+		git.add("file.txt", "a");
+		git.add("file.txt", "b");
+		git.add("file.txt", "c");
+		MaintenanceOperation op = new MaintenanceOperation(
+				Collections.singletonList(createRepo())).setReflogLimit(1);
+		MaintenanceOperation.Result result = op.invoke(git.repo()
+				.getWorkTree(), null).get(0);
+		assertTrue(result.getReflogsTrimmed() > 0);
+		File log = new File(new File(git.repo().getDirectory(),
+				Constants.LOGS), Constants.HEAD);
+		assertEquals(1, new FileRepository(git.repo().getDirectory())
+				.getReflogReader(Constants.HEAD).getReverseEntries().size());
+		assertTrue(log.isFile());
+	}
+
+	/**
+	 * Test repositories with alternates only pack objects missing from the
+	 * mirror
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void repackAlternates() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		BuildRepository repo = createRepo();
+		MirrorCache cache = new MirrorCache(git.tempDirectory());
+		File mirror = cache.update(repo, null);
+		assertTrue(MirrorCache.addAlternate(git.repo(), mirror));
+		RevCommit commit2 = git.add("file.txt", "b");
+		List<MaintenanceOperation.Result> results = new MaintenanceOperation(
+				Collections.singletonList(repo)).setPruneExpire(0).invoke(
+				git.repo().getWorkTree(), null);
+		assertEquals(2, results.size());
+		assertEquals(mirror.getAbsolutePath(), results.get(0).getDirectory());
+		MaintenanceOperation.Result result = results.get(1);
+		assertTrue(result.isRepacked());
+		assertEquals(0, result.getLooseAfter());
+		Repository workspace = new FileRepository(git.repo().getDirectory());
+		assertTrue(workspace.getObjectDatabase().has(commit1));
+		assertTrue(workspace.getObjectDatabase().has(commit2));
+		Repository mirrorRepo = new FileRepository(mirror);
+		assertTrue(mirrorRepo.getObjectDatabase().has(commit1));
+		assertFalse(mirrorRepo.getObjectDatabase().has(commit2));
+	}
+
+	/**
+	 * Test mirrors are repacked once per cycle when reaching the pack
+	 * threshold
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void maintainMirror() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		BuildRepository repo = createRepo();
+		MirrorCache cache = new MirrorCache(git.tempDirectory());
+		File mirror = cache.update(repo, null);
+		RevCommit commit2 = git.add("file.txt", "b");
+		cache.update(repo, null);
+		int packs = new MaintenanceOperation(
+				Collections.<BuildRepository> emptyList()).getPacks(
+				new FileRepository(mirror)).size();
+		assertTrue(packs > 1);
+
+		MaintenanceOperation.Result result = new MaintenanceOperation(
+				Collections.<BuildRepository> emptyList())
+				.maintainMirror(mirror);
+		assertFalse(result.isRepacked());
+		assertEquals(packs, result.getPacksAfter());
+
+		MaintenanceOperation op = new MaintenanceOperation(
+				Collections.<BuildRepository> emptyList()).setCycle(1)
+				.setMirrorPackThreshold(2);
+		result = op.maintainMirror(mirror);
+		assertTrue(result.isRepacked());
+		assertEquals(packs, result.getPacksBefore());
+		assertEquals(1, result.getPacksAfter());
+		assertEquals(result.getLooseBefore(), result.getLooseAfter());
+		assertNull(op.maintainMirror(mirror));
+		Repository mirrorRepo = new FileRepository(mirror);
+		assertTrue(mirrorRepo.getObjectDatabase().has(commit1));
+		assertTrue(mirrorRepo.getObjectDatabase().has(commit2));
+		assertTrue(mirrorRepo.getObjectDatabase().has(commit1.getTree()));
+	}
+
+	/**
+	 * Test mirror packs holding objects no longer reachable are kept
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void keepUnreachableMirrorPacks() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		BuildRepository repo = createRepo();
+		MirrorCache cache = new MirrorCache(git.tempDirectory());
+		File mirror = cache.update(repo, null);
+		RevCommit commit2 = git.add("file.txt", "b");
+		cache.update(repo, null);
+		Repository mirrorRepo = new FileRepository(mirror);
+		RefUpdate update = mirrorRepo
+				.updateRef(BuildRepository.BRANCH_DEFAULT);
+		update.setNewObjectId(commit1);
+		update.setForceUpdate(true);
+		update.update();
+
+		MaintenanceOperation.Result result = new MaintenanceOperation(
+				Collections.<BuildRepository> emptyList())
+				.setMirrorPackThreshold(2).maintainMirror(mirror);
+		assertTrue(result.isRepacked());
+		assertTrue(result.getPacksAfter() > 1);
+		mirrorRepo = new FileRepository(mirror);
+		assertTrue(mirrorRepo.getObjectDatabase().has(commit1));
+		assertTrue(mirrorRepo.getObjectDatabase().has(commit2));
+	}
+
+	/**
+	 * Test repositories locked by polling are skipped
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void skipLocked() throws Exception {
+		git.add("file.txt", "a");
+		final ReentrantLock lock = MaintenanceOperation.getLock(git.repo()
+				.getDirectory());
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread holder = new Thread() {
+
+			public void run() {
+				lock.lock();
+				try {
+					locked.countDown();
+					done.await();
+				} catch (InterruptedException ignored) {
+					// Ignored
+				} finally {
+					lock.unlock();
+				}
+			}
+		};
+		holder.start();
+		locked.await();
+		try {
+			assertTrue(new MaintenanceOperation(
+					Collections.singletonList(createRepo())).invoke(
+					git.repo().getWorkTree(), null).isEmpty());
+		} finally {
+			done.countDown();
+			holder.join();
+		}
+		assertEquals(1, new MaintenanceOperation(
+				Collections.singletonList(createRepo())).invoke(
+				git.repo().getWorkTree(), null).size());
+	}
+
+	/**
+	 * Test missing repositories are skipped
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void missingRepository() throws Exception {
+		assertTrue(new MaintenanceOperation(
+				Collections.singletonList(createRepo())).invoke(
+				git.tempDirectory(), null).isEmpty());
+	}
+
+	/**
+	 * Test scratch repositories of polling are deleted once stale
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void deleteStaleScratch() throws Exception {
+		git.add("file.txt", "a");
+		File root = new File(git.repo().getDirectory(),
+				PollOperation.SCRATCH_DIRECTORY);
+		File scratch = new File(root, "repo.git");
+		new ScratchRepositoryOperation().invoke(scratch, null).close();
+		MaintenanceOperation op = new MaintenanceOperation(
+				Collections.<BuildRepository> emptyList());
+		assertEquals(0, op.deleteScratch(git.repo()));
+		assertTrue(scratch.isDirectory());
+		op.setPruneExpire(0);
+		assertTrue(scratch.setLastModified(System.currentTimeMillis() - 1000));
+		assertEquals(1, op.deleteScratch(git.repo()));
+		assertFalse(scratch.exists());
+	}
+
+	/**
+	 * Test maintaining every repository under a directory
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void maintainAll() throws Exception {
+		File dir = git.tempDirectory();
+		new ScratchRepositoryOperation().invoke(new File(dir, "a.git"), null)
+				.close();
+		assertTrue(new File(dir, "other").mkdirs());
+		List<MaintenanceOperation.Result> results = new MaintenanceOperation(
+				Collections.<BuildRepository> emptyList()).maintainAll(dir);
+		assertEquals(1, results.size());
+		assertTrue(new MaintenanceOperation(
+				Collections.<BuildRepository> emptyList()).maintainAll(
+				new File(dir, "missing")).isEmpty());
+	}
+}
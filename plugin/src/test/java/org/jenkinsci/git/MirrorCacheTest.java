@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.gitective.core.CommitUtils;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link MirrorCache}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class MirrorCacheTest extends GitTestCase {
+
+	/**
+	 * Create cache with null root
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void nullRoot() {
+		new MirrorCache(null);
+	}
+
+	/**
+	 * Test mirror directories of remote URIs
+	 */
+	@Test
+	public void mirrorDirectory() {
+		File root = git.tempDirectory();
+		MirrorCache cache = new MirrorCache(root);
+		File mirror = cache.getMirror("git://host/project/repo.git");
+		assertEquals(root, mirror.getParentFile());
+		assertTrue(mirror.getName().startsWith("repo-"));
+		assertTrue(mirror.getName().endsWith(Constants.DOT_GIT_EXT));
+		assertEquals(mirror, cache.getMirror("git://host/project/repo.git"));
+		assertFalse(mirror.equals(cache
+				.getMirror("git://host/other/repo.git")));
+	}
+
+	/**
+	 * Test creating the default cache
+	 */
+	@Test
+	public void defaultRoot() {
+		File home = new File(System.getProperty("user.home"));
+		assertEquals(new File(home, MirrorCache.ROOT_DEFAULT),
+				MirrorCache.create(null).getRoot());
+		assertEquals(new File(home, MirrorCache.ROOT_DEFAULT),
+				MirrorCache.create(" ").getRoot());
+	}
+
+	/**
+	 * Test updating a mirror creates it and fetches the branch
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void update() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		MirrorCache cache = new MirrorCache(git.tempDirectory());
+		assertFalse(cache.contains(repo, commit1));
+		File mirror = cache.update(repo, null);
+		assertEquals(cache.getMirror(repo.getUri()), mirror);
+		assertTrue(cache.contains(repo, commit1));
+		Repository mirrorRepo = new FileRepository(mirror);
+		assertTrue(mirrorRepo.isBare());
+		assertEquals(commit1, CommitUtils.getRef(mirrorRepo,
+				BuildRepository.BRANCH_DEFAULT));
+		RevCommit commit2 = git.add("file.txt", "b");
+		assertEquals(mirror, cache.update(repo, null));
+		assertEquals(commit2, CommitUtils.getRef(mirrorRepo,
+				BuildRepository.BRANCH_DEFAULT));
+		assertTrue(new File(cache.getRoot(), mirror.getName()
+				+ MirrorCache.LOCK_SUFFIX).exists());
+	}
+
+	/**
+	 * Test adding the mirror as an alternate only once
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void addAlternate() throws Exception {
+		RevCommit commit = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		MirrorCache cache = new MirrorCache(git.tempDirectory());
+		File mirror = cache.update(repo, null);
+		Repository workspace = git.repo(git.initRepo());
+		assertTrue(MirrorCache.addAlternate(workspace, mirror));
+		assertFalse(MirrorCache.addAlternate(workspace, mirror));
+		assertTrue(git.repo(workspace.getDirectory()).getObjectDatabase()
+				.has(commit));
+	}
+
+	/**
+	 * Test updating several branches of a remote at once
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void updateBranches() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		RefUpdate branch = git.repo().updateRef("refs/heads/other");
+		branch.setNewObjectId(commit1);
+		assertEquals(RefUpdate.Result.NEW, branch.update());
+		RevCommit commit2 = git.add("file.txt", "b");
+		String uri = git.repo().getDirectory().toURI().toString();
+		MirrorCache cache = new MirrorCache(git.tempDirectory());
+		File mirror = cache.update(uri, Arrays.asList(
+				BuildRepository.BRANCH_DEFAULT, "refs/heads/other"), null);
+		assertEquals(cache.getMirror(uri), mirror);
+		Repository mirrorRepo = new FileRepository(mirror);
+		assertEquals(commit2, CommitUtils.getRef(mirrorRepo,
+				BuildRepository.BRANCH_DEFAULT));
+		assertEquals(commit1, CommitUtils.getRef(mirrorRepo,
+				"refs/heads/other"));
+	}
+
+	/**
+	 * Test updating a missing branch fails without leaving refs behind
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void updateMissingBranch() throws Exception {
+		git.add("file.txt", "a");
+		String uri = git.repo().getDirectory().toURI().toString();
+		MirrorCache cache = new MirrorCache(git.tempDirectory());
+		try {
+			cache.update(uri, Arrays.asList(BuildRepository.BRANCH_DEFAULT,
+					"refs/heads/missing"), null);
+			fail("Update of missing branch did not fail");
+		} catch (IOException e) {
+			assertNotNull(e.getCause());
+		}
+		assertFalse(new File(cache.getMirror(uri), "refs/heads/missing.lock")
+				.exists());
+	}
+}
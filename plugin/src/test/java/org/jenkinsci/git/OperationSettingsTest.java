@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link OperationSettings}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class OperationSettingsTest {
+
+	/**
+	 * Test default settings
+	 */
+	@Test
+	public void defaults() {
+		OperationSettings settings = new OperationSettings();
+		assertNull(settings.getBreaker());
+		assertNull(settings.getRefCache());
+		assertNull(settings.getMirrorDirectory());
+		assertNull(settings.getPackCache());
+		assertEquals(1, settings.getWriterThreads());
+		assertEquals(0, settings.getTimeout());
+		assertEquals(RepositoryHandleCache.SIZE_DEFAULT,
+				settings.getRepositoryCacheSize());
+		assertFalse(settings.isClean());
+	}
+
+	/**
+	 * Test configuring settings
+	 */
+	@Test
+	public void configure() {
+		PackCacheSettings packCache = new PackCacheSettings(0, 0, 0, false);
+		OperationSettings settings = new OperationSettings()
+				.setTimeout(30).setRepositoryCacheSize(5)
+				.setPackCache(packCache).setMirrorDirectory("")
+				.setWriterThreads(4).setClean(true);
+		assertEquals("", settings.getMirrorDirectory());
+		assertSame(packCache, settings.getPackCache());
+		assertEquals(4, settings.getWriterThreads());
+		assertEquals(30, settings.getTimeout());
+		assertEquals(5, settings.getRepositoryCacheSize());
+		assertTrue(settings.isClean());
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link PackCacheSettings}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PackCacheSettingsTest extends Assert {
+
+	/**
+	 * Test unset values keep the JGit defaults
+	 */
+	@Test
+	public void defaults() {
+		WindowCacheConfig defaults = new WindowCacheConfig();
+		WindowCacheConfig config = new PackCacheSettings(0, 0, 0, false)
+				.toConfig();
+		assertEquals(defaults.getPackedGitLimit(), config.getPackedGitLimit());
+		assertEquals(defaults.getPackedGitWindowSize(),
+				config.getPackedGitWindowSize());
+		assertEquals(defaults.getDeltaBaseCacheLimit(),
+				config.getDeltaBaseCacheLimit());
+		assertFalse(config.isPackedGitMMAP());
+	}
+
+	/**
+	 * Test configured values
+	 */
+	@Test
+	public void configured() {
+		PackCacheSettings settings = new PackCacheSettings(256 * 1024 * 1024,
+				64 * 1024, 32 * 1024 * 1024, true);
+		WindowCacheConfig config = settings.toConfig();
+		assertEquals(256 * 1024 * 1024, config.getPackedGitLimit());
+		assertEquals(64 * 1024, config.getPackedGitWindowSize());
+		assertEquals(32 * 1024 * 1024, config.getDeltaBaseCacheLimit());
+		assertTrue(config.isPackedGitMMAP());
+		assertEquals(settings, new PackCacheSettings(256 * 1024 * 1024,
+				64 * 1024, 32 * 1024 * 1024, true));
+		assertFalse(settings.equals(new PackCacheSettings(0, 0, 0, true)));
+	}
+
+	/**
+	 * Test settings JGit would reject are found invalid and never installed
+	 */
+	@Test
+	public void invalid() {
+		assertNull(new PackCacheSettings(0, 0, 0, false).validate());
+		assertNull(new PackCacheSettings(64 * 1024 * 1024, 1024 * 1024, 0,
+				false).validate());
+		assertNotNull(new PackCacheSettings(0, 3 * 1024, 0, false).validate());
+		assertNotNull(new PackCacheSettings(0, 12 * 1024, 0, false)
+				.validate());
+		assertNotNull(new PackCacheSettings(1024 * 1024, 1024 * 1024, 0,
+				false).validate());
+		assertNotNull(new PackCacheSettings(0, 32 * 1024 * 1024, 0, false)
+				.validate());
+		PackCacheSettings original = PackCacheSettings.getInstalled();
+		try {
+			new PackCacheSettings(0, 12 * 1024, 0, false).install();
+			fail("Exception not thrown");
+		} catch (IllegalArgumentException e) {
+			assertEquals(original, PackCacheSettings.getInstalled());
+		}
+	}
+
+	/**
+	 * Test settings are only installed when changed
+	 */
+	@Test
+	public void install() {
+		PackCacheSettings original = PackCacheSettings.getInstalled();
+		PackCacheSettings settings = new PackCacheSettings(
+				32 * 1024 * 1024, 16 * 1024, 0, false);
+		try {
+			assertTrue(settings.install());
+			assertFalse(new PackCacheSettings(32 * 1024 * 1024, 16 * 1024, 0,
+					false).install());
+			assertEquals(settings, PackCacheSettings.getInstalled());
+			Map<String, Object> gauges = PackCacheSettings.getGauges();
+			assertEquals(Long.valueOf(32 * 1024 * 1024),
+					gauges.get("packedGitLimit"));
+		} finally {
+			original.install();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link ParallelTreeCheckoutOperation}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class ParallelTreeCheckoutOperationTest extends GitTestCase {
+
+	/**
+	 * Create commit of a synthetic tree directly in the object database
+	 *
+	 * @param repo
+	 * @param directories
+	 * @param files
+	 *            files per directory
+	 * @return commit
+	 * @throws Exception
+	 */
+	private RevCommit createTree(Repository repo, int directories, int files)
+			throws Exception {
+		ObjectInserter inserter = repo.newObjectInserter();
+		try {
+			DirCache index = DirCache.newInCore();
+			DirCacheBuilder builder = index.builder();
+			StringBuilder content = new StringBuilder();
+			for (int i = 0; i < 64; i++)
+				content.append("line ").append(i).append('\n');
+			for (int d = 0; d < directories; d++)
+				for (int f = 0; f < files; f++) {
+					String text = d + "/" + f + '\n' + content;
+					DirCacheEntry entry = new DirCacheEntry("dir" + d
+							+ "/file" + f + ".txt");
+					entry.setFileMode(FileMode.REGULAR_FILE);
+					entry.setObjectId(inserter.insert(Constants.OBJ_BLOB,
+							Constants.encode(text)));
+					builder.add(entry);
+				}
+			builder.finish();
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(index.writeTree(inserter));
+			commit.setAuthor(git.author);
+			commit.setCommitter(git.committer);
+			commit.setMessage("Synthetic tree");
+			ObjectId id = inserter.insert(commit);
+			inserter.flush();
+			return new RevWalk(repo).parseCommit(id);
+		} finally {
+			inserter.release();
+		}
+	}
+
+	/**
+	 * Test runtime failures of every worker fail the checkout instead of
+	 * blocking the walk on a full queue
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void workerRuntimeFailure() throws Exception {
+		Repository repo = git.repo(git.initRepo());
+		RevCommit commit = createTree(repo, 20, 100);
+		ParallelTreeCheckoutOperation op = new ParallelTreeCheckoutOperation(
+				repo, commit, 2) {
+
+			private static final long serialVersionUID = 1L;
+
+			protected void write(ObjectReader reader, File workTree,
+					DirCacheEntry entry) throws IOException {
+				throw new IllegalStateException("broken");
+			}
+		};
+		try {
+			op.call();
+			fail("Exception not thrown");
+		} catch (IllegalStateException e) {
+			assertEquals("broken", e.getMessage());
+		}
+		assertFalse(new File(repo.getDirectory(), "index.lock").exists());
+	}
+
+	/**
+	 * Test checking out nested files into an empty working tree
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void checkoutNestedFiles() throws Exception {
+		git.add("a/b/file1.txt", "a");
+		RevCommit commit = git.add("a/file2.txt", "b");
+		Repository repo = git.repo();
+		File dir = new File(repo.getWorkTree(), "a");
+		assertTrue(new File(dir, "b/file1.txt").delete());
+		assertTrue(new File(dir, "b").delete());
+		assertTrue(new File(dir, "file2.txt").delete());
+		assertTrue(dir.delete());
+		assertTrue(repo.getIndexFile().delete());
+		ParallelTreeCheckoutOperation op = new ParallelTreeCheckoutOperation(
+				repo, commit, 4);
+		assertEquals(commit.getTree(), op.call());
+		assertEquals(2, op.getUpdated());
+		assertEquals(0, op.getRemoved());
+		FileReader reader = new FileReader(new File(repo.getWorkTree(),
+				"a/b/file1.txt"));
+		assertEquals('a', (char) reader.read());
+		reader.close();
+		reader = new FileReader(new File(repo.getWorkTree(), "a/file2.txt"));
+		assertEquals('b', (char) reader.read());
+		reader.close();
+		DirCache index = repo.readDirCache();
+		assertEquals(2, index.getEntryCount());
+		assertNotNull(index.getEntry("a/b/file1.txt"));
+		assertNotNull(index.getEntry("a/file2.txt"));
+	}
+
+	/**
+	 * Benchmark checking out a large synthetic tree with the parallel and
+	 * serial operations and verify both produce the same index
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void benchmark() throws Exception {
+		Repository serialRepo = git.repo(git.initRepo());
+		Repository parallelRepo = git.repo(git.initRepo());
+		RevCommit serialCommit = createTree(serialRepo, 50, 100);
+		RevCommit parallelCommit = createTree(parallelRepo, 50, 100);
+		assertEquals(serialCommit.getTree(), parallelCommit.getTree());
+
+		TreeCheckoutOperation serial = new TreeCheckoutOperation(serialRepo,
+				serialCommit);
+		serial.call();
+		ParallelTreeCheckoutOperation parallel = new ParallelTreeCheckoutOperation(
+				parallelRepo, parallelCommit, 4);
+		parallel.call();
+
+		assertEquals(5000, parallel.getUpdated());
+		DirCache serialIndex = serialRepo.readDirCache();
+		DirCache parallelIndex = parallelRepo.readDirCache();
+		assertEquals(serialIndex.getEntryCount(),
+				parallelIndex.getEntryCount());
+		for (int i = 0; i < serialIndex.getEntryCount(); i++) {
+			DirCacheEntry expected = serialIndex.getEntry(i);
+			DirCacheEntry actual = parallelIndex.getEntry(i);
+			assertEquals(expected.getPathString(), actual.getPathString());
+			assertEquals(expected.getObjectId(), actual.getObjectId());
+			assertEquals(expected.getFileMode(), actual.getFileMode());
+			assertEquals(new File(serialRepo.getWorkTree(), expected
+					.getPathString()).length(), new File(parallelRepo
+					.getWorkTree(), actual.getPathString()).length());
+		}
+	}
+}
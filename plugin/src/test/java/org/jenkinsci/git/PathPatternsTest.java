@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link PathPatterns}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PathPatternsTest extends Assert {
+
+	/**
+	 * Test empty patterns
+	 */
+	@Test
+	public void empty() {
+		assertTrue(new PathPatterns(null).isEmpty());
+		assertTrue(new PathPatterns(" ,\n").isEmpty());
+		assertFalse(new PathPatterns(null).matches("a"));
+	}
+
+	/**
+	 * Test single segment wildcards
+	 */
+	@Test
+	public void singleSegment() {
+		PathPatterns patterns = new PathPatterns("*.txt, a/?.c");
+		assertTrue(patterns.matches("b.txt"));
+		assertFalse(patterns.matches("a/b.txt"));
+		assertTrue(patterns.matches("a/b.c"));
+		assertFalse(patterns.matches("a/bc.c"));
+	}
+
+	/**
+	 * Test multiple segment wildcards
+	 */
+	@Test
+	public void multipleSegments() {
+		PathPatterns patterns = new PathPatterns("**/*.md\nsrc/**\ndocs/");
+		assertTrue(patterns.matches("README.md"));
+		assertTrue(patterns.matches("a/b/README.md"));
+		assertTrue(patterns.matches("src/a/b.java"));
+		assertFalse(patterns.matches("srcs/a.java"));
+		assertTrue(patterns.matches("docs/a/b.html"));
+		assertFalse(patterns.matches("lib/a.jar"));
+	}
+
+	/**
+	 * Test repository includes and excludes
+	 */
+	@Test
+	public void repositoryPaths() {
+		BuildRepository all = new BuildRepository("a", "b", "c");
+		assertFalse(all.hasPathFilter());
+		assertTrue(all.isPathIncluded("any/path"));
+
+		BuildRepository filtered = new BuildRepository("a", "b", "c", "src/",
+				"**/*.md");
+		assertTrue(filtered.hasPathFilter());
+		assertTrue(filtered.isPathIncluded("src/a.java"));
+		assertFalse(filtered.isPathIncluded("src/a.md"));
+		assertFalse(filtered.isPathIncluded("lib/a.java"));
+		assertEquals(all, filtered);
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.scm.PollingResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.jenkinsci.git.PollMetrics.Histogram;
+import org.jenkinsci.git.PollMetrics.HostMetrics;
+import org.jenkinsci.git.PollMetrics.Outcome;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link PollMetrics}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PollMetricsTest extends GitTestCase {
+
+	/**
+	 * Test values are counted in the first bucket that bounds them
+	 */
+	@Test
+	public void histogramBuckets() {
+		Histogram histogram = new Histogram(new long[] { 10, 100 });
+		histogram.record(5).record(10).record(50).record(1000);
+		assertEquals(2, histogram.getBucket(0));
+		assertEquals(1, histogram.getBucket(1));
+		assertEquals(1, histogram.getBucket(2));
+		assertEquals(4, histogram.getCount());
+		assertEquals(1065, histogram.getSum());
+		assertEquals(1000, histogram.getMax());
+	}
+
+	/**
+	 * Test host of remote URIs
+	 */
+	@Test
+	public void hosts() {
+		assertEquals("github.com",
+				PollMetrics.getHost("https://github.com/a/b.git"));
+		assertEquals("github.com", PollMetrics.getHost("git@github.com:a/b"));
+		assertEquals(PollMetrics.LOCAL_HOST, PollMetrics.getHost("/tmp/repo"));
+		assertEquals(PollMetrics.LOCAL_HOST, PollMetrics.getHost(null));
+	}
+
+	/**
+	 * Test removing metrics of hosts no longer polled
+	 */
+	@Test
+	public void retainHosts() {
+		PollMetrics metrics = new PollMetrics();
+		metrics.recordListing("https://github.com/a/b.git", 10, 1, 0);
+		metrics.recordError("https://example.com/a/b.git", 10);
+		metrics.retainHosts(Collections.singleton("github.com"));
+		assertEquals(1, metrics.getHostMetrics("github.com").getLatency()
+				.getCount());
+		assertEquals(0, metrics.getHostMetrics("example.com").getErrors());
+	}
+
+	/**
+	 * Test outcomes of polling results
+	 */
+	@Test
+	public void outcomes() {
+		assertEquals(Outcome.NO_CHANGES, Outcome.of(PollingResult.NO_CHANGES));
+		assertEquals(Outcome.SIGNIFICANT,
+				Outcome.of(PollingResult.SIGNIFICANT));
+		assertEquals(Outcome.BUILD_NOW, Outcome.of(PollingResult.BUILD_NOW));
+		assertEquals(Outcome.ERROR, Outcome.of(null));
+	}
+
+	/**
+	 * Test merging metrics that went through serialization
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void mergeSerialized() throws Exception {
+		PollMetrics recorded = new PollMetrics();
+		recorded.recordListing("https://host/repo", 20, 3, 100);
+		recorded.recordError("https://host/repo", 5000);
+		recorded.recordOutcome(Outcome.SIGNIFICANT);
+		recorded.recordRefCache(true);
+		recorded.recordRefCache(false);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(recorded);
+		out.close();
+		PollMetrics received = (PollMetrics) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+		PollMetrics metrics = new PollMetrics();
+		assertTrue(metrics.isEmpty());
+		metrics.merge(received).merge(received);
+		assertFalse(metrics.isEmpty());
+		assertEquals(2, metrics.getOutcome(Outcome.SIGNIFICANT));
+		assertEquals(2, metrics.getRefCacheHits());
+		assertEquals(2, metrics.getRefCacheMisses());
+		HostMetrics host = metrics.getHostMetrics("host");
+		assertEquals(4, host.getLatency().getCount());
+		assertEquals(5000, host.getLatency().getMax());
+		assertEquals(2, host.getErrors());
+		assertEquals(6, host.getRefs());
+		assertEquals(200, host.getBytes());
+		Map<String, Object> values = metrics.toMap();
+		assertTrue(((Map<?, ?>) values.get("hosts")).containsKey("host"));
+	}
+
+	/**
+	 * Test poll operation without a channel publishes its listings to the
+	 * shared metrics
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void pollPublishesListing() throws Exception {
+		RevCommit commit = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		BuildRepositoryState state = new BuildRepositoryState();
+		state.put(repo, commit);
+		HostMetrics host = PollMetrics.getShared().getHostMetrics(
+				PollMetrics.LOCAL_HOST);
+		long before = host.getLatency().getCount();
+		RemotePollOperation op = new RemotePollOperation(state,
+				Collections.singletonList(repo));
+		File dir = new File(git.tempDirectory(), "poll");
+		assertEquals(PollingResult.NO_CHANGES, op.invoke(dir, null).getResult());
+		assertEquals(before + 1, host.getLatency().getCount());
+		assertTrue(host.getRefs() > 0);
+	}
+}
@@ -24,8 +24,14 @@ package org.jenkinsci.git;
 import hudson.scm.PollingResult;
 
 import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.jenkinsci.git.BuildRepository;
@@ -65,7 +71,7 @@ public class PollOperationTest extends GitTestCase {
 	public void emptyRepos() throws Exception {
 		PollOperation op = new PollOperation(new BuildRepositoryState(),
 				Collections.<BuildRepository> emptyList());
-		assertEquals(PollingResult.NO_CHANGES, op.invoke(null, null));
+		assertEquals(PollingResult.NO_CHANGES, op.invoke(null, null).getResult());
 	}
 
 	/**
@@ -83,7 +89,7 @@ public class PollOperationTest extends GitTestCase {
 		assertNotNull(clone.invoke(dir, null));
 		PollOperation op = new PollOperation(new BuildRepositoryState(),
 				Collections.singletonList(repo));
-		assertEquals(PollingResult.BUILD_NOW, op.invoke(dir, null));
+		assertEquals(PollingResult.BUILD_NOW, op.invoke(dir, null).getResult());
 	}
 
 	/**
@@ -98,7 +104,7 @@ public class PollOperationTest extends GitTestCase {
 		PollOperation op = new PollOperation(new BuildRepositoryState(),
 				Collections.singletonList(repo));
 		File dir = git.tempDirectory();
-		assertEquals(PollingResult.BUILD_NOW, op.invoke(dir, null));
+		assertEquals(PollingResult.BUILD_NOW, op.invoke(dir, null).getResult());
 	}
 
 	/**
@@ -117,8 +123,9 @@ public class PollOperationTest extends GitTestCase {
 		BuildRepositoryState state = new BuildRepositoryState();
 		state.put(repo, commit);
 		PollOperation op = new PollOperation(state,
-				Collections.singletonList(repo));
-		assertEquals(PollingResult.NO_CHANGES, op.invoke(dir, null));
+				Collections.singletonList(repo)).setJob("noChanges");
+		assertEquals(PollingResult.NO_CHANGES, op.invoke(dir, null).getResult());
+		assertNull(RemoteHeadTable.takePolled("noChanges"));
 	}
 
 	/**
@@ -136,9 +143,156 @@ public class PollOperationTest extends GitTestCase {
 		assertNotNull(clone.invoke(dir, null));
 		BuildRepositoryState state = new BuildRepositoryState();
 		state.put(repo, commit);
+		PollOperation op = new PollOperation(state,
+				Collections.singletonList(repo)).setJob("oneChange");
+		RevCommit commit2 = git.add("file2.txt", "b");
+		assertEquals(PollingResult.SIGNIFICANT, op.invoke(dir, null).getResult());
+		RemoteHeadTable polled = RemoteHeadTable.takePolled("oneChange");
+		assertNotNull(polled);
+		assertEquals(commit2,
+				polled.get(repo.getUri(), repo.getBranch(), 60000));
+	}
+
+	/**
+	 * Clone three repositories into directories of the given folder
+	 *
+	 * @param dir
+	 * @param state
+	 * @return build repositories
+	 * @throws Exception
+	 */
+	private List<BuildRepository> cloneThree(File dir,
+			BuildRepositoryState state) throws Exception {
+		File[] remotes = new File[] { git.testRepo, git.initRepo(),
+				git.initRepo() };
+		BuildRepository[] repos = new BuildRepository[remotes.length];
+		for (int i = 0; i < remotes.length; i++) {
+			RevCommit commit = git.add(remotes[i], "file.txt", "a" + i);
+			repos[i] = new BuildRepository(remotes[i].toURI().toString(),
+					BuildRepository.BRANCH_DEFAULT, "repo" + i);
+			assertNotNull(new CloneOperation(repos[i]).invoke(dir, null));
+			state.put(repos[i], commit);
+		}
+		return Arrays.asList(repos);
+	}
+
+	/**
+	 * Test each polled repository has its own result and repositories after
+	 * the decisive one are not polled
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void repositoryResults() throws Exception {
+		File dir = git.tempDirectory();
+		BuildRepositoryState state = new BuildRepositoryState();
+		List<BuildRepository> repos = cloneThree(dir, state).subList(0, 2);
+		git.add(new File(new URI(repos.get(1).getUri())), "file2.txt",
+				"b");
+		PollOutcome outcome = new PollOperation(state, repos).invoke(dir,
+				null);
+		assertEquals(PollingResult.SIGNIFICANT, outcome.getResult());
+		assertEquals(2, outcome.getRepositories().size());
+		assertEquals(PollingResult.NO_CHANGES, outcome.get(repos.get(0)));
+		assertEquals(PollingResult.SIGNIFICANT, outcome.get(repos.get(1)));
+
+		outcome = new PollOperation(state, Arrays.asList(repos.get(1),
+				repos.get(0))).invoke(dir, null);
+		assertEquals(PollingResult.SIGNIFICANT, outcome.getResult());
+		assertEquals(1, outcome.getRepositories().size());
+		assertNull(outcome.get(repos.get(0)));
+	}
+
+	/**
+	 * Test polling multiple repositories concurrently with no changes
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void parallelNoChanges() throws Exception {
+		File dir = git.tempDirectory();
+		BuildRepositoryState state = new BuildRepositoryState();
+		List<BuildRepository> repos = cloneThree(dir, state);
+		PollOperation op = new PollOperation(state, repos, 3);
+		assertEquals(PollingResult.NO_CHANGES, op.invoke(dir, null).getResult());
+	}
+
+	/**
+	 * Test polling multiple repositories concurrently where the last
+	 * repository has changed
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void parallelLastChanged() throws Exception {
+		File dir = git.tempDirectory();
+		BuildRepositoryState state = new BuildRepositoryState();
+		List<BuildRepository> repos = cloneThree(dir, state);
+		git.add(new File(new URI(repos.get(2).getUri())), "file2.txt",
+				"b");
+		PollOperation op = new PollOperation(state, repos, 2);
+		assertEquals(PollingResult.SIGNIFICANT, op.invoke(dir, null).getResult());
+	}
+
+	/**
+	 * Test polling multiple repositories concurrently returns the same result
+	 * as polling them serially when different repositories are decisive
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void parallelMatchesSerial() throws Exception {
+		File dir = git.tempDirectory();
+		BuildRepositoryState state = new BuildRepositoryState();
+		List<BuildRepository> repos = cloneThree(dir, state);
+		BuildRepositoryState partial = new BuildRepositoryState();
+		partial.put(repos.get(1), state.get(repos.get(1)));
+		partial.put(repos.get(2), state.get(repos.get(2)));
+		git.add(new File(new URI(repos.get(2).getUri())), "file2.txt",
+				"b");
+		PollingResult serial = new PollOperation(partial, repos).invoke(dir,
+				null).getResult();
+		assertEquals(PollingResult.BUILD_NOW, serial);
+		assertEquals(serial,
+				new PollOperation(partial, repos, 3).invoke(dir, null).getResult());
+	}
+
+	/**
+	 * Test polling a {@link BuildRepository} with path patterns only reports
+	 * changes to included paths
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void pathFiltered() throws Exception {
+		RevCommit commit = git.add("src/file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), "refs/heads/master", null, "src/**",
+				"**/*.md");
+		CloneOperation clone = new CloneOperation(repo);
+		File dir = git.tempDirectory();
+		Repository workspace = clone.invoke(dir, null);
+		assertNotNull(workspace);
+		Map<String, Ref> refs = workspace.getAllRefs();
+		File fetchHead = new File(workspace.getDirectory(),
+				Constants.FETCH_HEAD);
+		long fetched = fetchHead.lastModified();
+		BuildRepositoryState state = new BuildRepositoryState();
+		state.put(repo, commit);
 		PollOperation op = new PollOperation(state,
 				Collections.singletonList(repo));
-		git.add("file2.txt", "b");
-		assertEquals(PollingResult.SIGNIFICANT, op.invoke(dir, null));
+		git.add("docs/guide.txt", "b");
+		git.add("src/README.md", "c");
+		assertEquals(PollingResult.NO_CHANGES, op.invoke(dir, null).getResult());
+		git.add("src/file.txt", "d");
+		assertEquals(PollingResult.SIGNIFICANT, op.invoke(dir, null).getResult());
+
+		// Polling fetches into a scratch repository, not the workspace
+		assertEquals(refs.keySet(), workspace.getAllRefs().keySet());
+		for (Ref ref : refs.values())
+			assertEquals(ref.getObjectId(),
+					workspace.resolve(ref.getName()));
+		assertEquals(fetched, fetchHead.lastModified());
+		assertTrue(op.getScratchDirectory(repo, workspace).isDirectory());
 	}
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.jenkinsci.git.PollScheduler.Schedule;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link PollScheduler}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PollSchedulerTest extends Assert {
+
+	private final BuildRepository repo = new BuildRepository("a", "b", "c");
+
+	/**
+	 * Test disabled scheduler always polls
+	 */
+	@Test
+	public void disabled() {
+		PollScheduler scheduler = new PollScheduler();
+		assertFalse(scheduler.isEnabled());
+		scheduler.record("job", repo, false);
+		assertTrue(scheduler.isDue("job", repo));
+	}
+
+	/**
+	 * Test interval doubles up to the ceiling when no changes are found
+	 */
+	@Test
+	public void backOff() {
+		PollScheduler scheduler = new PollScheduler().configure(1000, 3000);
+		assertTrue(scheduler.isDue("job", repo));
+		scheduler.record("job", repo, false);
+		assertFalse(scheduler.isDue("job", repo));
+		Schedule schedule = scheduler.getSchedules("job").get(0);
+		assertEquals(1000, schedule.getInterval());
+		scheduler.record("job", repo, false);
+		assertEquals(2000, schedule.getInterval());
+		scheduler.record("job", repo, false);
+		assertEquals(3000, schedule.getInterval());
+		scheduler.record("job", repo, false);
+		assertEquals(3000, schedule.getInterval());
+		assertEquals(4, schedule.getPolls());
+		assertEquals(0, schedule.getChanges());
+	}
+
+	/**
+	 * Test interval resets when a change is found
+	 */
+	@Test
+	public void snapBack() {
+		PollScheduler scheduler = new PollScheduler().configure(1000, 60000);
+		scheduler.record("job", repo, false);
+		scheduler.record("job", repo, false);
+		assertFalse(scheduler.isDue("job", repo));
+		scheduler.record("job", repo, true);
+		assertTrue(scheduler.isDue("job", repo));
+		Schedule schedule = scheduler.getSchedules("job").get(0);
+		assertEquals(0, schedule.getInterval());
+		assertEquals(1, schedule.getChanges());
+		assertEquals(1.0 / 3, schedule.getChangeRate(), 0.0001);
+	}
+
+	/**
+	 * Test schedules are kept per job
+	 */
+	@Test
+	public void perJob() {
+		PollScheduler scheduler = new PollScheduler().configure(1000, 60000);
+		scheduler.record("job1", repo, false);
+		assertFalse(scheduler.isDue("job1", repo));
+		assertTrue(scheduler.isDue("job2", repo));
+		List<Schedule> schedules = scheduler.getSchedules("job1");
+		assertEquals(1, schedules.size());
+		assertEquals(repo, schedules.get(0).getRepository());
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.scm.PollingResult;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Collections;
+
+import net.sf.json.JSONObject;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Tests of {@link PushNotificationAction} posting notifications to a running
+ * instance and polling using the recorded heads
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class PushNotificationActionTest extends JenkinsGitTestCase {
+
+	private void enable(long maxAge) throws Exception {
+		hudson.getDescriptorByType(RepositoryManagerDescriptor.class)
+				.configure(
+						null,
+						JSONObject.fromObject("{pushHeadMaxAge: " + maxAge
+								+ ", pushToken: 'secret'}"));
+	}
+
+	private int post(String query) throws Exception {
+		URL url = new URL(getURL(), PushNotificationAction.URL_NAME + "/");
+		HttpURLConnection connection = (HttpURLConnection) url
+				.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type",
+				"application/x-www-form-urlencoded");
+		OutputStream out = connection.getOutputStream();
+		out.write(query.getBytes("UTF-8"));
+		out.close();
+		return connection.getResponseCode();
+	}
+
+	/**
+	 * Test notification with a missing commit is rejected
+	 *
+	 * @throws Exception
+	 */
+	public void testMissingSha() throws Exception {
+		enable(60);
+		assertEquals(HttpURLConnection.HTTP_BAD_REQUEST,
+				post("uri=a&ref=refs/heads/master"));
+	}
+
+	/**
+	 * Test notifications are rejected when disabled
+	 *
+	 * @throws Exception
+	 */
+	public void testDisabled() throws Exception {
+		enable(0);
+		assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+				post("uri=a&ref=refs/heads/master&token=secret&sha="
+						+ "1111111111111111111111111111111111111111"));
+	}
+
+	/**
+	 * Test token comparison
+	 */
+	public void testValidToken() {
+		assertTrue(PushNotificationAction.isValidToken("secret", "secret"));
+		assertFalse(PushNotificationAction.isValidToken("secret", "other"));
+		assertFalse(PushNotificationAction.isValidToken("secret", null));
+		assertFalse(PushNotificationAction.isValidToken(null, "secret"));
+		assertFalse(PushNotificationAction.isValidToken("", ""));
+	}
+
+	/**
+	 * Test notification without a full ref name is recorded as a branch
+	 */
+	public void testShortRef() {
+		RemoteHeadTable.getShared().clear();
+		PushNotificationAction action = new PushNotificationAction();
+		assertTrue(action.notify("a", "master",
+				"1111111111111111111111111111111111111111"));
+		assertNotNull(RemoteHeadTable.getShared().get("a",
+				BuildRepository.BRANCH_DEFAULT, 60000));
+	}
+
+	/**
+	 * Test notification is used by polling instead of listing the remote
+	 *
+	 * @throws Exception
+	 */
+	public void testPollUsesNotification() throws Exception {
+		enable(60);
+		RemoteHeadTable.getShared().clear();
+		RevCommit commit1 = git.add("file.txt", "a");
+		RevCommit commit2 = git.add("file.txt", "b");
+		String uri = "http://localhost:1/unreachable.git";
+		BuildRepository repo = new BuildRepository(uri,
+				BuildRepository.BRANCH_DEFAULT, null);
+		assertEquals(HttpURLConnection.HTTP_OK,
+				post("uri=" + URLEncoder.encode(uri, "UTF-8")
+						+ "&ref=refs/heads/master&token=secret&sha="
+						+ commit2.name()));
+
+		BuildRepositoryState state = new BuildRepositoryState();
+		state.put(repo, commit1);
+		RemotePollOperation op = new RemotePollOperation(state,
+				Collections.singletonList(repo));
+		op.setRemoteHeads(RemoteHeadTable.getShared().getState(
+				Collections.singletonList(repo), 60000));
+		File dir = new File(git.tempDirectory(), "poll");
+		assertEquals(PollingResult.SIGNIFICANT, op.invoke(dir, null)
+				.getResult());
+
+		state.put(repo, commit2);
+		assertEquals(PollingResult.NO_CHANGES, op.invoke(dir, null)
+				.getResult());
+	}
+}
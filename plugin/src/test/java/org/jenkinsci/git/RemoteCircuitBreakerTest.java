@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RemoteCircuitBreaker}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemoteCircuitBreakerTest extends GitTestCase {
+
+	private static final String URI = "https://host/repo.git";
+
+	private static IOException down() {
+		return new IOException("down", new ConnectException("refused"));
+	}
+
+	/**
+	 * Test disabled circuit breaker never opens
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void disabled() throws IOException {
+		RemoteCircuitBreaker breaker = new RemoteCircuitBreaker();
+		assertFalse(breaker.isEnabled());
+		assertFalse(breaker.recordFailure(URI, down()));
+		breaker.check(URI);
+		assertFalse(breaker.isOpen(URI));
+	}
+
+	/**
+	 * Test circuit opens after threshold of failures for the same host only
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void opensAtThreshold() throws IOException {
+		RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(2, 60000);
+		assertFalse(breaker.recordFailure(URI, down()));
+		breaker.check(URI);
+		assertFalse(breaker.recordFailure("https://other/repo.git", down()));
+		assertFalse(breaker.recordFailure("https://host:8443/repo.git",
+				down()));
+		assertTrue(breaker.recordFailure("https://host/other.git", down()));
+		try {
+			breaker.check(URI);
+			fail("Exception not thrown");
+		} catch (RemoteUnavailableException e) {
+			assertEquals(URI, e.getRemote());
+			assertTrue(e.getMessage().contains("down"));
+		}
+		breaker.check("https://other/repo.git");
+		breaker.check("https://host:8443/repo.git");
+		assertEquals(Collections.singleton("host:443"), breaker
+				.getUnavailableRemotes().keySet());
+	}
+
+	/**
+	 * Test host and port of remotes
+	 */
+	@Test
+	public void hosts() {
+		assertEquals("host:443", RemoteCircuitBreaker.getHost(URI));
+		assertEquals("host:8080",
+				RemoteCircuitBreaker.getHost("http://host:8080/repo.git"));
+		assertEquals("host:9418",
+				RemoteCircuitBreaker.getHost("git://host/repo.git"));
+		assertEquals("host:22",
+				RemoteCircuitBreaker.getHost("git@host:repo.git"));
+		assertEquals("/tmp/repo.git",
+				RemoteCircuitBreaker.getHost("/tmp/repo.git"));
+	}
+
+	/**
+	 * Test only connection failures and timeouts are counted
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void onlyConnectFailuresCount() throws IOException {
+		RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(1, 60000);
+		assertFalse(breaker.recordFailure(URI, new IOException(
+				"repository not found")));
+		assertFalse(breaker.isOpen(URI));
+		assertTrue(breaker.recordFailure(URI, new IOException("slow",
+				new SocketTimeoutException())));
+		assertTrue(breaker.isOpen(URI));
+		assertTrue(RemoteCircuitBreaker.isConnectFailure(new ConnectException()));
+		assertFalse(RemoteCircuitBreaker.isConnectFailure(new IOException()));
+	}
+
+	/**
+	 * Test success resets consecutive failures
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void successResets() throws IOException {
+		RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(2, 60000);
+		breaker.recordFailure(URI, down());
+		breaker.recordSuccess(URI);
+		assertFalse(breaker.recordFailure(URI, down()));
+		assertFalse(breaker.isOpen(URI));
+	}
+
+	/**
+	 * Test half-open circuit lets a single call through and closes only once
+	 * it succeeds
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void halfOpenCloses() throws Exception {
+		RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(1, 10);
+		assertTrue(breaker.recordFailure(URI, down()));
+		Thread.sleep(50);
+		breaker.check(URI);
+		try {
+			breaker.check(URI);
+			fail("Exception not thrown");
+		} catch (RemoteUnavailableException e) {
+			assertNotNull(e);
+		}
+		assertFalse(breaker.recordFailure(URI, new IOException("hung")));
+		assertTrue(breaker.isOpen(URI));
+		try {
+			breaker.check(URI);
+			fail("Exception not thrown");
+		} catch (RemoteUnavailableException e) {
+			assertTrue(e.getMessage().contains("hung"));
+		}
+		Thread.sleep(50);
+		breaker.check(URI);
+		breaker.recordSuccess(URI);
+		assertFalse(breaker.isOpen(URI));
+		breaker.check(URI);
+	}
+
+	/**
+	 * Test missing repository never opens the circuit
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void lsRemoteMissingRepository() throws Exception {
+		RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(1, 60000);
+		File missing = new File(git.tempDirectory(), "missing.git");
+		BuildRepository repo = new BuildRepository(missing.toURI().toString(),
+				BuildRepository.BRANCH_DEFAULT, null);
+		LsRemoteOperation op = new LsRemoteOperation(repo, git.repo())
+				.setBreaker(breaker);
+		for (int i = 0; i < 2; i++)
+			try {
+				op.call();
+				fail("Exception not thrown");
+			} catch (RemoteUnavailableException e) {
+				fail("Circuit opened for missing repository");
+			} catch (IOException e) {
+				assertNotNull(e);
+			}
+		assertFalse(breaker.isOpen(repo.getUri()));
+	}
+
+	/**
+	 * Test listing an unreachable remote fails fast once unavailable
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void lsRemoteFailsFast() throws Exception {
+		RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(1, 60000);
+		BuildRepository repo = new BuildRepository(
+				"http://localhost:1/unreachable.git",
+				BuildRepository.BRANCH_DEFAULT, null);
+		LsRemoteOperation op = new LsRemoteOperation(repo, git.repo())
+				.setBreaker(breaker);
+		try {
+			op.call();
+			fail("Exception not thrown");
+		} catch (RemoteUnavailableException e) {
+			fail("Circuit open before first failure");
+		} catch (IOException e) {
+			assertNotNull(e);
+		}
+		try {
+			op.call();
+			fail("Exception not thrown");
+		} catch (RemoteUnavailableException e) {
+			assertEquals(repo.getUri(), e.getRemote());
+		}
+	}
+
+	/**
+	 * Test finding an unavailable remote in wrapped failures
+	 */
+	@Test
+	public void findWrapped() {
+		RemoteUnavailableException unavailable = new RemoteUnavailableException(
+				URI, 1, null);
+		assertSame(unavailable, RemoteUnavailableException
+				.find(new IOException(new IOException(unavailable))));
+		assertNull(RemoteUnavailableException.find(new IOException()));
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RemoteHeadTable}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemoteHeadTableTest extends Assert {
+
+	private static final ObjectId ID = ObjectId
+			.fromString("1111111111111111111111111111111111111111");
+
+	/**
+	 * Test getting a recorded head
+	 */
+	@Test
+	public void putAndGet() {
+		RemoteHeadTable table = new RemoteHeadTable();
+		assertNull(table.get("a", "b", 60000));
+		table.put("a/", "b", ID);
+		assertEquals(ID, table.get("a", "b", 60000));
+		assertNull(table.get("a", "c", 60000));
+		assertEquals(1, table.size());
+	}
+
+	/**
+	 * Test URIs of the same repository share entries
+	 */
+	@Test
+	public void normalizedUris() {
+		assertEquals("host.com/a/b",
+				RemoteHeadTable.normalize("https://Host.com/a/b.git/"));
+		assertEquals("host.com/a/b",
+				RemoteHeadTable.normalize("git@host.com:a/b.git"));
+		assertEquals("host.com:8080/a/b",
+				RemoteHeadTable.normalize("http://user@host.com:8080/a/b"));
+		RemoteHeadTable table = new RemoteHeadTable();
+		table.put("git://host.com/a/b.git", "b", ID);
+		assertEquals(ID, table.get("https://host.com/a/b", "b", 60000));
+	}
+
+	/**
+	 * Test oldest entries are evicted when the table is full
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void evictOldest() throws Exception {
+		RemoteHeadTable table = new RemoteHeadTable(2);
+		table.put("a", "b", ID);
+		Thread.sleep(5);
+		table.put("a", "c", ID);
+		Thread.sleep(5);
+		table.put("a", "d", ID);
+		assertEquals(2, table.size());
+		assertNull(table.get("a", "b", 60000));
+		assertEquals(ID, table.get("a", "c", 60000));
+		assertEquals(ID, table.get("a", "d", 60000));
+	}
+
+	/**
+	 * Test pruning expired entries
+	 */
+	@Test
+	public void prune() {
+		RemoteHeadTable table = new RemoteHeadTable();
+		table.put("a", "b", ID);
+		assertEquals(0, table.prune(60000));
+		assertEquals(1, table.size());
+		assertEquals(1, table.prune(0));
+		assertEquals(0, table.size());
+	}
+
+	/**
+	 * Test heads older than the maximum age are not returned
+	 */
+	@Test
+	public void stale() {
+		RemoteHeadTable table = new RemoteHeadTable();
+		table.put("a", "b", ID);
+		assertNull(table.get("a", "b", 0));
+	}
+
+	/**
+	 * Test getting state of repositories
+	 */
+	@Test
+	public void state() {
+		RemoteHeadTable table = new RemoteHeadTable();
+		BuildRepository repo1 = new BuildRepository("a", "b", null);
+		BuildRepository repo2 = new BuildRepository("c", "d", null);
+		table.put("a", "b", ID);
+		BuildRepositoryState state = table.getState(
+				Arrays.asList(repo1, repo2), 60000);
+		assertEquals(ID, state.get(repo1));
+		assertNull(state.get(repo2));
+		assertTrue(table.getState(Arrays.asList(repo1), 0).isEmpty());
+	}
+
+	/**
+	 * Test publishing polled heads into the polled table of a job
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void publishPolled() throws Exception {
+		BuildRepository repo = new BuildRepository("polled", "b", null);
+		BuildRepositoryState state = new BuildRepositoryState();
+		state.put(repo, ID);
+		new RemoteHeadTable.PublishPolled("job1", state).call();
+		assertNull(RemoteHeadTable.getShared().get("polled", "b", 60000));
+		assertNull(RemoteHeadTable.takePolled("job2"));
+		RemoteHeadTable polled = RemoteHeadTable.takePolled("job1");
+		assertNotNull(polled);
+		assertEquals(ID, polled.get("polled", "b", 60000));
+		assertNull(RemoteHeadTable.takePolled("job1"));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.scm.PollingResult;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RemotePollOperation}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemotePollOperationTest extends GitTestCase {
+
+	/**
+	 * Test polling with no workspace and an empty repository state
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void emptyState() throws Exception {
+		git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		RemotePollOperation op = new RemotePollOperation(
+				new BuildRepositoryState(), Collections.singletonList(repo));
+		File dir = new File(git.tempDirectory(), "poll");
+		assertEquals(PollingResult.BUILD_NOW, op.invoke(dir, null).getResult());
+	}
+
+	/**
+	 * Test polling with no workspace and no new changes
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void noChanges() throws Exception {
+		RevCommit commit = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		BuildRepositoryState state = new BuildRepositoryState();
+		state.put(repo, commit);
+		RemotePollOperation op = new RemotePollOperation(state,
+				Collections.singletonList(repo));
+		File dir = new File(git.tempDirectory(), "poll");
+		assertEquals(PollingResult.NO_CHANGES, op.invoke(dir, null).getResult());
+	}
+
+	/**
+	 * Test polling with no workspace and one new change
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void oneChange() throws Exception {
+		RevCommit commit = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		BuildRepositoryState state = new BuildRepositoryState();
+		state.put(repo, commit);
+		RemotePollOperation op = new RemotePollOperation(state,
+				Collections.singletonList(repo));
+		File dir = new File(git.tempDirectory(), "poll");
+		git.add("file2.txt", "b");
+		assertEquals(PollingResult.SIGNIFICANT, op.invoke(dir, null).getResult());
+	}
+
+	/**
+	 * Test polling uses known remote heads instead of listing the remote
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void knownHeads() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		RevCommit commit2 = git.add("file.txt", "b");
+		BuildRepository repo = new BuildRepository("file:///missing/repo.git",
+				BuildRepository.BRANCH_DEFAULT, null);
+		BuildRepositoryState state = new BuildRepositoryState();
+		state.put(repo, commit1);
+		BuildRepositoryState heads = new BuildRepositoryState();
+		heads.put(repo, commit2);
+		RemotePollOperation op = new RemotePollOperation(state,
+				Collections.singletonList(repo));
+		op.setRemoteHeads(heads);
+		File dir = new File(git.tempDirectory(), "poll");
+		assertEquals(PollingResult.SIGNIFICANT, op.invoke(dir, null).getResult());
+	}
+
+	/**
+	 * Test path filtered polls of different remotes fetch into separate
+	 * scratch repositories
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void scratchPerRemote() throws Exception {
+		RevCommit commit1 = git.add("src/file.txt", "a");
+		File other = git.initRepo();
+		RevCommit commit2 = git.add(other, "src/file.txt", "a");
+		BuildRepository repo1 = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null,
+				"src/**", null);
+		BuildRepository repo2 = new BuildRepository(other.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null,
+				"src/**", null);
+		BuildRepositoryState state = new BuildRepositoryState();
+		state.put(repo1, commit1);
+		state.put(repo2, commit2);
+		RemotePollOperation op = new RemotePollOperation(state,
+				Arrays.asList(repo1, repo2));
+		File dir = new File(git.tempDirectory(), "poll");
+		git.add("docs/guide.txt", "b");
+		git.add(other, "docs/guide.txt", "b");
+		assertEquals(PollingResult.NO_CHANGES, op.invoke(dir, null).getResult());
+		assertTrue(new File(dir, MirrorCache.getName(repo1.getUri()))
+				.isDirectory());
+		assertTrue(new File(dir, MirrorCache.getName(repo2.getUri()))
+				.isDirectory());
+		assertFalse(new File(dir, Constants.OBJECTS).exists());
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RemoteRefCache}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RemoteRefCacheTest extends Assert {
+
+	private static Map<String, ObjectId> refs(String name) {
+		return Collections.singletonMap(name, ObjectId.zeroId());
+	}
+
+	/**
+	 * Test cache that has caching disabled
+	 */
+	@Test
+	public void disabled() {
+		RemoteRefCache cache = new RemoteRefCache();
+		assertFalse(cache.isEnabled());
+		cache.put("a", refs("b"));
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getCount());
+	}
+
+	/**
+	 * Test hit and miss counts
+	 */
+	@Test
+	public void hitsAndMisses() {
+		RemoteRefCache cache = new RemoteRefCache(2, 60000);
+		assertNull(cache.get("a"));
+		assertEquals(1, cache.getMisses());
+		cache.put("a", refs("b"));
+		assertEquals(refs("b"), cache.get("a"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	/**
+	 * Test least recently used entry is evicted when full
+	 */
+	@Test
+	public void evictLeastRecentlyUsed() {
+		RemoteRefCache cache = new RemoteRefCache(2, 60000);
+		cache.put("a", refs("1"));
+		cache.put("b", refs("2"));
+		assertNotNull(cache.get("a"));
+		cache.put("c", refs("3"));
+		assertEquals(2, cache.getCount());
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+	}
+
+	/**
+	 * Test expired entries are not returned
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void expired() throws Exception {
+		RemoteRefCache cache = new RemoteRefCache(2, 1);
+		cache.put("a", refs("b"));
+		Thread.sleep(10);
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getCount());
+	}
+}
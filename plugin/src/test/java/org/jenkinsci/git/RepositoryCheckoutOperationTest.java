@@ -24,15 +24,24 @@ package org.jenkinsci.git;
 import hudson.FilePath;
 
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.storage.file.FileRepository;
 import org.gitective.core.CommitUtils;
+import org.jenkinsci.git.CheckoutTimings.Phase;
+import org.jenkinsci.git.CheckoutTimings.RepositoryTimings;
+import org.jenkinsci.git.log.CommitCollectorFilter;
 import org.jenkinsci.git.log.CommitLog;
 import org.jenkinsci.git.log.CommitLogReader;
 import org.junit.Test;
@@ -81,7 +90,14 @@ public class RepositoryCheckoutOperationTest extends GitTestCase {
 
 		RepositoryCheckoutOperation op = new RepositoryCheckoutOperation(
 				Collections.singletonList(repo), new FilePath(log));
-		assertTrue(op.invoke(dir, null));
+		CheckoutResult result = op.invoke(dir, null);
+		assertNotNull(result);
+		BuildRepositoryState state = result.getState();
+		assertEquals(commit1, state.get(repo));
+		assertNotNull(result.getTimings());
+		assertEquals(1, result.getTimings().getRepositories().size());
+		assertEquals(repo.toString(), result.getTimings().getRepositories()
+				.get(0).getRepository());
 
 		CommitLogReader reader = new CommitLogReader();
 		CommitLog cl = reader.parse(null, log);
@@ -97,7 +113,9 @@ public class RepositoryCheckoutOperationTest extends GitTestCase {
 		assertEquals(commit1, CommitUtils.getLatest(gitRepo));
 
 		RevCommit commit2 = git.add("file.txt", "new content");
-		assertTrue(op.invoke(dir, null));
+		state = op.invoke(dir, null).getState();
+		assertNotNull(state);
+		assertEquals(commit2, state.get(repo));
 		assertEquals(commit2, CommitUtils.getLatest(gitRepo));
 
 		cl = reader.parse(null, log);
@@ -107,7 +125,9 @@ public class RepositoryCheckoutOperationTest extends GitTestCase {
 		assertEquals(commit2.name(), cl.iterator().next().getCommitId());
 
 		RevCommit commit3 = git.add("file.txt", "less content");
-		assertTrue(op.invoke(dir, null));
+		state = op.invoke(dir, null).getState();
+		assertNotNull(state);
+		assertEquals(commit3, state.get(repo));
 		assertEquals(commit3, CommitUtils.getLatest(gitRepo));
 
 		cl = reader.parse(null, log);
@@ -116,4 +136,236 @@ public class RepositoryCheckoutOperationTest extends GitTestCase {
 		assertEquals(1, cl.toArray().length);
 		assertEquals(commit3.name(), cl.iterator().next().getCommitId());
 	}
+
+	/**
+	 * Test checking out multiple repositories concurrently writes the log in
+	 * repository order
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void checkoutParallel() throws Exception {
+		File dir = git.tempDirectory();
+		File log = File.createTempFile("log", ".txt");
+		List<BuildRepository> repos = new ArrayList<BuildRepository>();
+		List<RevCommit> commits = new ArrayList<RevCommit>();
+		for (int i = 0; i < 3; i++) {
+			File source = git.initRepo();
+			commits.add(git.add(source, "file" + i + ".txt", "content" + i));
+			repos.add(new BuildRepository(source.toURI().toString(),
+					BuildRepository.BRANCH_DEFAULT, "repo" + i));
+		}
+
+		RepositoryCheckoutOperation op = new RepositoryCheckoutOperation(
+				repos, new FilePath(log), null, 3);
+		CheckoutResult result = op.invoke(dir, null);
+		assertNotNull(result);
+		BuildRepositoryState state = result.getState();
+		CommitLog cl = new CommitLogReader().parse(null, log);
+		assertEquals(3, cl.toArray().length);
+		assertEquals(3, result.getTimings().getRepositories().size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(repos.get(i).toString(), result.getTimings()
+					.getRepositories().get(i).getRepository());
+			assertEquals(commits.get(i), state.get(repos.get(i)));
+			assertEquals(commits.get(i).name(),
+					cl.toArray()[i].getCommitId());
+			assertTrue(new File(dir, "repo" + i + "/file" + i + ".txt")
+					.exists());
+		}
+	}
+
+	/**
+	 * Test checking out through a mirror cache borrows objects from the mirror
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void checkoutThroughMirror() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		File mirrors = git.tempDirectory();
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		File dir = git.tempDirectory();
+		RepositoryCheckoutOperation op = new RepositoryCheckoutOperation(
+				Collections.singletonList(repo), new FilePath(
+						File.createTempFile("log", ".txt")));
+		op.setSettings(new OperationSettings().setMirrorDirectory(mirrors
+				.getAbsolutePath()));
+		assertEquals(commit1, op.invoke(dir, null).getState().get(repo));
+
+		File mirror = new MirrorCache(mirrors).getMirror(repo.getUri());
+		Repository mirrorRepo = new FileRepository(mirror);
+		assertEquals(commit1, CommitUtils.getRef(mirrorRepo,
+				BuildRepository.BRANCH_DEFAULT));
+		File alternates = new File(dir, Constants.DOT_GIT + "/"
+				+ Constants.OBJECTS + "/info/alternates");
+		assertTrue(alternates.isFile());
+		String[] packs = new File(alternates.getParentFile().getParentFile(),
+				"pack").list();
+		assertTrue(packs == null || packs.length == 0);
+
+		RevCommit commit2 = git.add("file.txt", "b");
+		assertEquals(commit2, op.invoke(dir, null).getState().get(repo));
+		assertEquals(commit2, CommitUtils.getRef(mirrorRepo,
+				BuildRepository.BRANCH_DEFAULT));
+		Repository workspace = new FileRepository(new File(dir,
+				Constants.DOT_GIT));
+		assertEquals(commit2, CommitUtils.getLatest(workspace));
+		assertTrue(new File(dir, "file.txt").isFile());
+	}
+
+	/**
+	 * Test checking out through a mirror cache records the open phase once
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void checkoutThroughMirrorOpenedOnce() throws Exception {
+		RevCommit commit = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		RepositoryCheckoutOperation op = new RepositoryCheckoutOperation(
+				Collections.singletonList(repo), new FilePath(
+						File.createTempFile("log", ".txt")));
+		op.setSettings(new OperationSettings().setMirrorDirectory(git
+				.tempDirectory().getAbsolutePath()));
+		final List<Phase> phases = new ArrayList<Phase>();
+		RepositoryTimings timings = new RepositoryTimings(repo.toString()) {
+
+			private static final long serialVersionUID = 1L;
+
+			public RepositoryTimings record(Phase phase) {
+				phases.add(phase);
+				return super.record(phase);
+			}
+		};
+		assertEquals(commit, op.checkout(repo, git.tempDirectory(), null,
+				new CommitCollectorFilter(), null, timings));
+		assertEquals(1, Collections.frequency(phases, Phase.OPEN));
+		assertTrue(phases.indexOf(Phase.OPEN) > phases.indexOf(Phase.FETCH));
+	}
+
+	/**
+	 * Test checking out several branches of one remote into different
+	 * directories fetches them into a single shared mirror
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void checkoutSharedUri() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		RefUpdate branch = git.repo().updateRef("refs/heads/other");
+		branch.setNewObjectId(commit1);
+		assertEquals(RefUpdate.Result.NEW, branch.update());
+		RevCommit commit2 = git.add("file.txt", "b");
+		String uri = git.repo().getDirectory().toURI().toString();
+		BuildRepository repo1 = new BuildRepository(uri,
+				BuildRepository.BRANCH_DEFAULT, "master");
+		BuildRepository repo2 = new BuildRepository(uri, "refs/heads/other",
+				"other");
+		BuildRepository repo3 = new BuildRepository(git.initRepo().toURI()
+				.toString(), BuildRepository.BRANCH_DEFAULT, "single");
+		File mirrors = git.tempDirectory();
+		File dir = git.tempDirectory();
+		RepositoryCheckoutOperation op = new RepositoryCheckoutOperation(
+				Arrays.asList(repo1, repo2), new FilePath(File.createTempFile(
+						"log", ".txt")));
+		op.setSettings(new OperationSettings().setMirrorDirectory(mirrors
+				.getAbsolutePath()));
+		Map<String, List<BuildRepository>> groups = new RepositoryCheckoutOperation(
+				Arrays.asList(repo1, repo3, repo2), new FilePath(
+						File.createTempFile("log", ".txt"))).groupByUri();
+		assertEquals(2, groups.size());
+		assertEquals(Arrays.asList(repo1, repo2), groups.get(uri));
+
+		BuildRepositoryState state = op.invoke(dir, null).getState();
+		assertEquals(commit2, state.get(repo1));
+		assertEquals(commit1, state.get(repo2));
+		Repository mirrorRepo = new FileRepository(new MirrorCache(mirrors)
+				.getMirror(uri));
+		assertEquals(commit2, CommitUtils.getRef(mirrorRepo,
+				BuildRepository.BRANCH_DEFAULT));
+		assertEquals(commit1, CommitUtils.getRef(mirrorRepo,
+				"refs/heads/other"));
+		for (String name : new String[] { "master", "other" })
+			assertTrue(new File(dir, name + "/" + Constants.DOT_GIT + "/"
+					+ Constants.OBJECTS + "/info/alternates").isFile());
+		assertEquals(commit2, CommitUtils.getLatest(new FileRepository(
+				new File(dir, "master/" + Constants.DOT_GIT))));
+		assertEquals(commit1, CommitUtils.getLatest(new FileRepository(
+				new File(dir, "other/" + Constants.DOT_GIT))));
+		assertTrue(new File(dir, "other/file.txt").isFile());
+
+		// Without the mirror cache each directory fetches directly
+		File direct = git.tempDirectory();
+		op = new RepositoryCheckoutOperation(Arrays.asList(repo1, repo2),
+				new FilePath(File.createTempFile("log", ".txt")));
+		state = op.invoke(direct, null).getState();
+		assertEquals(commit2, state.get(repo1));
+		assertEquals(commit1, state.get(repo2));
+		for (String name : new String[] { "master", "other" })
+			assertFalse(new File(direct, name + "/" + Constants.DOT_GIT + "/"
+					+ Constants.OBJECTS + "/info/alternates").exists());
+	}
+
+	/**
+	 * Test checking out an expected commit that already exists locally skips
+	 * fetching
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void checkoutExpectedWithoutFetch() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		File dir = git.tempDirectory();
+		FilePath log = new FilePath(File.createTempFile("log", ".txt"));
+		RepositoryCheckoutOperation op = new RepositoryCheckoutOperation(
+				Collections.singletonList(repo), log);
+		assertEquals(commit1, op.invoke(dir, null).getState().get(repo));
+
+		// The remote has moved on but the expected commit is already local
+		RevCommit commit2 = git.add("file.txt", "b");
+		BuildRepositoryState expected = new BuildRepositoryState();
+		expected.put(repo, commit1);
+		op.setExpectedHeads(expected);
+		assertEquals(commit1, op.invoke(dir, null).getState().get(repo));
+
+		// Expected commits missing locally are fetched
+		expected.put(repo, commit2);
+		assertEquals(commit2, op.invoke(dir, null).getState().get(repo));
+	}
+
+	/**
+	 * Test cleaning an existing working tree before checking out
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void checkoutClean() throws Exception {
+		RevCommit commit1 = git.add("file.txt", "a");
+		BuildRepository repo = new BuildRepository(git.repo().getDirectory()
+				.toURI().toString(), BuildRepository.BRANCH_DEFAULT, null);
+		File dir = git.tempDirectory();
+		RepositoryCheckoutOperation op = new RepositoryCheckoutOperation(
+				Collections.singletonList(repo), new FilePath(
+						File.createTempFile("log", ".txt")));
+		op.setSettings(new OperationSettings().setClean(true));
+		assertEquals(commit1, op.invoke(dir, null).getState().get(repo));
+
+		File untracked = new File(dir, "build.out");
+		assertTrue(untracked.createNewFile());
+		File tracked = new File(dir, "file.txt");
+		FileWriter writer = new FileWriter(tracked);
+		writer.write("modified");
+		writer.close();
+		assertEquals(commit1, op.invoke(dir, null).getState().get(repo));
+		assertFalse(untracked.exists());
+		FileReader reader = new FileReader(tracked);
+		assertEquals('a', (char) reader.read());
+		assertEquals(-1, reader.read());
+		reader.close();
+	}
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RepositoryHandleCache}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class RepositoryHandleCacheTest extends GitTestCase {
+
+	private static FileRepositoryBuilder builder(File gitDir) {
+		return new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(
+				true);
+	}
+
+	/**
+	 * Test opening the same git directory reuses the open repository
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void reuse() throws Exception {
+		RepositoryHandleCache cache = new RepositoryHandleCache(2);
+		File gitDir = git.initRepo();
+		Repository repo = cache.open(builder(gitDir));
+		repo.close();
+		Repository reopened = cache.open(builder(gitDir));
+		assertSame(repo, reopened);
+		reopened.close();
+		assertEquals(1, cache.getOpen());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	/**
+	 * Test least recently used repository is evicted when full
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void evict() throws Exception {
+		RepositoryHandleCache cache = new RepositoryHandleCache(1);
+		File gitDir1 = git.initRepo();
+		File gitDir2 = git.initRepo();
+		Repository repo1 = cache.open(builder(gitDir1));
+		repo1.close();
+		cache.open(builder(gitDir2)).close();
+		assertEquals(1, cache.getOpen());
+		assertEquals(1, cache.getEvictions());
+		assertNotSame(repo1, cache.open(builder(gitDir1)));
+		assertEquals(2, cache.getEvictions());
+		cache.configure(0);
+		assertEquals(0, cache.getOpen());
+		assertEquals(3, cache.getEvictions());
+	}
+
+	/**
+	 * Test disabled cache always builds a new repository
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void disabled() throws Exception {
+		RepositoryHandleCache cache = new RepositoryHandleCache(0);
+		File gitDir = git.initRepo();
+		Repository repo = cache.open(builder(gitDir));
+		repo.close();
+		assertNotSame(repo, cache.open(builder(gitDir)));
+		assertEquals(0, cache.getOpen());
+	}
+
+	/**
+	 * Test repository deleted after being cached is not reused
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void deleted() throws Exception {
+		RepositoryHandleCache cache = new RepositoryHandleCache(2);
+		File gitDir = git.initRepo();
+		cache.open(builder(gitDir)).close();
+		FileUtils.delete(gitDir, FileUtils.RECURSIVE);
+		try {
+			cache.open(builder(gitDir));
+			fail("Exception not thrown");
+		} catch (RepositoryNotFoundException e) {
+			assertEquals(0, cache.getOpen());
+		}
+	}
+
+	/**
+	 * Test repository deleted and created again in the same directory is not
+	 * reused
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void recreated() throws Exception {
+		RepositoryHandleCache cache = new RepositoryHandleCache(2);
+		File gitDir = git.initRepo();
+		Repository repo = cache.open(builder(gitDir));
+		repo.close();
+		FileUtils.delete(gitDir.getParentFile(), FileUtils.RECURSIVE);
+		Git.init().setDirectory(gitDir.getParentFile()).call();
+		File config = new File(gitDir, Constants.CONFIG);
+		assertTrue(config.setLastModified(config.lastModified() - 10000));
+		Repository reopened = cache.open(builder(gitDir));
+		assertNotSame(repo, reopened);
+		reopened.close();
+		assertEquals(1, cache.getOpen());
+	}
+
+	/**
+	 * Test repositories unused for longer than the idle timeout are evicted
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void idle() throws Exception {
+		RepositoryHandleCache cache = new RepositoryHandleCache(2)
+				.setIdleTimeout(60000);
+		cache.open(builder(git.initRepo())).close();
+		assertEquals(0, cache.expire());
+		assertEquals(1, cache.getOpen());
+		cache.setIdleTimeout(1);
+		Thread.sleep(10);
+		assertEquals(1, cache.expire());
+		assertEquals(0, cache.getOpen());
+		assertEquals(1, cache.getEvictions());
+	}
+}
@@ -24,6 +24,7 @@ package org.jenkinsci.git;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collections;
@@ -60,4 +61,25 @@ public class RepositoryManagerTest {
 		assertFalse(manager.getRepositories().isEmpty());
 		assertEquals(repo, manager.getRepositories().get(0));
 	}
+
+	/**
+	 * Test default and configured options
+	 */
+	@Test
+	public void options() {
+		RepositoryManager manager = new RepositoryManager(null);
+		assertEquals(1, manager.getPollThreads());
+		assertFalse(manager.isPollWithoutWorkspace());
+		assertEquals(1, manager.getCheckoutThreads());
+		assertEquals(1, manager.getWriterThreads());
+		assertFalse(manager.isClean());
+		assertSame(manager, manager.setPollThreads(2)
+				.setPollWithoutWorkspace(true).setCheckoutThreads(3)
+				.setWriterThreads(4).setClean(true));
+		assertEquals(2, manager.getPollThreads());
+		assertTrue(manager.isPollWithoutWorkspace());
+		assertEquals(3, manager.getCheckoutThreads());
+		assertEquals(4, manager.getWriterThreads());
+		assertTrue(manager.isClean());
+	}
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link ScratchRepositoryOperation}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class ScratchRepositoryOperationTest extends GitTestCase {
+
+	/**
+	 * Invoke operation on a null file
+	 *
+	 * @throws Exception
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void nullFile() throws Exception {
+		new ScratchRepositoryOperation().invoke(null, null);
+	}
+
+	/**
+	 * Test creating and then re-opening a scratch repository
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void createAndOpen() throws Exception {
+		File dir = new File(git.tempDirectory(), "scratch");
+		Repository repo = new ScratchRepositoryOperation().invoke(dir, null);
+		assertNotNull(repo);
+		assertTrue(repo.isBare());
+		assertTrue(repo.getObjectDatabase().exists());
+		Repository reopened = new ScratchRepositoryOperation().invoke(dir,
+				null);
+		assertNotNull(reopened);
+		assertEquals(repo.getDirectory(), reopened.getDirectory());
+	}
+}
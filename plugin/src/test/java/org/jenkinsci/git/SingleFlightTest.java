@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2011 GitHub Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package org.jenkinsci.git;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link SingleFlight}
+ *
+ * @author Kevin Sawicki (kevin@github.com)
+ */
+public class SingleFlightTest extends Assert {
+
+	/**
+	 * Test sequential calls with the same key are not coalesced
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void sequentialCalls() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		SingleFlight<Integer> flight = new SingleFlight<Integer>();
+		Callable<Integer, IOException> callable = new Callable<Integer, IOException>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public Integer call() throws IOException {
+				return Integer.valueOf(count.incrementAndGet());
+			}
+		};
+		assertEquals(Integer.valueOf(1), flight.execute("a", callable));
+		assertEquals(Integer.valueOf(2), flight.execute("a", callable));
+		assertEquals(0, flight.getCoalesced());
+		assertEquals(0, flight.getInFlight());
+	}
+
+	/**
+	 * Test concurrent call with the same key waits on the call in flight
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void concurrentCallsCoalesced() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final SingleFlight<Integer> flight = new SingleFlight<Integer>();
+		final Callable<Integer, IOException> callable = new Callable<Integer, IOException>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public Integer call() throws IOException {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return Integer.valueOf(count.incrementAndGet());
+			}
+		};
+		final Integer[] results = new Integer[2];
+		Thread first = new Thread() {
+
+			public void run() {
+				try {
+					results[0] = flight.execute("a", callable);
+				} catch (IOException ignored) {
+					// Ignored
+				}
+			}
+		};
+		first.start();
+		started.await();
+		Thread second = new Thread() {
+
+			public void run() {
+				try {
+					results[1] = flight.execute("a", callable);
+				} catch (IOException ignored) {
+					// Ignored
+				}
+			}
+		};
+		second.start();
+		while (flight.getCoalesced() == 0)
+			Thread.sleep(10);
+		release.countDown();
+		first.join();
+		second.join();
+		assertEquals(1, count.get());
+		assertEquals(Integer.valueOf(1), results[0]);
+		assertEquals(Integer.valueOf(1), results[1]);
+		assertEquals(0, flight.getInFlight());
+	}
+
+	/**
+	 * Test failure of call is re-thrown
+	 *
+	 * @throws Exception
+	 */
+	@Test(expected = IOException.class)
+	public void failure() throws Exception {
+		new SingleFlight<Integer>().execute("a",
+				new Callable<Integer, IOException>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Integer call() throws IOException {
+						throw new IOException("fail");
+					}
+				});
+	}
+
+	/**
+	 * Test waiting call runs again when the call in flight is cancelled
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void cancelledCallRetried() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final SingleFlight<Integer> flight = new SingleFlight<Integer>();
+		final Callable<Integer, IOException> cancelled = new Callable<Integer, IOException>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public Integer call() throws IOException {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				throw new InterruptedIOException("cancelled");
+			}
+		};
+		final Throwable[] failure = new Throwable[1];
+		Thread first = new Thread() {
+
+			public void run() {
+				try {
+					flight.execute("a", cancelled);
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		};
+		first.start();
+		started.await();
+		final Integer[] result = new Integer[1];
+		Thread second = new Thread() {
+
+			public void run() {
+				try {
+					result[0] = flight.execute("a",
+							new Callable<Integer, IOException>() {
+
+								private static final long serialVersionUID = 1L;
+
+								public Integer call() throws IOException {
+									return Integer.valueOf(count
+											.incrementAndGet());
+								}
+							});
+				} catch (IOException ignored) {
+					// Ignored
+				}
+			}
+		};
+		second.start();
+		while (flight.getCoalesced() == 0)
+			Thread.sleep(10);
+		release.countDown();
+		first.join();
+		second.join();
+		assertTrue(failure[0] instanceof InterruptedIOException);
+		assertEquals(1, count.get());
+		assertEquals(Integer.valueOf(1), result[0]);
+		assertEquals(0, flight.getInFlight());
+	}
+}
@@ -22,6 +22,8 @@
 package org.jenkinsci.git;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
@@ -98,4 +100,31 @@ public class StreamProgressMonitorTest {
 				+ "task2 ", stream.toString());
 	}
 
+	/**
+	 * Test cancelling a monitor explicitly
+	 */
+	@Test
+	public void cancel() {
+		StreamProgressMonitor monitor = new StreamProgressMonitor(
+				new PrintStream(new ByteArrayOutputStream()));
+		assertFalse(monitor.isCancelled());
+		monitor.cancel();
+		assertTrue(monitor.isCancelled());
+	}
+
+	/**
+	 * Test monitor is cancelled while the current thread is interrupted
+	 */
+	@Test
+	public void interrupted() {
+		CancellableProgressMonitor monitor = new CancellableProgressMonitor();
+		Thread.currentThread().interrupt();
+		try {
+			assertTrue(monitor.isCancelled());
+		} finally {
+			Thread.interrupted();
+		}
+		assertFalse(monitor.isCancelled());
+	}
+
 }
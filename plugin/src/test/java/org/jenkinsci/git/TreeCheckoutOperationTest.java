@@ -76,4 +76,29 @@ public class TreeCheckoutOperationTest extends GitTestCase {
 		assertEquals('a', (char) reader.read());
 		reader.close();
 	}
+
+	/**
+	 * Test checking out a commit from the current commit only writes the
+	 * changed files
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void checkoutFromHead() throws Exception {
+		git.add("file1.txt", "a");
+		RevCommit commit1 = git.add("file2.txt", "b");
+		RevCommit commit2 = git.add("file2.txt", "c");
+		Repository repo = git.repo();
+		assertNotNull(new TreeCheckoutOperation(repo, commit1, commit2).call());
+		TreeCheckoutOperation op = new TreeCheckoutOperation(repo, commit2,
+				commit1);
+		assertEquals(commit2.getTree(), op.call());
+		assertEquals(1, op.getUpdated());
+		assertEquals(0, op.getRemoved());
+		assertTrue(op.getDuration() >= 0);
+		FileReader reader = new FileReader(new File(repo.getWorkTree(),
+				"file2.txt"));
+		assertEquals('c', (char) reader.read());
+		reader.close();
+	}
 }